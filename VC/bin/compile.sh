@@ -7,4 +7,10 @@ echo "Compiling the VC source code"
 
 mkdir -p ${COMPILE_DIR}
 
-javac -sourcepath ${SRC_WORKING_COPY} -d ${COMPILE_DIR} ${SRC_WORKING_COPY}/VC/vc.java
+# The jas library, which the compiler builds class files with (see
+# VC.CodeGen.Assembler), is compiled from its source in VC/jasmin, as
+# are Jasmin and CUP for the tools that still read .j files
+JASMIN=${SRC_WORKING_COPY}/VC/jasmin
+SOURCEPATH=${SRC_WORKING_COPY}:${JASMIN}/src:${JASMIN}/lib/jas/src:${JASMIN}/lib/cup
+
+javac -sourcepath ${SOURCEPATH} -d ${COMPILE_DIR} ${SRC_WORKING_COPY}/VC/vc.java ${SRC_WORKING_COPY}/VC/VcCompiler.java
@@ -4,14 +4,21 @@
 
 package VC.ASTs;
 
+import VC.Scanner.NameTable;
 import VC.Scanner.SourcePosition;
 
 public class Ident extends Terminal {
 
   public AST decl; 
+  public int nameId;  // see VC.Scanner.NameTable
 
   public Ident(String value , SourcePosition position) {
+    this (value, NameTable.NONE, position);
+  }
+
+  public Ident(String value, int nameId, SourcePosition position) {
     super (value, position);
+    this.nameId = nameId;
     decl = null;
   }
 
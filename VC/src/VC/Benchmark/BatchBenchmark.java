@@ -0,0 +1,140 @@
+/*
+ * BatchBenchmark.java
+ *
+ * Measures the throughput, in files per second, of compiling a corpus
+ * of VC programs in one JVM on a work-stealing pool of 1, 2, ..., n
+ * threads, the way vc compiles a batch of files.
+ *
+ * The .vc files in the given directories are copied into a temporary
+ * directory first, so the .j files generated do not land in the source
+ * tree. Files that fail to compile count like any other. The messages
+ * of the compiler are thrown away.
+ *
+ * Usage: java VC.Benchmark.BatchBenchmark [-j n] dir ...
+ *
+ * e.g.   java VC.Benchmark.BatchBenchmark VC/src/VC/CodeGen/test VC/test/Parser
+ */
+
+package VC.Benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import VC.CompilationContext;
+import VC.vc;
+
+public class BatchBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (i + 1 < args.length && args[i].equals("-j")) {
+            maxThreads = Integer.parseInt(args[i + 1]);
+            i += 2;
+        }
+        if (i == args.length) {
+            System.out.println("Usage: java VC.Benchmark.BatchBenchmark [-j n] dir ...");
+            System.exit(1);
+        }
+
+        File work = File.createTempFile("batch", "");
+        work.delete();
+        work.mkdir();
+        ArrayList<String> files = new ArrayList<String>();
+        for (; i < args.length; i++)
+            copyCorpus(new File(args[i]), work, files);
+
+        // let the JIT compile the compiler first
+        for (int round = 0; round < WARMUP_ROUNDS; round++)
+            compileAll(files, maxThreads);
+
+        System.out.println(files.size() + " files");
+        System.out.println("threads    time (ms)    files/sec    speedup");
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++)
+                best = Math.min(best, compileAll(files, threads));
+            double rate = files.size() / (best / 1e9);
+            if (threads == 1)
+                single = rate;
+            System.out.printf("%7d %12.1f %12.0f %10.2f%n",
+                threads, best / 1e6, rate, rate / single);
+        }
+
+        for (File f : work.listFiles())
+            f.delete();
+        work.delete();
+    }
+
+    // Copies the .vc files in dir into work, adding their new names to
+    // files. Each name is prefixed by the name of dir, so files with the
+    // same name in different corpora do not clash.
+
+    private static void copyCorpus(File dir, File work, ArrayList<String> files)
+            throws IOException {
+        String[] names = dir.list();
+        if (names == null)
+            throw new IOException("not a directory: " + dir);
+        java.util.Arrays.sort(names);
+        for (String name : names) {
+            if (!name.endsWith(".vc"))
+                continue;
+            File copy = new File(work, dir.getName() + "_" + name);
+            InputStream in = new FileInputStream(new File(dir, name));
+            OutputStream out = new FileOutputStream(copy);
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+                out.write(buffer, 0, n);
+            in.close();
+            out.close();
+            files.add(copy.getPath());
+        }
+    }
+
+    // Returns the time in nanoseconds taken to compile files on a pool of
+    // the given number of threads
+
+    private static long compileAll(ArrayList<String> files, int threads) {
+        final PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        });
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<ForkJoinTask<Boolean>>();
+
+        long start = System.nanoTime();
+        for (final String file : files) {
+            tasks.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    try {
+                        return vc.compile(new CompilationContext(file, discard));
+                    } catch (RuntimeException e) {
+                        return false;
+                    } catch (StackOverflowError e) {
+                        return false;
+                    }
+                }
+            }));
+        }
+        for (ForkJoinTask<Boolean> task : tasks)
+            task.join();
+        long time = System.nanoTime() - start;
+
+        pool.shutdown();
+        return time;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * CheckerBenchmark.java
+ *
+ * Measures how the time taken by the Checker grows with the number of
+ * global variables in a program. For each size n it generates
+ *
+ *     int g0 = 0; int g1 = 1; ... int g<n-1> = n-1;
+ *     int main() { int s; s = 0; s = s + g0; ... s = s + g<n-1>; return s; }
+ *
+ * and reports the best of several runs of the Checker over it. Since
+ * every identifier lookup takes constant time, the time per global
+ * should stay roughly flat as n grows.
+ *
+ * Usage: java VC.Benchmark.CheckerBenchmark [maxGlobals]
+ */
+
+package VC.Benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import VC.ASTs.AST;
+import VC.Checker.Checker;
+import VC.CompilationContext;
+import VC.Parser.Parser;
+import VC.Scanner.Scanner;
+import VC.Scanner.SourceFile;
+
+public class CheckerBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int WARMUP_RUNS = 20;
+
+    public static void main(String[] args) throws IOException {
+        runSizes(args.length > 0 ? Integer.parseInt(args[0]) : 16000);
+    }
+
+    private static void runSizes(int maxGlobals) throws IOException {
+        // let the JIT compile the front end and the Checker first
+        File warmup = writeProgram(1000);
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            timeCheck(warmup.getPath());
+        warmup.delete();
+
+        System.out.println("globals    check (ms)    ns/global");
+        for (int n = 1000; n <= maxGlobals; n *= 2) {
+            File file = writeProgram(n);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++)
+                best = Math.min(best, timeCheck(file.getPath()));
+            file.delete();
+            System.out.printf("%7d %13.2f %12d%n", n, best / 1e6, best / n);
+        }
+    }
+
+    private static File writeProgram(int n) throws IOException {
+        File file = File.createTempFile("globals", ".vc");
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (int i = 0; i < n; i++)
+            out.println("int g" + i + " = " + i + ";");
+        out.println("int main() {");
+        out.println("  int s;");
+        out.println("  s = 0;");
+        for (int i = 0; i < n; i++)
+            out.println("  s = s + g" + i + ";");
+        out.println("  return s;");
+        out.println("}");
+        out.close();
+        return file;
+    }
+
+    // Returns the time in nanoseconds taken to check the program in
+    // filename, not counting the time taken to parse it
+
+    private static long timeCheck(String filename) {
+        CompilationContext context = new CompilationContext(filename);
+        Scanner scanner = new Scanner(new SourceFile(filename), context);
+        AST ast = new Parser(scanner, context).parseProgram();
+
+        System.gc();
+        long start = System.nanoTime();
+        new Checker(context).check(ast);
+        long time = System.nanoTime() - start;
+
+        if (context.reporter.numErrors != 0)
+            throw new IllegalStateException("benchmark program has errors");
+        return time;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * CompileApiBenchmark.java
+ *
+ * Measures the time taken to compile a corpus of VC programs into
+ * class files in two ways, both in one warmed-up JVM:
+ *
+ *   files      vc.compile writes each .j file, and jasmin.Main then
+ *              assembles it into a .class file
+ *   memory     VcCompiler.compile turns the text of each program into
+ *              the bytes of its class, without touching any file
+ *
+ * It also checks that the two ways give the same class files, that
+ * is, that the Assembler builds the class file Jasmin would. The .vc
+ * files are copied into a temporary directory first, so the .j and
+ * .class files do not land in the source tree.
+ *
+ * Usage: java VC.Benchmark.CompileApiBenchmark dir ...
+ *
+ * e.g.   java VC.Benchmark.CompileApiBenchmark VC/src/VC/CodeGen/test
+ */
+
+package VC.Benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import VC.CompilationContext;
+import VC.VcCompiler;
+import VC.vc;
+
+public class CompileApiBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java VC.Benchmark.CompileApiBenchmark dir ...");
+            System.exit(1);
+        }
+
+        File work = File.createTempFile("api", "");
+        work.delete();
+        work.mkdir();
+        ArrayList<File> files = new ArrayList<File>();
+        for (String dir : args) {
+            String[] names = new File(dir).list();
+            if (names == null)
+                throw new IOException("not a directory: " + dir);
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.endsWith(".vc"))
+                    continue;
+                File copy = new File(work, new File(dir).getName() + "_" + name);
+                copy(new File(dir, name), copy);
+                files.add(copy);
+            }
+        }
+        ArrayList<String> texts = new ArrayList<String>();
+        for (File file : files)
+            texts.add(read(file));
+
+        // the two ways must agree on every program that compiles
+        int compiled = 0;
+        int differing = 0;
+        compileToFiles(files);
+        for (int k = 0; k < files.size(); k++) {
+            VcCompiler.Result result = VcCompiler.compile(files.get(k).getName(),
+                texts.get(k), new VcCompiler.Options());
+            File classFile = new File(work, result.classname + ".class");
+            boolean wrote = classFile.exists();
+            if (result.successful())
+                compiled++;
+            if (result.successful() != wrote
+                    || wrote && !Arrays.equals(result.classFile, readBytes(classFile))) {
+                System.out.println("differs: " + files.get(k).getName());
+                differing++;
+            }
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            compileToFiles(files);
+            compileInMemory(files, texts);
+        }
+        long filesTime = Long.MAX_VALUE;
+        long memoryTime = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            filesTime = Math.min(filesTime, compileToFiles(files));
+            memoryTime = Math.min(memoryTime, compileInMemory(files, texts));
+        }
+
+        System.out.println(files.size() + " files, " + compiled + " compiled to a class, "
+            + differing + " differing");
+        System.out.println("            time (ms)    ms/file");
+        System.out.printf("files    %12.1f %10.3f%n", filesTime / 1e6, filesTime / 1e6 / files.size());
+        System.out.printf("memory   %12.1f %10.3f%n", memoryTime / 1e6, memoryTime / 1e6 / files.size());
+
+        for (File f : work.listFiles())
+            f.delete();
+        work.delete();
+    }
+
+    // Returns the time in nanoseconds taken to compile files through .j
+    // and .class files
+
+    private static long compileToFiles(ArrayList<File> files) {
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        });
+        // jasmin.Main prints to System.out and System.err
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(discard);
+        System.setErr(discard);
+        long start = System.nanoTime();
+        for (File file : files) {
+            File j = new File(file.getPath().replaceAll("\\.vc$", ".j"));
+            File classFile = new File(file.getPath().replaceAll("\\.vc$", ".class"));
+            j.delete();
+            classFile.delete();
+            CompilationContext context = new CompilationContext(file.getName(), discard);
+            context.directory = file.getParentFile();
+            context.writingClassFile = false;
+            context.writingJasminFile = true;
+            try {
+                vc.compile(context);
+            } catch (RuntimeException e) {
+            } catch (StackOverflowError e) {
+            }
+            if (j.exists())
+                jasmin.Main.assemble(file.getParent(), j.getPath(), false);
+        }
+        long time = System.nanoTime() - start;
+        System.setOut(out);
+        System.setErr(err);
+        return time;
+    }
+
+    // Returns the time in nanoseconds taken to compile texts in memory
+
+    private static long compileInMemory(ArrayList<File> files, ArrayList<String> texts) {
+        VcCompiler.Options options = new VcCompiler.Options();
+        long start = System.nanoTime();
+        for (int k = 0; k < files.size(); k++)
+            VcCompiler.compile(files.get(k).getName(), texts.get(k), options);
+        return System.nanoTime() - start;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        OutputStream out = new FileOutputStream(to);
+        out.write(readBytes(from));
+        out.close();
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        byte[] bytes = new byte[(int) file.length()];
+        int n = 0;
+        while (n < bytes.length)
+            n += in.read(bytes, n, bytes.length - n);
+        in.close();
+        return bytes;
+    }
+
+    private static String read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file));
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+            text.append(buffer, 0, n);
+        in.close();
+        return text.toString();
+    }
+
+}
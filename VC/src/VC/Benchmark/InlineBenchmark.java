@@ -0,0 +1,176 @@
+/*
+ * InlineBenchmark.java
+ *
+ * Reports how many calls the inliner of VC.IR (see Inliner) removes
+ * from a corpus of VC programs, and how much faster it makes them run.
+ * Each program is compiled in memory with -ir -O twice, with -inline 0
+ * and with the default thresholds, and the calls to its own functions
+ * left in its code are counted. The programs that do not read any
+ * input are then loaded and their main run in this JVM, warmed up
+ * first; the best of ROUNDS runs of RUNS calls of main is reported.
+ * The two must print the same output.
+ *
+ * Usage: java VC.Benchmark.InlineBenchmark dir ...
+ *
+ * e.g.   java VC.Benchmark.InlineBenchmark VC/src/VC/CodeGen/test
+ */
+
+package VC.Benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import VC.VcCompiler;
+
+public class InlineBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int RUNS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java VC.Benchmark.InlineBenchmark dir ...");
+            System.exit(1);
+        }
+
+        int files = 0, timed = 0;
+        int callsBefore = 0, callsAfter = 0;
+        long totalBefore = 0, totalAfter = 0;
+        System.out.println("file                        calls  after   before (ms)  after (ms)");
+        for (String dir : args) {
+            String[] names = new File(dir).list();
+            if (names == null)
+                throw new IOException("not a directory: " + dir);
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.endsWith(".vc"))
+                    continue;
+                String text = read(new File(dir, name));
+                VcCompiler.Result before = compile(name, text, 0);
+                VcCompiler.Result after = compile(name, text, new VcCompiler.Options().inlineSize);
+                if (!before.successful() || !after.successful())
+                    continue;
+                files++;
+                int b = calls(before), a = calls(after);
+                callsBefore += b;
+                callsAfter += a;
+                if (b == 0)
+                    continue;   // nothing to inline
+
+                String times = "";
+                if (!text.contains("getInt") && !text.contains("getFloat")) {
+                    Method beforeMain = load(before), afterMain = load(after);
+                    if (beforeMain == null || afterMain == null) {
+                        System.out.println(name + ": does not load");
+                        continue;
+                    }
+                    if (!run(beforeMain, 1).equals(run(afterMain, 1))) {
+                        System.out.println(name + ": the output differs");
+                        continue;
+                    }
+                    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                        time(beforeMain);
+                        time(afterMain);
+                    }
+                    long beforeTime = Long.MAX_VALUE;
+                    long afterTime = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        beforeTime = Math.min(beforeTime, time(beforeMain));
+                        afterTime = Math.min(afterTime, time(afterMain));
+                    }
+                    totalBefore += beforeTime;
+                    totalAfter += afterTime;
+                    timed++;
+                    times = String.format("%12.2f %11.2f", beforeTime / 1e6, afterTime / 1e6);
+                }
+                System.out.printf("%-26s %6d %6d %s%n", name, b, a, times);
+            }
+        }
+        System.out.printf("%d files: %d calls, %d after inlining%n", files, callsBefore, callsAfter);
+        System.out.printf("%d timed: %.2f ms, %.2f ms after inlining%n", timed,
+            totalBefore / 1e6, totalAfter / 1e6);
+    }
+
+    private static VcCompiler.Result compile(String name, String text, int inlineSize) {
+        VcCompiler.Options options = new VcCompiler.Options();
+        options.usingIR = true;
+        options.optimising = true;
+        options.inlineSize = inlineSize;
+        options.keepingJasmin = true;
+        return VcCompiler.compile(name, text, options);
+    }
+
+    // Returns the number of calls to the functions of the program in
+    // its code
+
+    private static int calls(VcCompiler.Result result) {
+        int n = 0;
+        for (String line : result.jasmin.split("\n"))
+            if (line.trim().startsWith("invoke") && line.contains(" " + result.classname + "/")
+                    && !line.contains("<init>"))
+                n++;
+        return n;
+    }
+
+    // Returns the main method of the class, loaded by a class loader of
+    // its own, or null if it cannot be loaded (e.g. VC arrays are not
+    // generated yet)
+
+    private static Method load(VcCompiler.Result result) throws Exception {
+        try {
+            Class<?> c = new ClassLoader(InlineBenchmark.class.getClassLoader()) {
+                Class<?> define(String classname, byte[] bytes) {
+                    return defineClass(classname, bytes, 0, bytes.length);
+                }
+            }.define(result.classname, result.classFile);
+            return c.getMethod("main", String[].class);
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    // Returns what main prints when called runs times
+
+    private static String run(Method main, int runs) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes));
+        try {
+            for (int k = 0; k < runs; k++)
+                main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace(System.out);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    // Returns the time in nanoseconds main takes to run RUNS times
+
+    private static long time(Method main) throws Exception {
+        long start = System.nanoTime();
+        run(main, RUNS);
+        return System.nanoTime() - start;
+    }
+
+    private static String read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file));
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+            text.append(buffer, 0, n);
+        in.close();
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * LoopBenchmark.java
+ *
+ * Measures how much faster the loop optimisations of VC.IR (see
+ * LoopInvariantCodeMotion and StrengthReduction) make a corpus of VC
+ * programs run. Each program is compiled in memory with -ir -O twice,
+ * without and with the loop optimisations, and each class is loaded
+ * and its main run in this JVM, warmed up first; the best of ROUNDS
+ * runs is reported. The two must print the same output.
+ *
+ * The programs must not read any input.
+ *
+ * Usage: java VC.Benchmark.LoopBenchmark dir ...
+ *
+ * e.g.   java VC.Benchmark.LoopBenchmark VC/src/VC/Benchmark/loops
+ */
+
+package VC.Benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import VC.VcCompiler;
+
+public class LoopBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java VC.Benchmark.LoopBenchmark dir ...");
+            System.exit(1);
+        }
+
+        long totalBefore = 0, totalAfter = 0;
+        System.out.println("file                  before (ms)  after (ms)  speedup");
+        for (String dir : args) {
+            String[] names = new File(dir).list();
+            if (names == null)
+                throw new IOException("not a directory: " + dir);
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.endsWith(".vc"))
+                    continue;
+                String text = read(new File(dir, name));
+                Method before = compile(name, text, false);
+                Method after = compile(name, text, true);
+                if (before == null || after == null) {
+                    System.out.println(name + ": does not compile");
+                    continue;
+                }
+                if (!run(before).equals(run(after))) {
+                    System.out.println(name + ": the output differs");
+                    continue;
+                }
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    time(before);
+                    time(after);
+                }
+                long beforeTime = Long.MAX_VALUE;
+                long afterTime = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    beforeTime = Math.min(beforeTime, time(before));
+                    afterTime = Math.min(afterTime, time(after));
+                }
+                totalBefore += beforeTime;
+                totalAfter += afterTime;
+                System.out.printf("%-20s %12.1f %11.1f %8.2f%n", name,
+                    beforeTime / 1e6, afterTime / 1e6, (double) beforeTime / afterTime);
+            }
+        }
+        System.out.printf("%-20s %12.1f %11.1f %8.2f%n", "total",
+            totalBefore / 1e6, totalAfter / 1e6, (double) totalBefore / totalAfter);
+    }
+
+    // Returns the main method of the class compiled from text, loaded by
+    // a class loader of its own, or null if it does not compile
+
+    private static Method compile(String name, String text, boolean optimisingLoops)
+            throws Exception {
+        VcCompiler.Options options = new VcCompiler.Options();
+        options.usingIR = true;
+        options.optimising = true;
+        options.optimisingLoops = optimisingLoops;
+        VcCompiler.Result result = VcCompiler.compile(name, text, options);
+        if (!result.successful())
+            return null;
+        Class<?> c = new ClassLoader(LoopBenchmark.class.getClassLoader()) {
+            Class<?> define(String classname, byte[] bytes) {
+                return defineClass(classname, bytes, 0, bytes.length);
+            }
+        }.define(result.classname, result.classFile);
+        return c.getMethod("main", String[].class);
+    }
+
+    // Returns what main prints
+
+    private static String run(Method main) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes));
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace(System.out);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    // Returns the time in nanoseconds main takes to run
+
+    private static long time(Method main) throws Exception {
+        long start = System.nanoTime();
+        run(main);
+        return System.nanoTime() - start;
+    }
+
+    private static String read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file));
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+            text.append(buffer, 0, n);
+        in.close();
+        return text.toString();
+    }
+
+}
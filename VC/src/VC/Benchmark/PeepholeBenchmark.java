@@ -0,0 +1,115 @@
+/*
+ * PeepholeBenchmark.java
+ *
+ * Reports how much smaller the peephole optimiser (VC.CodeGen.Peephole)
+ * makes the code generated for a corpus of VC programs, and how often
+ * each of its rules fires. Each program is compiled without -O, and the
+ * number of JVM instructions and the size of the class file are taken
+ * before and after the optimiser is run over the code store.
+ *
+ * Usage: java VC.Benchmark.PeepholeBenchmark dir ...
+ *
+ * e.g.   java VC.Benchmark.PeepholeBenchmark VC/src/VC/CodeGen/test
+ */
+
+package VC.Benchmark;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import VC.CodeGen.JVM;
+import VC.CodeGen.Peephole;
+import VC.CompilationContext;
+import VC.FatalError;
+import VC.vc;
+
+public class PeepholeBenchmark {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java VC.Benchmark.PeepholeBenchmark dir ...");
+            System.exit(1);
+        }
+
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        });
+
+        Peephole.Rule[] rules = Peephole.allRules();
+        int files = 0;
+        long instructionsBefore = 0, instructionsAfter = 0;
+        long bytesBefore = 0, bytesAfter = 0;
+
+        System.out.println("file                         insns  after   bytes  after");
+        for (String dir : args) {
+            String[] names = new File(dir).list();
+            if (names == null) {
+                System.out.println("not a directory: " + dir);
+                System.exit(1);
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.endsWith(".vc"))
+                    continue;
+                CompilationContext context = new CompilationContext(name, discard);
+                context.directory = new File(dir);
+                context.writingClassFile = false;
+                int before, after;
+                byte[] classBefore, classAfter;
+                try {
+                    vc.compile(context);
+                    if (context.reporter.numErrors != 0)
+                        continue;
+                    before = instructions(context.code);
+                    classBefore = context.code.assemble(name);
+                    new Peephole(rules).optimise(context.code);
+                    after = instructions(context.code);
+                    classAfter = context.code.assemble(name);
+                } catch (FatalError e) {
+                    continue;
+                } catch (RuntimeException e) {
+                    continue;
+                } catch (StackOverflowError e) {
+                    continue;
+                }
+                files++;
+                instructionsBefore += before;
+                instructionsAfter += after;
+                bytesBefore += classBefore.length;
+                bytesAfter += classAfter.length;
+                System.out.printf("%-26s %7d %6d %7d %6d%n", name, before, after,
+                                  classBefore.length, classAfter.length);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%d files: %d -> %d instructions (%.1f%% fewer), "
+                          + "%d -> %d class file bytes (%.1f%% fewer)%n",
+                          files, instructionsBefore, instructionsAfter,
+                          percent(instructionsBefore, instructionsAfter),
+                          bytesBefore, bytesAfter, percent(bytesBefore, bytesAfter));
+        System.out.println();
+        System.out.println("rule                  hits");
+        for (Peephole.Rule rule : rules)
+            System.out.printf("%-20s %5d%n", rule.name, rule.hits);
+    }
+
+    // Returns the number of JVM instructions in code, leaving out the
+    // labels, comments and directives
+
+    private static int instructions(JVM code) {
+        int n = 0;
+        for (int addr = 0; addr < code.nextInstAddr; addr++)
+            if (code.code[addr].opcode >= 0)
+                n++;
+        return n;
+    }
+
+    private static double percent(long before, long after) {
+        return before == 0 ? 0 : 100.0 * (before - after) / before;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * ServerBenchmark.java
+ *
+ * Measures the latency of compiling one VC program through the compile
+ * server vcd, request by request, from the first (cold) request to the
+ * last (warm) one, and compares it with running vc in a JVM of its own
+ * for every compilation, the way the vc command does.
+ *
+ * The server is started in this JVM on a free port, and the requests
+ * are made with vcc over the loopback interface, so the times include
+ * the socket round trip. The program is copied into a temporary
+ * directory first, so the .j file generated does not land in the source
+ * tree.
+ *
+ * Usage: java VC.Benchmark.ServerBenchmark [-n requests] file.vc
+ *
+ * e.g.   java VC.Benchmark.ServerBenchmark VC/src/VC/CodeGen/test/gcd.vc
+ */
+
+package VC.Benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import VC.vcc;
+import VC.vcd;
+
+public class ServerBenchmark {
+
+    private static final int PROCESS_RUNS = 5;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int requests = 1000;
+        int i = 0;
+        if (i + 1 < args.length && args[i].equals("-n")) {
+            requests = Integer.parseInt(args[i + 1]);
+            i += 2;
+        }
+        if (i + 1 != args.length) {
+            System.out.println("Usage: java VC.Benchmark.ServerBenchmark [-n requests] file.vc");
+            System.exit(1);
+        }
+
+        File work = File.createTempFile("server", "");
+        work.delete();
+        work.mkdir();
+        File source = new File(args[i]);
+        copy(source, new File(work, source.getName()));
+        String[] vcArgs = { source.getName() };
+
+        // one JVM per compilation
+
+        long[] process = new long[PROCESS_RUNS];
+        for (int run = 0; run < PROCESS_RUNS; run++) {
+            ProcessBuilder builder = new ProcessBuilder("java",
+                "-cp", System.getProperty("java.class.path"), "VC.vc", source.getName());
+            builder.directory(work);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            long start = System.nanoTime();
+            builder.start().waitFor();
+            process[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(process);
+
+        // one server for all of them
+
+        final ServerSocket server = vcd.listen(0);
+        final String token = vcd.newToken();
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                vcd.serve(server, token);
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+
+        OutputStream discard = new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        };
+        long[] latency = new long[requests];
+        for (int n = 0; n < requests; n++) {
+            long start = System.nanoTime();
+            vcc.request(server.getLocalPort(), token, work.getPath(), vcArgs, discard);
+            latency[n] = System.nanoTime() - start;
+        }
+        server.close();
+
+        System.out.println(source.getName() + ", " + requests + " requests");
+        System.out.printf("vc, one JVM per file (median of %d)  %10.2f ms%n",
+            PROCESS_RUNS, process[PROCESS_RUNS / 2] / 1e6);
+        System.out.println("vcd, request    latency (ms)");
+        for (int n = 1; n <= requests; n *= 10)
+            System.out.printf("%12d %15.2f%n", n, latency[n - 1] / 1e6);
+        int tail = Math.min(100, requests);
+        long[] last = Arrays.copyOfRange(latency, requests - tail, requests);
+        Arrays.sort(last);
+        System.out.printf("median of the last %d %8.2f%n", tail, last[tail / 2] / 1e6);
+
+        for (File f : work.listFiles())
+            f.delete();
+        work.delete();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+            out.write(buffer, 0, n);
+        in.close();
+        out.close();
+    }
+
+}
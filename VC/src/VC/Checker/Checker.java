@@ -14,8 +14,12 @@
 
 package VC.Checker;
 
+import java.io.PrintStream;
+
 import VC.ASTs.*;
 import VC.Scanner.SourcePosition;
+import VC.Scanner.NameTable;
+import VC.CompilationContext;
 import VC.ErrorReporter;
 import VC.StdEnvironment;
 
@@ -83,8 +87,10 @@ public final class Checker implements Visitor {
 
 
     private SymbolTable idTable;
-    private static SourcePosition dummyPos = new SourcePosition();
+    private SourcePosition dummyPos = new SourcePosition();
     private ErrorReporter reporter;
+    private StdEnvironment env;
+    private PrintStream out;
 
     // ------------------------------
     // My member variables 
@@ -100,9 +106,11 @@ public final class Checker implements Visitor {
     // Constructor 
     // ------------------------------
 
-    public Checker (ErrorReporter reporter) {
+    public Checker (CompilationContext context) {
 
-        this.reporter = reporter;
+        this.reporter = context.reporter;
+        this.env = context.env;
+        this.out = context.out;
         this.idTable = new SymbolTable ();
         establishStdEnvironment();
 
@@ -185,10 +193,18 @@ public final class Checker implements Visitor {
     // ------------------------------
 
     // Always returns null. Does not use the given object.
+    //
+    // The list visitors walk their lists in a loop rather than by
+    // recursion, so that long programs do not overflow the stack.
 
     public Object visitDeclList(DeclList ast, Object o) {
-        ast.D.visit(this, null);
-        ast.DL.visit(this, null);
+        List list = ast;
+        while (list instanceof DeclList) {
+            DeclList cell = (DeclList) list;
+            cell.D.visit(this, null);
+            list = cell.DL;
+        }
+        list.visit(this, null);
         return null;
     }
 
@@ -215,7 +231,7 @@ public final class Checker implements Visitor {
         } 
 
         // Check for error 1: return type of main is not int
-        if (ast.I.spelling.equals("main") && ! ast.T.isIntType()) {
+        if (ast.I.nameId == NameTable.MAIN && ! ast.T.isIntType()) {
             reporter.reportError(errMesg[1], "", ast.I.position);
         }
 
@@ -272,7 +288,7 @@ public final class Checker implements Visitor {
     // This identifer has not been declared at the current scope level
 
     private void declareIdent(Ident ident, Decl decl) {
-        IdEntry entry = idTable.retrieveOneLevel(ident.spelling);
+        IdEntry entry = idTable.retrieveOneLevel(ident.nameId);
 
         // Check for error 2: identifier redeclared
         if (entry != null) {
@@ -280,7 +296,7 @@ public final class Checker implements Visitor {
             return;
         } 
 
-        idTable.insert(ident.spelling, decl);
+        idTable.insert(ident.nameId, decl);
     }
 
     // Returns true 
@@ -295,7 +311,7 @@ public final class Checker implements Visitor {
     // - and its parameter list is empty    
 
     private boolean isMainFunction(FuncDecl func) {
-        return func.I.spelling.equals("main") && 
+        return func.I.nameId == NameTable.MAIN && 
             func.T.isIntType() &&
             func.PL.isEmptyParaList();
     }
@@ -354,17 +370,22 @@ public final class Checker implements Visitor {
     // ------------------------------
 
     public Object visitStmtList(StmtList ast, Object o) {
-        ast.S.visit(this, o);
+        List list = ast;
+        while (list instanceof StmtList) {
+            StmtList cell = (StmtList) list;
+            cell.S.visit(this, o);
+
+            // Check for error 30: statement(s) not reached
+            if ((cell.S instanceof ReturnStmt ||
+                 cell.S instanceof BreakStmt || 
+                 cell.S instanceof ContinueStmt) && 
+                cell.SL instanceof StmtList) {
+                reporter.reportError(errMesg[30], "", cell.SL.position);
+            }
 
-        // Check for error 30: statement(s) not reached
-        if ((ast.S instanceof ReturnStmt ||
-             ast.S instanceof BreakStmt || 
-             ast.S instanceof ContinueStmt) && 
-            ast.SL instanceof StmtList) {
-            reporter.reportError(errMesg[30], "", ast.SL.position);
+            list = cell.SL;
         }
-
-        ast.SL.visit(this, o);
+        list.visit(this, o);
         return null;
     }
 
@@ -372,7 +393,7 @@ public final class Checker implements Visitor {
         ast.E.visit(this, o);
 
         // Check for error 20: if conditional is not boolean 
-        if (! ast.E.type.equals(StdEnvironment.booleanType)) {
+        if (! ast.E.type.equals(env.booleanType)) {
             reporter.reportError(errMesg[20] + ". Instead it is %.", ast.E.type.toString() , ast.E.position);
         }
         // Check for error 22: while conditional is not boolean
@@ -386,7 +407,7 @@ public final class Checker implements Visitor {
         ast.E.visit(this, o);
 
         // Check for error 22: while conditional is not boolean
-        if (! ast.E.type.equals(StdEnvironment.booleanType)) {
+        if (! ast.E.type.equals(env.booleanType)) {
             reporter.reportError(errMesg[22] + ". Instead it is %.", ast.E.type.toString() , ast.E.position);
         }
 
@@ -409,7 +430,7 @@ public final class Checker implements Visitor {
         // the for conditional is not empty and is not boolean
         //
         if (! ast.E2.isEmptyExpr() && 
-            ! ast.E2.type.equals(StdEnvironment.booleanType)) {
+            ! ast.E2.type.equals(env.booleanType)) {
           
             reporter.reportError(errMesg[21] + ". Instead it is %.", ast.E2.type.toString() , ast.E2.position);
         }
@@ -454,7 +475,7 @@ public final class Checker implements Visitor {
         } else if (func.T.isFloatType() && ast.E.type.isIntType()) {
             Operator i2f = new Operator("i2f", dummyPos);
             ast.E = new UnaryExpr(i2f, ast.E, dummyPos);
-            ast.E.type = StdEnvironment.floatType;
+            ast.E.type = env.floatType;
         }
         
         return null;
@@ -504,25 +525,25 @@ public final class Checker implements Visitor {
 
     public Object visitIntExpr(IntExpr ast, Object o) {
         ast.IL.visit(this, o);
-        ast.type = StdEnvironment.intType;
+        ast.type = env.intType;
         return ast.type;
     }
 
     public Object visitFloatExpr(FloatExpr ast, Object o) {
         ast.FL.visit(this, o);
-        ast.type = StdEnvironment.floatType;
+        ast.type = env.floatType;
         return ast.type;
     }
 
     public Object visitBooleanExpr(BooleanExpr ast, Object o) {
         ast.BL.visit(this, o);
-        ast.type = StdEnvironment.booleanType;
+        ast.type = env.booleanType;
         return ast.type;
     }
 
     public Object visitStringExpr(StringExpr ast, Object o) {
         ast.SL.visit(this, o);
-        ast.type = StdEnvironment.stringType;
+        ast.type = env.stringType;
         return ast.type;
     }
 
@@ -583,7 +604,7 @@ public final class Checker implements Visitor {
         // Check for error 9: incompatible type for this binary operator
         if (! isValidBinaryExpr(ast.E1.type, ast.E2.type, ast.O)) {
             reporter.reportError(errMesg[9], "", ast.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
 
         // Otherwise the binary operator has valid operands    
@@ -592,27 +613,27 @@ public final class Checker implements Visitor {
             // Set the type of the binary expression
             if (isArithmeticOp(ast.O)) {
                 if (ast.E1.type.isFloatType() || ast.E2.type.isFloatType()) {
-                    ast.type = StdEnvironment.floatType; 
+                    ast.type = env.floatType; 
                 } else {
-                    ast.type = StdEnvironment.intType;
+                    ast.type = env.intType;
                 }
             } else if (isEqualityOp(ast.O) || isInequalityOp(ast.O) || isLogicOp(ast.O)) {
-                ast.type = StdEnvironment.booleanType;
+                ast.type = env.booleanType;
             } else {
                 // Should never get here as each operator
                 // is either an arithmetic, comparison or logic operator
-                ast.type = StdEnvironment.errorType;
+                ast.type = env.errorType;
             }
 
             // Type-coerce the operands if necessary
             if (ast.E1.type.isIntType() && ast.E2.type.isFloatType()) {
                 Operator i2f = new Operator("i2f", dummyPos);
                 ast.E1 = new UnaryExpr(i2f, ast.E1, dummyPos);
-                ast.E1.type = StdEnvironment.floatType;
+                ast.E1.type = env.floatType;
             } else if (ast.E1.type.isFloatType() && ast.E2.type.isIntType()) {
                 Operator i2f = new Operator("i2f", dummyPos);
                 ast.E2 = new UnaryExpr(i2f, ast.E2, dummyPos);
-                ast.E2.type = StdEnvironment.floatType;
+                ast.E2.type = env.floatType;
             }
 
             // Replace each overloaded operator with its non-overloaded equivalent
@@ -683,7 +704,7 @@ public final class Checker implements Visitor {
         // The type is not an array 
         if (! type.isArrayType()) {
             reporter.reportError(errMesg[14], "", ast.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
             
         // Otherwise all is good; we have an array initialiser for an array    
@@ -755,9 +776,25 @@ public final class Checker implements Visitor {
         }
     }
 
-    // Second arg is either null or a TypeAndLength object
+    // Second arg is either null or a TypeAndLength object. Returns the
+    // type of the first expression, or errorType if it is an element of
+    // the wrong type for an array initialiser.
 
     public Object visitExprList(ExprList ast, Object o) {
+        Object result = null;
+        List list = ast;
+        while (list instanceof ExprList) {
+            ExprList cell = (ExprList) list;
+            Type type = checkExpr(cell, o);
+            if (result == null)
+                result = type;
+            list = cell.EL;
+        }
+        list.visit(this, o);
+        return result;
+    }
+
+    private Type checkExpr(ExprList ast, Object o) {
         
         if (o != null) {
 
@@ -769,25 +806,22 @@ public final class Checker implements Visitor {
             // Check for error 13: wrong type for element in array initialiser
             if (! typeAndLength.isCorrectType(ast.E.type)) {
                 reporter.reportError(errMesg[13] + ": expected " + typeAndLength.getBaseType() + ", got %.", ast.E.type.toString(), ast.E.position);
-                ast.EL.visit(this, typeAndLength);
 
-                return StdEnvironment.errorType;
+                return env.errorType;
             } else {
-                    System.out.println("array's type is " + typeAndLength.arrayType.T.isFloatType() +" my type is "+  ast.E.type.isIntType());
+                    out.println("array's type is " + typeAndLength.arrayType.T.isFloatType() +" my type is "+  ast.E.type.isIntType());
                 // An integer value inside a float array should be typecast to float
                 if (typeAndLength.arrayType.T.isFloatType() && ast.E.type.isIntType()) {
                     Operator i2f = new Operator("i2f", dummyPos);
                     ast.E = new UnaryExpr(i2f, ast.E, dummyPos);
-                    ast.E.type = StdEnvironment.floatType;
+                    ast.E.type = env.floatType;
                 }
 
-                ast.EL.visit(this, typeAndLength);
                 return ast.E.type;
             }
 
         } else {
             ast.E.visit(this, o);
-            ast.EL.visit(this, o);
             return ast.E.type; 
         }
     }
@@ -806,13 +840,13 @@ public final class Checker implements Visitor {
         // Check for error 12: attempt to use a scalar/function as an array
         if (! ast.V.type.isArrayType()) {
             reporter.reportError(errMesg[12], "", ast.V.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
 
         // Check for error 17: array subscript is not an integer
         } else if (! ast.E.type.isIntType()) {
             reporter.reportError(errMesg[17] + ". Instead it is %.", ast.E.type.toString(), ast.E.position); 
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
             
         // Else there are no problems. The type of an arrayExpr 
@@ -844,18 +878,18 @@ public final class Checker implements Visitor {
     public Object visitCallExpr(CallExpr ast, Object o) {
         
         // Search for the function being called
-        Decl decl = idTable.retrieve(ast.I.spelling);
+        Decl decl = idTable.retrieve(ast.I.nameId);
 
         // Check for error 5: identifier undeclared
         if (decl == null) {
             reporter.reportError(errMesg[5] + ": %", ast.I.spelling, ast.I.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
 
         // Check for error 19: attempt to reference a scalar/array as a function
         } else if (! decl.isFuncDecl()) {
             reporter.reportError(errMesg[19] + ": %", ast.I.spelling, ast.I.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
 
         // Else the call expression is valid 
@@ -925,7 +959,7 @@ public final class Checker implements Visitor {
         if (ast.E1.type.isFloatType() && ast.E2.type.isIntType()) {
             Operator i2f = new Operator("i2f", dummyPos);
             ast.E2 = new UnaryExpr(i2f, ast.E2, dummyPos);
-            ast.E2.type = StdEnvironment.floatType;
+            ast.E2.type = env.floatType;
         }
 
         ast.type = ast.E1.type;
@@ -933,7 +967,7 @@ public final class Checker implements Visitor {
     }
 
     public Object visitEmptyExpr(EmptyExpr ast, Object o) {
-        ast.type = StdEnvironment.voidType;
+        ast.type = env.voidType;
         return ast.type;
     }
 
@@ -943,23 +977,23 @@ public final class Checker implements Visitor {
     // ------------------------------
 
     public Object visitIntLiteral(IntLiteral IL, Object o) {
-        return StdEnvironment.intType;
+        return env.intType;
     }
 
     public Object visitFloatLiteral(FloatLiteral IL, Object o) {
-        return StdEnvironment.floatType;
+        return env.floatType;
     }
 
     public Object visitBooleanLiteral(BooleanLiteral SL, Object o) {
-        return StdEnvironment.booleanType;
+        return env.booleanType;
     }
 
     public Object visitStringLiteral(StringLiteral IL, Object o) {
-        return StdEnvironment.stringType;
+        return env.stringType;
     }
 
     public Object visitIdent(Ident I, Object o) {
-        Decl binding = idTable.retrieve(I.spelling);
+        Decl binding = idTable.retrieve(I.nameId);
         if (binding != null)
             I.decl = binding;
         return binding;
@@ -976,8 +1010,13 @@ public final class Checker implements Visitor {
     // Always returns null. Does not use the given object.
 
     public Object visitParaList(ParaList ast, Object o) {
-        ast.P.visit(this, null);
-        ast.PL.visit(this, null);
+        List list = ast;
+        while (list instanceof ParaList) {
+            ParaList cell = (ParaList) list;
+            cell.P.visit(this, null);
+            list = cell.PL;
+        }
+        list.visit(this, null);
         return null;
     }
 
@@ -1020,19 +1059,26 @@ public final class Checker implements Visitor {
     //
     public Object visitArgList(ArgList ast, Object o) {
         List list = (List) o;    
+        List args = ast;
 
-        // Check for error 25: too many actual parameters
-        if (list.isEmptyParaList()) {
-            reporter.reportError(errMesg[25], "", ast.position);
+        while (args instanceof ArgList) {
+            ArgList cell = (ArgList) args;
 
-        // If error 25 doesn't occur then we can continue 
-        // checking the rest of the args
-        } else {
+            // Check for error 25: too many actual parameters
+            if (list.isEmptyParaList()) {
+                reporter.reportError(errMesg[25], "", cell.position);
+                return null;
+            }
+
+            // If error 25 doesn't occur then we can continue 
+            // checking the rest of the args
             ParaList paralist = (ParaList) list;
-            ast.A.visit(this, paralist.P);
-            ast.AL.visit(this, paralist.PL);
+            cell.A.visit(this, paralist.P);
+            list = paralist.PL;
+            args = cell.AL;
         }
 
+        args.visit(this, list);
         return null;
     }
 
@@ -1070,7 +1116,7 @@ public final class Checker implements Visitor {
         if (formal.T.isFloatType() && ast.E.type.isIntType()) {
             Operator i2f = new Operator("i2f", dummyPos);
             ast.E = new UnaryExpr(i2f, ast.E, dummyPos);
-            ast.E.type = StdEnvironment.floatType;
+            ast.E.type = env.floatType;
         }
         
         return null;
@@ -1101,23 +1147,23 @@ public final class Checker implements Visitor {
     // Returns the type predefined in the standard environment. 
 
     public Object visitVoidType(VoidType ast, Object o) {
-        return StdEnvironment.voidType;
+        return env.voidType;
     }
 
     public Object visitBooleanType(BooleanType ast, Object o) {
-        return StdEnvironment.booleanType;
+        return env.booleanType;
     }
 
     public Object visitIntType(IntType ast, Object o) {
-        return StdEnvironment.intType;
+        return env.intType;
     }
 
     public Object visitFloatType(FloatType ast, Object o) {
-        return StdEnvironment.floatType;
+        return env.floatType;
     }
 
     public Object visitStringType(StringType ast, Object o) {
-        return StdEnvironment.stringType;
+        return env.stringType;
     }
 
     public Object visitArrayType(ArrayType ast, Object o) { 
@@ -1127,7 +1173,7 @@ public final class Checker implements Visitor {
     }
 
     public Object visitErrorType(ErrorType ast, Object o) {
-        return StdEnvironment.errorType;
+        return env.errorType;
     }
 
     // ------------------------------
@@ -1146,16 +1192,16 @@ public final class Checker implements Visitor {
         ast.I.visit(this, o);
 
         // Check for error 5: identifier undeclared
-        Decl decl = idTable.retrieve(ast.I.spelling);
+        Decl decl = idTable.retrieve(ast.I.nameId);
         if (decl == null) {
             reporter.reportError(errMesg[5] + ": %", ast.I.spelling, ast.I.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
 
         // Check for error 11: attempt to use an array/fuction as a scalar
         } else if (useScalar && (decl.T.isArrayType() || decl.isFuncDecl())) {
             reporter.reportError(errMesg[11] + ": %", ast.I.spelling, ast.I.position);
-            ast.type = StdEnvironment.errorType;
+            ast.type = env.errorType;
             return ast.type;
         
         // Else there's no error. The type of the variable 
@@ -1176,11 +1222,12 @@ public final class Checker implements Visitor {
     // Creates a small AST to represent the "declaration" of each built-in
     // function, and enters it in the symbol table.
 
-    private FuncDecl declareStdFunc (Type resultType, String id, List pl) {
+    private FuncDecl declareStdFunc (Type resultType, int id, List pl) {
 
         FuncDecl binding;
 
-        binding = new FuncDecl(resultType, new Ident(id, dummyPos), pl, 
+        binding = new FuncDecl(resultType, 
+                new Ident(NameTable.predefinedName(id), id, dummyPos), pl, 
                 new EmptyStmt(dummyPos), dummyPos);
         idTable.insert (id, binding);
         return binding;
@@ -1190,63 +1237,63 @@ public final class Checker implements Visitor {
     // built-in functions.
     // Inserts these "declarations" into the symbol table.
 
-    private final static Ident dummyI = new Ident("x", dummyPos);
+    private final Ident dummyI = new Ident("x", dummyPos);
 
     private void establishStdEnvironment () {
 
         // Define four primitive types
         // errorType is assigned to ill-typed expressions
 
-        StdEnvironment.booleanType = new BooleanType(dummyPos);
-        StdEnvironment.intType = new IntType(dummyPos);
-        StdEnvironment.floatType = new FloatType(dummyPos);
-        StdEnvironment.stringType = new StringType(dummyPos);
-        StdEnvironment.voidType = new VoidType(dummyPos);
-        StdEnvironment.errorType = new ErrorType(dummyPos);
+        env.booleanType = new BooleanType(dummyPos);
+        env.intType = new IntType(dummyPos);
+        env.floatType = new FloatType(dummyPos);
+        env.stringType = new StringType(dummyPos);
+        env.voidType = new VoidType(dummyPos);
+        env.errorType = new ErrorType(dummyPos);
 
         // enter the declarations for built-in functions into the table
 
-        StdEnvironment.getIntDecl = declareStdFunc( StdEnvironment.intType,
-                "getInt", new EmptyParaList(dummyPos)); 
-        StdEnvironment.putIntDecl = declareStdFunc( StdEnvironment.voidType,
-                "putInt", new ParaList(
-                    new ParaDecl(StdEnvironment.intType, dummyI, dummyPos),
+        env.getIntDecl = declareStdFunc( env.intType,
+                NameTable.GETINT, new EmptyParaList(dummyPos)); 
+        env.putIntDecl = declareStdFunc( env.voidType,
+                NameTable.PUTINT, new ParaList(
+                    new ParaDecl(env.intType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
-        StdEnvironment.putIntLnDecl = declareStdFunc( StdEnvironment.voidType,
-                "putIntLn", new ParaList(
-                    new ParaDecl(StdEnvironment.intType, dummyI, dummyPos),
+        env.putIntLnDecl = declareStdFunc( env.voidType,
+                NameTable.PUTINTLN, new ParaList(
+                    new ParaDecl(env.intType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
-        StdEnvironment.getFloatDecl = declareStdFunc( StdEnvironment.floatType,
-                "getFloat", new EmptyParaList(dummyPos)); 
-        StdEnvironment.putFloatDecl = declareStdFunc( StdEnvironment.voidType,
-                "putFloat", new ParaList(
-                    new ParaDecl(StdEnvironment.floatType, dummyI, dummyPos),
+        env.getFloatDecl = declareStdFunc( env.floatType,
+                NameTable.GETFLOAT, new EmptyParaList(dummyPos)); 
+        env.putFloatDecl = declareStdFunc( env.voidType,
+                NameTable.PUTFLOAT, new ParaList(
+                    new ParaDecl(env.floatType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
-        StdEnvironment.putFloatLnDecl = declareStdFunc( StdEnvironment.voidType,
-                "putFloatLn", new ParaList(
-                    new ParaDecl(StdEnvironment.floatType, dummyI, dummyPos),
+        env.putFloatLnDecl = declareStdFunc( env.voidType,
+                NameTable.PUTFLOATLN, new ParaList(
+                    new ParaDecl(env.floatType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
-        StdEnvironment.putBoolDecl = declareStdFunc( StdEnvironment.voidType,
-                "putBool", new ParaList(
-                    new ParaDecl(StdEnvironment.booleanType, dummyI, dummyPos),
+        env.putBoolDecl = declareStdFunc( env.voidType,
+                NameTable.PUTBOOL, new ParaList(
+                    new ParaDecl(env.booleanType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
-        StdEnvironment.putBoolLnDecl = declareStdFunc( StdEnvironment.voidType,
-                "putBoolLn", new ParaList(
-                    new ParaDecl(StdEnvironment.booleanType, dummyI, dummyPos),
+        env.putBoolLnDecl = declareStdFunc( env.voidType,
+                NameTable.PUTBOOLLN, new ParaList(
+                    new ParaDecl(env.booleanType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
 
-        StdEnvironment.putStringLnDecl = declareStdFunc( StdEnvironment.voidType,
-                "putStringLn", new ParaList(
-                    new ParaDecl(StdEnvironment.stringType, dummyI, dummyPos),
+        env.putStringLnDecl = declareStdFunc( env.voidType,
+                NameTable.PUTSTRINGLN, new ParaList(
+                    new ParaDecl(env.stringType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
 
-        StdEnvironment.putStringDecl = declareStdFunc( StdEnvironment.voidType,
-                "putString", new ParaList(
-                    new ParaDecl(StdEnvironment.stringType, dummyI, dummyPos),
+        env.putStringDecl = declareStdFunc( env.voidType,
+                NameTable.PUTSTRING, new ParaList(
+                    new ParaDecl(env.stringType, dummyI, dummyPos),
                     new EmptyParaList(dummyPos), dummyPos)); 
 
-        StdEnvironment.putLnDecl = declareStdFunc( StdEnvironment.voidType,
-                "putLn", new EmptyParaList(dummyPos));
+        env.putLnDecl = declareStdFunc( env.voidType,
+                NameTable.PUTLN, new EmptyParaList(dummyPos));
 
     }
 
@@ -2,12 +2,23 @@
  * SymbolTable.java 
  *
  * In the current implementation, there is only one symbol table for
- * the entire program being compiled. It is a stack in which each
- * entry contains an identifier, a scope level and a declaration.
+ * the entire program being compiled. Each entry contains an identifier,
+ * a scope level and a declaration. Identifiers are given by their name
+ * IDs (see VC.Scanner.NameTable).
  *
- * There are four methods:
+ * The entries are kept in two ways:
+ * - bindings[id] is the top-most entry for id, and each entry links to
+ *   the entry for the same id that it hides (shadowedEntry), so lookups
+ *   take constant time however many identifiers are declared;
+ * - all entries form a stack in the order they were inserted
+ *   (previousEntry), which serves as the undo log used by closeScope
+ *   to restore bindings when a scope is left.
+ *
+ * There are five methods:
  * insert:    push a new entry (id, attr) to the stack
  * retrieve:  return the top-most entry for an identifier
+ * retrieveOneLevel: return the entry for an identifier in the current
+ *            scope level, if any
  * openScope: increment the current scope level by 1 
  * closeScope: pop off all entries in the current scope level
  *
@@ -33,10 +44,12 @@ public final class SymbolTable {
 
   private int level;
   private IdEntry latest;
+  private IdEntry[] bindings;
 
   public SymbolTable () {
     level = 1;
     latest = null;
+    bindings = new IdEntry[64];
   }
 
   // Opens a new level in the symbol table, 1 higher than the
@@ -53,10 +66,11 @@ public final class SymbolTable {
 
     IdEntry entry;
 
-    // Presumably, idTable.level > 0.
     entry = this.latest;
-    while (entry.level == this.level)
+    while (entry != null && entry.level == this.level) {
+      bindings[entry.id] = entry.shadowedEntry;
       entry = entry.previousEntry;
+    }
     this.level--;
     this.latest = entry;
   }
@@ -64,10 +78,14 @@ public final class SymbolTable {
   // Makes a new entry in the symbol table for the given identifier
   // and attribute. The new entry belongs to the current scope level.
 
-  public void insert(String id, Decl attr) {
+  public void insert(int id, Decl attr) {
 
     IdEntry entry;
-    entry = new IdEntry(id, attr, this.level, this.latest);
+
+    if (id >= bindings.length)
+      bindings = java.util.Arrays.copyOf(bindings, Math.max(2 * bindings.length, id + 1));
+    entry = new IdEntry(id, attr, this.level, this.latest, bindings[id]);
+    bindings[id] = entry;
     this.latest = entry;
   }
 
@@ -77,40 +95,31 @@ public final class SymbolTable {
   // Returns null iff no entry is found.
   // otherwise returns the attribute field of the entry found.
 
-  public Decl retrieve (String id) {
+  public Decl retrieve (int id) {
 
-    IdEntry entry;
-    Decl attr = null;
-    boolean present = false, searching = true;
+    IdEntry entry = top(id);
 
-    entry = this.latest;
-    while (searching) {
-      if (entry == null)
-        searching = false;
-      else if (entry.id.equals(id)) {
-        present = true;
-        searching = false;
-        attr = entry.attr;
-      } else
-        entry = entry.previousEntry;
-    }
-    return attr;
+    if (entry == null)
+      return null;
+    return entry.attr;
   }
 
- public IdEntry retrieveOneLevel(String id) {
-    IdEntry entry;
+  // Returns the entry for the given identifier at the current scope
+  // level, or null if it has not been declared at this level.
 
-    entry = this.latest;
+  public IdEntry retrieveOneLevel(int id) {
 
-    while (entry != null) {
-      if (entry.level != this.level)
-        return null;
-      if (entry.id.equals(id))
-        break;
-      entry = entry.previousEntry;
-    }
+    IdEntry entry = top(id);
 
+    if (entry == null || entry.level != this.level)
+      return null;
     return entry;
   }
 
+  private IdEntry top(int id) {
+    if (id < 0 || id >= bindings.length)
+      return null;
+    return bindings[id];
+  }
+
 }
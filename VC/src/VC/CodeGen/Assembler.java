@@ -0,0 +1,203 @@
+/*
+ * Assembler.java
+ *
+ * Builds the class file for a code store directly with the jas
+ * library that Jasmin is built on. Jasmin gets to the same jas
+ * ClassEnv, Method, CodeAttr, Insn and Label objects by scanning and
+ * parsing the .j file; here they are made from the Instructions of the
+ * code store as they stand, so no Jasmin text is written or read.
+ *
+ * The objects are made in the order Jasmin makes them, so the class
+ * file is the one Jasmin would assemble from the .j file that JVM.dump
+ * writes for the same code store.
+ */
+
+package VC.CodeGen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import jas.AsciiCP;
+import jas.ClassCP;
+import jas.ClassEnv;
+import jas.CodeAttr;
+import jas.FieldCP;
+import jas.FloatCP;
+import jas.IincInsn;
+import jas.Insn;
+import jas.IntegerCP;
+import jas.Label;
+import jas.LocalVarEntry;
+import jas.LocalVarTableAttr;
+import jas.MethodCP;
+import jas.RuntimeConstants;
+import jas.StringCP;
+import jas.Var;
+import jas.jasError;
+
+import VC.FatalError;
+
+public final class Assembler implements RuntimeConstants {
+
+    // Jasmin's labels for the start and the end of every method
+    private static final String BGN_METHOD = "bgnmethod:";
+    private static final String END_METHOD = "endmethod:";
+
+    // The Emitter's classes are always public; the VM wants ACC_SUPER too.
+    private static final short CLASS_ACCESS = ACC_PUBLIC | ACC_SUPER;
+    private static final short FIELD_ACCESS = ACC_STATIC;
+
+    private final ClassEnv classEnv = new ClassEnv();
+
+    // the method being assembled
+    private String methodName;
+    private String methodSignature;
+    private short methodAccess;
+    private CodeAttr methodCode;
+    private LocalVarTableAttr varTable;
+    private HashMap<String, Label> labels;
+
+    private Assembler() {
+    }
+
+    // Returns the class file for code. sourceName is recorded in it as
+    // the name of its source file, as Jasmin records the .j file.
+
+    public static byte[] assemble(JVM code, String sourceName) {
+        Assembler assembler = new Assembler();
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        try {
+            for (int addr = 0; addr < code.nextInstAddr; addr++)
+                assembler.assemble(code.code[addr]);
+            assembler.classEnv.setSource(sourceName);
+            assembler.classEnv.write(new DataOutputStream(classFile));
+        } catch (jasError e) {
+            throw new FatalError("can't assemble " + sourceName + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new FatalError("can't assemble " + sourceName + ": " + e);
+        }
+        return classFile.toByteArray();
+    }
+
+    private void assemble(Instruction inst) throws jasError {
+        switch (inst.opcode) {
+        case JVM.COMMENT:
+            break;
+        case JVM.LABEL:
+            plantLabel(inst.label.toString());
+            break;
+        case JVM.CLASS:
+            classEnv.setClass(new ClassCP(inst.text));
+            classEnv.setClassAccess(CLASS_ACCESS);
+            break;
+        case JVM.SUPER:
+            classEnv.setSuperClass(new ClassCP(inst.text));
+            break;
+        case JVM.STATIC_FIELD:
+            classEnv.addField(new Var(FIELD_ACCESS, new AsciiCP(inst.member.name),
+                                      new AsciiCP(inst.member.descriptor), null));
+            break;
+        case JVM.METHOD_START:
+            labels = new HashMap<String, Label>();
+            methodName = inst.member.name;
+            methodSignature = inst.member.descriptor;
+            methodAccess = (short) inst.value;
+            methodCode = null;
+            varTable = null;
+            break;
+        case JVM.METHOD_END:
+            if (methodCode != null) {
+                plantLabel(END_METHOD);
+                if (varTable != null)
+                    methodCode.setLocalVarTable(varTable);
+            }
+            classEnv.addMethod(methodAccess, methodName, methodSignature, methodCode, null);
+            methodName = null;
+            labels = null;
+            break;
+        case JVM.LIMIT_STACK:
+            getCode().setStackSize((short) inst.value);
+            break;
+        case JVM.LIMIT_LOCALS:
+            getCode().setVarSize((short) inst.value);
+            break;
+        case JVM.VAR:
+            if (varTable == null)
+                varTable = new LocalVarTableAttr();
+            varTable.addEntry(new LocalVarEntry(getLabel(inst.label.toString()),
+                getLabel(inst.endLabel.toString()), inst.member.name,
+                inst.member.descriptor, inst.index));
+            break;
+        default:
+            getCode().addInsn(insn(inst));
+        }
+    }
+
+    // Returns the jas instruction for a JVM instruction
+
+    private Insn insn(Instruction inst) throws jasError {
+        int opc = inst.opcode;
+        switch (JVM.operandKind(opc)) {
+        case JVM.LOCAL_OPERAND:
+            return new Insn(opc, inst.index);
+        case JVM.VALUE_OPERAND:
+            return new Insn(opc, inst.value);
+        case JVM.CONSTANT_OPERAND:
+            if (inst.constant instanceof Integer)
+                return new Insn(opc, new IntegerCP((Integer) inst.constant));
+            else if (inst.constant instanceof Float)
+                return new Insn(opc, new FloatCP((Float) inst.constant));
+            else
+                return new Insn(opc, new StringCP((String) inst.constant));
+        case JVM.LABEL_OPERAND:
+            return new Insn(opc, getLabel(inst.label.toString()));
+        case JVM.MEMBER_OPERAND: {
+            MemberRef member = inst.member;
+            if (member.isMethod())
+                return new Insn(opc, new MethodCP(member.owner, member.name, member.descriptor));
+            return new Insn(opc, new FieldCP(member.owner, member.name, member.descriptor));
+        }
+        case JVM.CLASS_OPERAND:
+            return new Insn(opc, new ClassCP(inst.text));
+        case JVM.IINC_OPERANDS:
+            return new IincInsn(inst.index, inst.value);
+        default:
+            if (opc < 0 || opc >= opcNames.length)
+                throw new jasError("unknown instruction " + opc);
+            return new Insn(opc);
+        }
+    }
+
+    // Returns the code of the method, starting it if it has not been
+
+    private CodeAttr getCode() throws jasError {
+        if (methodName == null)
+            throw new jasError("instruction outside of a method");
+        if (methodCode == null) {
+            methodCode = new CodeAttr();
+            plantLabel(BGN_METHOD);
+        }
+        return methodCode;
+    }
+
+    // VC labels are mapped to jas labels of the same name, one per
+    // method, as Jasmin maps the labels of the .j file
+
+    private Label getLabel(String name) throws jasError {
+        if (methodName == null)
+            throw new jasError("label outside of a method");
+        Label label = labels.get(name);
+        if (label == null) {
+            label = new Label(name);
+            labels.put(name, label);
+        }
+        return label;
+    }
+
+    private void plantLabel(String name) throws jasError {
+        getCode().addInsn(getLabel(name));
+    }
+
+}
@@ -12,12 +12,25 @@
 
 package VC.CodeGen;
 
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Enumeration;
 import java.util.ListIterator;
 
 import VC.ASTs.*;
+import VC.CompilationContext;
 import VC.ErrorReporter;
+import VC.IR.Builder;
+import VC.IR.Function;
+import VC.IR.Inliner;
+import VC.IR.Lowering;
+import VC.IR.Pass;
+import VC.IR.PassManager;
+import VC.Optimiser.DeadCodeEliminator;
+import VC.Scanner.NameTable;
 import VC.StdEnvironment;
 
 public final class Emitter implements Visitor {
@@ -27,15 +40,32 @@ public final class Emitter implements Visitor {
     private String classname;
     private String outputFilename;
 
-    // ---------------------------------------------------------------
-    // Are we in debugging mode?
-    // ---------------------------------------------------------------
-    private boolean debug = true;
-    // ---------------------------------------------------------------
+    // Are we in debugging mode? (see CompilationContext.tracing)
+    private boolean debug;
     
-    public Emitter(String inputFilename, ErrorReporter reporter) {
-        this.inputFilename = inputFilename;
-        errorReporter = reporter;
+    // the parts of the CompilationContext used by the Emitter
+    private PrintStream out;
+    private StdEnvironment env;
+    private JVM code;
+    private CompilationContext context;
+
+    // true if the functions other than main are compiled into static
+    // methods rather than into instance methods of vc$
+    private boolean staticMethods;
+
+    // with -ir -O, the Inliner of the whole program, so the body of each
+    // function inlined is built and optimised once for all its callers
+    private Inliner inliner;
+
+    public Emitter(CompilationContext context) {
+        this.context = context;
+        inputFilename = context.inputFilename;
+        errorReporter = context.reporter;
+        out = context.out;
+        env = context.env;
+        code = context.code;
+        staticMethods = context.staticMethods;
+        debug = context.tracing;
 
         int i = inputFilename.lastIndexOf('.');
         if (i > 0)
@@ -49,8 +79,37 @@ public final class Emitter implements Visitor {
 
     public final void gen(AST ast) {
         ast.visit(this, null); 
-        System.out.println("output file name is " + classname + ".j");
-        JVM.dump(classname + ".j");
+        if (context.optimising)
+            new Peephole().optimise(code);
+        if (context.writingJasminFile) {
+            out.println("output file name is " + classname + ".j");
+            code.dump(outputFile(".j").getPath(), out);
+        }
+        if (context.writingClassFile) {
+            out.println("output file name is " + classname + ".class");
+            code.dumpClass(outputFile(".class").getPath(), getJasminFilename(), out);
+        }
+    }
+
+    public String getClassname() {
+        return classname;
+    }
+
+    // The name of the .j file, which the class file records as its
+    // source file, as it does when Jasmin assembles it
+
+    public String getJasminFilename() {
+        return classname.substring(classname.lastIndexOf('/') + 1) + ".j";
+    }
+
+    // The .j and .class files go into the output directory, if there is
+    // one, and next to the source file otherwise
+
+    private File outputFile(String extension) {
+        if (context.outputDirectory == null)
+            return context.file(classname + extension);
+        String name = classname.substring(classname.lastIndexOf('/') + 1);
+        return new File(context.file(context.outputDirectory), name + extension);
     }
 
     // ----------------------------------------------------------------
@@ -58,16 +117,15 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitProgram(Program ast, Object o) {
-        if (debug) System.out.println("visitProgram()");
+        if (debug) out.println("visitProgram()");
         /** This method works for scalar variables only. You need to modify
           it to handle all array-related declarations and initialisations.
          **/ 
 
         // Generates the default constructor initialiser 
-        emit(JVM.CLASS, "public", classname);
-        emit(JVM.SUPER, "java/lang/Object");
+        emitClass(classname, "java/lang/Object");
 
-        emit("");
+        emitComment("");
 
         // Three subpasses:
 
@@ -78,22 +136,22 @@ public final class Emitter implements Visitor {
             DeclList dlAST = (DeclList) list;
             if (dlAST.D instanceof GlobalVarDecl) {
                 GlobalVarDecl vAST = (GlobalVarDecl) dlAST.D;
-                emit(JVM.STATIC_FIELD, vAST.I.spelling, VCtoJavaType(vAST.T));
+                emitField(vAST.I.spelling, VCtoJavaType(vAST.T));
             }
             list = dlAST.DL;
         }
 
-        emit("");
+        emitComment("");
 
         // (2) Generate <clinit> for global variables (assumed to be static)
 
-        emit("; standard class static initializer ");
-        emit(JVM.METHOD_START, "static <clinit>()V");
-        emit("");
+        emitComment("; standard class static initializer ");
+        emitMethod(Instruction.ACC_STATIC, "<clinit>", "()V");
+        emitComment("");
 
         // create a Frame for <clinit>
 
-        Frame frame = new Frame(false);
+        Frame frame = new Frame(false, debug, out);
 
         list = ast.FL;
         while (!list.isEmpty()) {
@@ -103,7 +161,7 @@ public final class Emitter implements Visitor {
                 if (!vAST.E.isEmptyExpr()) {
                     vAST.E.visit(this, frame);
                 } else {
-                    if (vAST.T.equals(StdEnvironment.floatType))
+                    if (vAST.T.equals(env.floatType))
                         emit(JVM.FCONST_0);
                     else
                         emit(JVM.ICONST_0);
@@ -115,26 +173,26 @@ public final class Emitter implements Visitor {
             list = dlAST.DL;
         }
 
-        emit("");
-        emit("; set limits used by this method");
-        emit(JVM.LIMIT, "locals", frame.getNewIndex());
+        emitComment("");
+        emitComment("; set limits used by this method");
+        emitValue(JVM.LIMIT_LOCALS, frame.getMaximumLocals());
 
-        emit(JVM.LIMIT, "stack", frame.getMaximumStackSize());
+        emitValue(JVM.LIMIT_STACK, frame.getMaximumStackSize());
         emit(JVM.RETURN);
-        emit(JVM.METHOD_END, "method");
+        emit(JVM.METHOD_END);
 
-        emit("");
+        emitComment("");
 
         // (3) Generate Java bytecode for the VC program
 
-        emit("; standard constructor initializer ");
-        emit(JVM.METHOD_START, "public <init>()V");
-        emit(JVM.LIMIT, "stack 1");
-        emit(JVM.LIMIT, "locals 1");
+        emitComment("; standard constructor initializer ");
+        emitMethod(Instruction.ACC_PUBLIC, "<init>", "()V");
+        emitValue(JVM.LIMIT_STACK, 1);
+        emitValue(JVM.LIMIT_LOCALS, 1);
         emit(JVM.ALOAD_0);
-        emit(JVM.INVOKESPECIAL, "java/lang/Object/<init>()V");
+        emitMember(JVM.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
         emit(JVM.RETURN);
-        emit(JVM.METHOD_END, "method");
+        emit(JVM.METHOD_END);
 
         return ast.FL.visit(this, o);
     }
@@ -144,27 +202,27 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitEmptyDeclList(EmptyDeclList ast, Object o) {
-        if (debug) System.out.println("visitEmptyDeclList()");
+        if (debug) out.println("visitEmptyDeclList()");
         return null;
     }
 
     public Object visitEmptyStmtList(EmptyStmtList ast, Object o) {
-        if (debug) System.out.println("visitEmptyStmtList()");
+        if (debug) out.println("visitEmptyStmtList()");
         return null;
     }
 
     public Object visitEmptyExprList(EmptyExprList ast, Object o) {
-        if (debug) System.out.println("visitEmptyExprList()");
+        if (debug) out.println("visitEmptyExprList()");
         return null;
     }
 
     public Object visitEmptyParaList(EmptyParaList ast, Object o) {
-        if (debug) System.out.println("visitEmptyParaList()");
+        if (debug) out.println("visitEmptyParaList()");
         return null;
     }
 
     public Object visitEmptyArgList(EmptyArgList ast, Object o) {
-        if (debug) System.out.println("visitEmptyArgList()");
+        if (debug) out.println("visitEmptyArgList()");
         return null;
     }
 
@@ -173,39 +231,48 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitDeclList(DeclList ast, Object o) {
-        if (debug) System.out.println("visitDeclList()");
-        ast.D.visit(this, o);
-        ast.DL.visit(this, o);
+        List list = ast;
+        while (list instanceof DeclList) {
+            DeclList cell = (DeclList) list;
+            if (debug) out.println("visitDeclList()");
+            cell.D.visit(this, o);
+            list = cell.DL;
+        }
+        list.visit(this, o);
         return null;
     }
 
     public Object visitFuncDecl(FuncDecl ast, Object o) {
-        if (debug) System.out.println("visitFuncDecl()");
+        if (debug) out.println("visitFuncDecl()");
 
         Frame frame; 
 
-        if (ast.I.spelling.equals("main")) {
+        if (ast.I.nameId == NameTable.MAIN) {
 
-            frame = new Frame(true);
+            frame = new Frame(true, debug, out);
 
             // Assume that main has one String parameter and reserve 0 for it
             frame.getNewIndex(); 
 
-            emit(JVM.METHOD_START, "public static main([Ljava/lang/String;)V"); 
-            // Assume implicitly that
+            emitMethod(Instruction.ACC_PUBLIC | Instruction.ACC_STATIC, "main", "([Ljava/lang/String;)V"); 
+            // Unless the functions are static methods, assume implicitly
+            // that
             //      classname vc$; 
             // appears before all local variable declarations.
             // (1) Reserve 1 for this object reference.
 
-            frame.getNewIndex(); 
+            if (!staticMethods)
+                frame.getNewIndex(); 
 
         } else {
 
-            frame = new Frame(false);
+            frame = new Frame(false, debug, out);
 
             // all other programmer-defined functions are treated as if
-            // they were instance methods
-            frame.getNewIndex(); // reserve 0 for "this"
+            // they were instance methods, unless they are static methods,
+            // whose parameters start at 0
+            if (!staticMethods)
+                frame.getNewIndex(); // reserve 0 for "this"
 
             String retType = VCtoJavaType(ast.T);
 
@@ -216,79 +283,107 @@ public final class Emitter implements Visitor {
             StringBuffer argsTypes = new StringBuffer("");
             List fpl = ast.PL;
             while (! fpl.isEmpty()) {
-                if (((ParaList) fpl).P.T.equals(StdEnvironment.booleanType))
+                if (((ParaList) fpl).P.T.equals(env.booleanType))
                     argsTypes.append("Z");         
-                else if (((ParaList) fpl).P.T.equals(StdEnvironment.intType))
+                else if (((ParaList) fpl).P.T.equals(env.intType))
                     argsTypes.append("I");         
                 else
                     argsTypes.append("F");         
                 fpl = ((ParaList) fpl).PL;
             }
 
-            emit(JVM.METHOD_START, ast.I.spelling + "(" + argsTypes + ")" + retType);
+            emitMethod(staticMethods ? Instruction.ACC_STATIC : 0,
+                       ast.I.spelling, "(" + argsTypes + ")" + retType);
         }
 
-        ast.S.visit(this, frame);
+        // With -ir the function is compiled through its SSA form instead,
+        // unless the Builder cannot represent it
 
-        // JVM requires an explicit return in every method. 
-        // In VC, a function returning void may not contain a return, and
-        // a function returning int or float is not guaranteed to contain
-        // a return. Therefore, we add one at the end just to be sure.
+        Function function = null;
+        if (context.usingIR)
+            function = new Builder(classname, staticMethods).build(ast);
 
-        if (ast.T.equals(StdEnvironment.voidType)) {
-            emit("");
-            emit("; return may not be present in a VC function returning void"); 
-            emit("; The following return inserted by the VC compiler");
-            emit(JVM.RETURN); 
-        } else if (ast.I.spelling.equals("main")) {
-            // In case VC's main does not have a return itself
-            emit(JVM.RETURN);
-        } else
-            emit(JVM.NOP); 
+        if (function != null) {
+            if (context.optimising && context.inlineSize > 0) {
+                if (inliner == null)
+                    inliner = new Inliner(classname, staticMethods, context.inlineSize,
+                                          context.inlineBudget);
+                inliner.inline(function);
+            }
+            Pass[] passes = PassManager.standardPasses(context.optimising, context.optimisingLoops);
+            new PassManager(passes).run(function);
+            if (debug) {
+                PrintWriter writer = new PrintWriter(out);
+                function.write(writer);
+                writer.flush();
+            }
+            new Lowering(code, frame, classname, staticMethods).lower(function);
+        } else {
+            ast.S.visit(this, frame);
+
+            // JVM requires an explicit return in every method. 
+            // In VC, a function returning void may not contain a return, and
+            // a function returning int or float is not guaranteed to contain
+            // a return. Therefore, we add one at the end just to be sure,
+            // unless the end cannot be reached.
+
+            if (!DeadCodeEliminator.canCompleteNormally(ast.S)) {
+                // every path has returned already
+            } else if (ast.T.equals(env.voidType)) {
+                emitComment("");
+                emitComment("; return may not be present in a VC function returning void"); 
+                emitComment("; The following return inserted by the VC compiler");
+                emit(JVM.RETURN); 
+            } else if (ast.I.nameId == NameTable.MAIN) {
+                // In case VC's main does not have a return itself
+                emit(JVM.RETURN);
+            } else
+                emit(JVM.NOP); 
+        }
 
-        emit("");
-        emit("; set limits used by this method");
-        emit(JVM.LIMIT, "locals", frame.getNewIndex());
+        emitComment("");
+        emitComment("; set limits used by this method");
+        emitValue(JVM.LIMIT_LOCALS, frame.getMaximumLocals());
 
-        emit(JVM.LIMIT, "stack", frame.getMaximumStackSize());
-        emit(".end method");
+        emitValue(JVM.LIMIT_STACK, frame.getMaximumStackSize());
+        emit(JVM.METHOD_END);
 
         return null;
     }
 
     public Object visitGlobalVarDecl(GlobalVarDecl ast, Object o) {
-        if (debug) System.out.println("visitGlobalVarDecl()");
-        // nothing to be done
-        ast.E.visit(this, o);
+        if (debug) out.println("visitGlobalVarDecl()");
+        // nothing to be done: the initialiser is generated into <clinit>
+        // by visitProgram
         return null;
     }
 
     public Object visitLocalVarDecl(LocalVarDecl ast, Object o) {
-        if (debug) System.out.println("visitLocalVarDecl()");
+        if (debug) out.println("visitLocalVarDecl()");
         Frame frame = (Frame) o;
         ast.index = frame.getNewIndex();
         String T = VCtoJavaType(ast.T);
 
-        emit(JVM.VAR + " " + ast.index + " is " + ast.I.spelling + " " + T + " from " + (String) frame.scopeStart.peek() + " to " +  (String) frame.scopeEnd.peek());
+        // The scope of a local variable starts at its declaration rather
+        // than at the start of its compound statement, since the
+        // variables of an earlier nested compound statement may have
+        // used its index
+        Label start = frame.getNewLabel();
+        emitLabel(start);
+        emitVar(ast.index, ast.I.spelling, T, start, frame.scopeEnd.peek());
 
         if (!ast.E.isEmptyExpr()) {
             ast.E.visit(this, o);
 
-            if (ast.T.equals(StdEnvironment.floatType)) {
+            if (ast.T.equals(env.floatType)) {
                 // cannot call emitFSTORE(ast.I) since this I is not an
                 // applied occurrence 
-                if (ast.index >= 0 && ast.index <= 3) 
-                    emit(JVM.FSTORE + "_" + ast.index); 
-                else
-                    emit(JVM.FSTORE, ast.index); 
+                emitLocal(JVM.FSTORE, ast.index); 
                 frame.pop();
             } else {
                 // cannot call emitISTORE(ast.I) since this I is not an
                 // applied occurrence 
-                if (ast.index >= 0 && ast.index <= 3) 
-                    emit(JVM.ISTORE + "_" + ast.index); 
-                else
-                    emit(JVM.ISTORE, ast.index); 
+                emitLocal(JVM.ISTORE, ast.index); 
                 frame.pop();
             }
         }
@@ -303,34 +398,41 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitStmtList(StmtList ast, Object o) {
-        if (debug) System.out.println("visitStmtList()");
-        ast.S.visit(this, o);
-        ast.SL.visit(this, o);
+        List list = ast;
+        while (list instanceof StmtList) {
+            StmtList cell = (StmtList) list;
+            if (debug) out.println("visitStmtList()");
+            cell.S.visit(this, o);
+            list = cell.SL;
+        }
+        list.visit(this, o);
         return null;
     }
 
     public Object visitIfStmt(IfStmt ast, Object o) {
-        if (debug) System.out.println("visitIfStmt()");
+        if (debug) out.println("visitIfStmt()");
     
         Frame frame = (Frame) o;
-        String elseLabel = frame.getNewLabel();
-        String endLabel = frame.getNewLabel();
+        Label elseLabel = frame.getNewLabel();
+        Label endLabel = frame.getNewLabel();
         
-        // Generate the test for the 'if' condition
-        ast.E.visit(this, o);
-        emit(JVM.IFEQ, elseLabel); 
+        // Generate the test for the 'if' condition, jumping to the
+        // 'else' part if it is false
+        emitCondJump(ast.E, false, elseLabel, frame); 
         
         // Generate the statements that will be executed if the 
-        // 'if' condition is true
+        // 'if' condition is true, jumping over the 'else' part unless
+        // they end in a return, a break or the like
         ast.S1.visit(this, o);
-        emit(JVM.GOTO, endLabel); 
+        if (DeadCodeEliminator.canCompleteNormally(ast.S1))
+            emitBranch(JVM.GOTO, endLabel); 
         
         // Generate the statements that will be executed if the 
         // 'if' condition is false
-        emit(elseLabel + ":");
+        emitLabel(elseLabel);
         ast.S2.visit(this, o);
 
-        emit(endLabel + ":");
+        emitLabel(endLabel);
 
         return null;
     }
@@ -340,46 +442,49 @@ public final class Emitter implements Visitor {
     //     while (E) 
     //          S
     //
-    // A while statement is translated into Jasmin like this:
+    // A while statement is translated into Jasmin like this, with the
+    // test at the bottom so that each iteration takes one branch:
     //
     // Let L1 label the start of E
     // Let L2 label the end of the while statement
+    // Let L3 label the start of S
     //
     // Push L1 onto the continue stack
     // Push L2 onto the break stack
-    // L1:
-    //     [[ E ]]
-    //     ifeq L2
-    //     [[ S ]]
     //     goto L1
+    // L3:
+    //     [[ S ]]
+    // L1:
+    //     [[ E ]] jumping to L3 if E is true
     // L2:
     // Pop L2 from the break stack
     // Pop L1 from the continue stack
     
     public Object visitWhileStmt(WhileStmt ast, Object o ) {
-        if (debug) System.out.println("visitWhileStmt()");
+        if (debug) out.println("visitWhileStmt()");
         
         Frame frame = (Frame) o;
         
-        // 'conLabel' is a label for the start of the 'while' statement
+        // 'conLabel' is a label for the test of the 'while' statement
         // 'brkLabel' is a label for the end 
-        String conLabel = frame.getNewLabel();
-        String brkLabel = frame.getNewLabel();
+        Label conLabel = frame.getNewLabel();
+        Label brkLabel = frame.getNewLabel();
+        Label bodyLabel = frame.getNewLabel();
 
         // Record both labels so that 'break' and 'continue' statements
         // know where to go to.
         frame.conStack.push(conLabel);
         frame.brkStack.push(brkLabel);
         
-        // Emit the test of the 'while' statement
-        emit(conLabel + ":");
-        ast.E.visit(this, o);
-        emit(JVM.IFEQ, brkLabel);
-
         // Emit the statements inside the 'while' statement
+        emitBranch(JVM.GOTO, conLabel);
+        emitLabel(bodyLabel);
         ast.S.visit(this, o);
-        emit(JVM.GOTO, conLabel);
-        emit(brkLabel + ":");
+
+        // Emit the test of the 'while' statement
+        emitLabel(conLabel);
+        emitCondJump(ast.E, true, bodyLabel, frame);
+        emitLabel(brkLabel);
         
         frame.conStack.pop();
         frame.brkStack.pop();
@@ -392,50 +497,54 @@ public final class Emitter implements Visitor {
     //       for (E_init ; E_test ; E_step) 
     //              Stmt
     // 
-    // A for statement is translated to Jasmin assembly code like this:
+    // A for statement is translated to Jasmin assembly code like this,
+    // with the test at the bottom as for a while statement:
     //
     // Let L1 label the start of [[ E_test ]]
     // Let L2 label the start of [[ E_step ]]
     // Let L3 label the end of the for statement
+    // Let L4 label the start of [[ Stmt ]]
     //
     // Push L2 onto the continue stack
     // Push L3 onto the break stack
     //      [[ E_init ]]
-    // L1:  
-    //      [[ E_test ]]
-    //      ifeq L3
+    //      goto L1
+    // L4:
     //      [[ Stmt ]]
     // L2:
     //      [[ E_step ]]
-    //      goto L1
+    // L1:  
+    //      [[ E_test ]] jumping to L4 if E_test is true (or missing)
     // L3:       
     // Pop L3 from the break stack
     // Pop L2 from the continue stack
     
     public Object visitForStmt(ForStmt ast, Object o) {
-        if (debug) System.out.println("visitForStmt()");
+        if (debug) out.println("visitForStmt()");
         
         Frame frame = (Frame) o;
 
-        String testLabel = frame.getNewLabel();
-        String stepLabel = frame.getNewLabel();
-        String endLabel  = frame.getNewLabel();
+        Label testLabel = frame.getNewLabel();
+        Label stepLabel = frame.getNewLabel();
+        Label endLabel  = frame.getNewLabel();
+        Label bodyLabel = frame.getNewLabel();
         
         frame.conStack.push(stepLabel);
         frame.brkStack.push(endLabel);
 
-        ast.E1.visit(this, o);
+        emitDiscarded(ast.E1, frame);
+        emitBranch(JVM.GOTO, testLabel);
 
-        emit(testLabel + ":");
-        ast.E2.visit(this, o);
-        emit(JVM.IFEQ, endLabel); 
+        emitLabel(bodyLabel);
         ast.S.visit(this, o);
 
-        emit(stepLabel + ":");
-        ast.E3.visit(this, o);
-        emit(JVM.GOTO, testLabel);
+        emitLabel(stepLabel);
+        emitDiscarded(ast.E3, frame);
+
+        emitLabel(testLabel);
+        emitCondJump(ast.E2, true, bodyLabel, frame);
 
-        emit(endLabel + ":");
+        emitLabel(endLabel);
         frame.conStack.pop();
         frame.brkStack.pop();
 
@@ -443,21 +552,21 @@ public final class Emitter implements Visitor {
     }
 
     public Object visitBreakStmt(BreakStmt ast, Object o) {
-        if (debug) System.out.println("visitBreakStmt()");
+        if (debug) out.println("visitBreakStmt()");
         Frame frame = (Frame) o;
-        emit(JVM.GOTO, frame.brkStack.peek());
+        emitBranch(JVM.GOTO, frame.brkStack.peek());
         return null;
     }
     
     public Object visitContinueStmt(ContinueStmt ast, Object o) {
-        if (debug) System.out.println("visitContinueStmt()");
+        if (debug) out.println("visitContinueStmt()");
         Frame frame = (Frame) o;
-        emit(JVM.GOTO, frame.conStack.peek());
+        emitBranch(JVM.GOTO, frame.conStack.peek());
         return null;
     }
     
     public Object visitReturnStmt(ReturnStmt ast, Object o) {
-        if (debug) System.out.println("visitReturnStmt()");
+        if (debug) out.println("visitReturnStmt()");
         Frame frame = (Frame)o;
 
         /*
@@ -472,6 +581,16 @@ public final class Emitter implements Visitor {
             return null;
         }
 
+        // With -O, a call of the function itself whose value is returned
+        // (a tail call) jumps back to the start of the function instead,
+        // with the arguments as its parameters, so that the recursion
+        // runs in constant stack space
+        if (context.optimising && ast.E instanceof CallExpr
+                && ((CallExpr) ast.E).I.decl == enclosingFunction(ast)) {
+            emitTailCall((CallExpr) ast.E, frame);
+            return null;
+        }
+
         // Your other code goes here
         ast.E.visit(this, o);
 
@@ -486,55 +605,145 @@ public final class Emitter implements Visitor {
         return null;
     }
     
+    private static FuncDecl enclosingFunction(AST ast) {
+        while (!(ast instanceof FuncDecl))
+            ast = ast.parent;
+        return (FuncDecl) ast;
+    }
+
+    // Generates the tail call ast: the arguments are evaluated, as for
+    // any call, then stored into the parameters, and control goes back
+    // to the start of the body of the function
+
+    private void emitTailCall(CallExpr ast, Frame frame) {
+        ast.AL.visit(this, frame);
+
+        ArrayList<ParaDecl> params = new ArrayList<ParaDecl>();
+        List list = ((FuncDecl) ast.I.decl).PL;
+        while (list instanceof ParaList) {
+            params.add(((ParaList) list).P);
+            list = ((ParaList) list).PL;
+        }
+        for (int k = params.size() - 1; k >= 0; k--) {
+            ParaDecl param = params.get(k);
+            emitLocal(param.T.isFloatType() ? JVM.FSTORE : JVM.ISTORE, param.index);
+            frame.pop();
+        }
+        // the scope of the body of the function starts the method
+        emitBranch(JVM.GOTO, frame.scopeStart.firstElement());
+    }
+
     public Object visitCompoundStmt(CompoundStmt ast, Object o) {
-        if (debug) System.out.println("visitCompoundStmt()");
+        if (debug) out.println("visitCompoundStmt()");
         Frame frame = (Frame) o; 
 
-        String scopeStart = frame.getNewLabel();
-        String scopeEnd = frame.getNewLabel();
+        Label scopeStart = frame.getNewLabel();
+        Label scopeEnd = frame.getNewLabel();
         frame.scopeStart.push(scopeStart);
         frame.scopeEnd.push(scopeEnd);
+        int nextIndex = frame.getNextIndex();
 
-        emit(scopeStart + ":");
+        emitLabel(scopeStart);
         if (ast.parent instanceof FuncDecl) {
-            if (((FuncDecl) ast.parent).I.spelling.equals("main")) {
-                emit(JVM.VAR, "0 is argv [Ljava/lang/String; from " + (String) frame.scopeStart.peek() + " to " +  (String) frame.scopeEnd.peek());
-                emit(JVM.VAR, "1 is vc$ L" + classname + "; from " + (String) frame.scopeStart.peek() + " to " +  (String) frame.scopeEnd.peek());
-                // Generate code for the initialiser vc$ = new classname();
-                emit(JVM.NEW, classname);
-                emit(JVM.DUP);
-                frame.push(2);
-                emit("invokenonvirtual", classname + "/<init>()V");
-                frame.pop();
-                emit(JVM.ASTORE_1);
-                frame.pop();
+            if (((FuncDecl) ast.parent).I.nameId == NameTable.MAIN) {
+                emitVar(0, "argv", "[Ljava/lang/String;", frame.scopeStart.peek(), frame.scopeEnd.peek());
+                if (!staticMethods) {
+                    emitVar(1, "vc$", "L" + classname + ";", frame.scopeStart.peek(), frame.scopeEnd.peek());
+                    // Generate code for the initialiser vc$ = new classname();
+                    emitNEW(classname);
+                    emit(JVM.DUP);
+                    frame.push(2);
+                    emitMember(JVM.INVOKESPECIAL, classname, "<init>", "()V");
+                    frame.pop();
+                    emit(JVM.ASTORE_1);
+                    frame.pop();
+                }
             } else {
-                emit(JVM.VAR, "0 is this L" + classname + "; from " + (String) frame.scopeStart.peek() + " to " +  (String) frame.scopeEnd.peek());
+                if (!staticMethods)
+                    emitVar(0, "this", "L" + classname + ";", frame.scopeStart.peek(), frame.scopeEnd.peek());
                 ((FuncDecl) ast.parent).PL.visit(this, o);
             }
         }
         ast.DL.visit(this, o);
         ast.SL.visit(this, o);
-        emit(scopeEnd + ":");
+        emitLabel(scopeEnd);
 
         frame.scopeStart.pop();
         frame.scopeEnd.pop();
+        // the variables of this compound statement are out of scope
+        frame.releaseIndices(nextIndex);
         return null;
     }
 
     public Object visitExprStmt(ExprStmt ast, Object o) {
-        if (debug) System.out.println("visitExprStmt()");
-        ast.E.visit(this, o);
+        if (debug) out.println("visitExprStmt()");
+        emitDiscarded(ast.E, (Frame) o);
         return null;
     }
 
+    // Generates an expression evaluated for its effect only, popping its
+    // value if it has one
+
+    private void emitDiscarded(Expr ast, Frame frame) {
+        if (emitIncrement(ast))
+            return;
+        ast.visit(this, frame);
+        if (!ast.isEmptyExpr() && !ast.type.isVoidType()) {
+            emit(JVM.POP);
+            frame.pop();
+        }
+    }
+
+    // Generates the assignment ast, whose value is not used, as an iinc
+    // if it adds a constant to an int local variable: x = x + c, x = c + x
+    // or x = x - c, with the increment in the range of a short (iinc is
+    // wide if it is past a byte, or x is past local 255, which the
+    // Assembler and Jasmin see to). Returns false, generating nothing,
+    // otherwise.
+
+    private boolean emitIncrement(Expr ast) {
+        if (!(ast instanceof AssignExpr))
+            return false;
+        AssignExpr assign = (AssignExpr) ast;
+        if (!(assign.E1 instanceof VarExpr) || !(assign.E2 instanceof BinaryExpr))
+            return false;
+        AST decl = ((SimpleVar) ((VarExpr) assign.E1).V).I.decl;
+        if (!(decl instanceof LocalVarDecl || decl instanceof ParaDecl)
+                || !((Decl) decl).T.isIntType())
+            return false;
+
+        BinaryExpr update = (BinaryExpr) assign.E2;
+        String op = update.O.spelling;
+        long increment;
+        if (op.equals("i+") && isVariable(update.E1, decl) && update.E2 instanceof IntExpr)
+            increment = Integer.parseInt(((IntExpr) update.E2).IL.spelling);
+        else if (op.equals("i+") && update.E1 instanceof IntExpr && isVariable(update.E2, decl))
+            increment = Integer.parseInt(((IntExpr) update.E1).IL.spelling);
+        else if (op.equals("i-") && isVariable(update.E1, decl) && update.E2 instanceof IntExpr)
+            increment = -(long) Integer.parseInt(((IntExpr) update.E2).IL.spelling);
+        else
+            return false;
+        if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE)
+            return false;
+
+        Instruction inst = new Instruction(JVM.IINC);
+        inst.index = ((Decl) decl).index;
+        inst.value = (int) increment;
+        code.append(inst);
+        return true;
+    }
+
+    private static boolean isVariable(Expr ast, AST decl) {
+        return ast instanceof VarExpr && ((SimpleVar) ((VarExpr) ast).V).I.decl == decl;
+    }
+
     public Object visitEmptyCompStmt(EmptyCompStmt ast, Object o) {
-        if (debug) System.out.println("visitEmptyCompStmt()");
+        if (debug) out.println("visitEmptyCompStmt()");
         return null;
     }
 
     public Object visitEmptyStmt(EmptyStmt ast, Object o) {
-        if (debug) System.out.println("visitEmptyStmt()");
+        if (debug) out.println("visitEmptyStmt()");
         return null;
     }
 
@@ -543,78 +752,104 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitIntExpr(IntExpr ast, Object o) {
-        if (debug) System.out.println("visitIntExpr()");
+        if (debug) out.println("visitIntExpr()");
         ast.IL.visit(this, o);
         return null;
     }
 
     public Object visitFloatExpr(FloatExpr ast, Object o) {
-        if (debug) System.out.println("visitFloatExpr()");
+        if (debug) out.println("visitFloatExpr()");
         ast.FL.visit(this, o);
         return null;
     }
 
     public Object visitBooleanExpr(BooleanExpr ast, Object o) {
-        if (debug) System.out.println("visitBooleanExpr()");
+        if (debug) out.println("visitBooleanExpr()");
         ast.BL.visit(this, o);
         return null;
     }
 
     public Object visitStringExpr(StringExpr ast, Object o) {
-        if (debug) System.out.println("visitStringExpr()");
+        if (debug) out.println("visitStringExpr()");
         ast.SL.visit(this, o);
         return null;
     }
 
     public Object visitUnaryExpr(UnaryExpr ast, Object o) {
-        if (debug) System.out.println("visitUnaryExpr()");
+        if (debug) out.println("visitUnaryExpr()");
+        if (ast.O.spelling.equals("i!")) {
+            emitBooleanValue(ast, (Frame) o);
+            return null;
+        }
         ast.O.visit(this, o);
         ast.E.visit(this, o);
+
+        String op = ast.O.spelling;
+        if (op.equals("i-"))
+            emit(JVM.INEG);
+        else if (op.equals("f-"))
+            emit(JVM.FNEG);
+        else if (op.equals("i2f"))
+            emit(JVM.I2F);
         return null;
     }
     
     public Object visitBinaryExpr(BinaryExpr ast, Object o) {
-        if (debug) System.out.println("visitBinaryExpr()");
+        if (debug) out.println("visitBinaryExpr()");
+        String op = ast.O.spelling;
+
+        // The comparisons and the logical operators are generated as
+        // jumps (see emitCondJump), whose operands are generated there
+        if (isRelationalOp(op) || isEqualityOp(op) || isLogicalOp(op)) {
+            emitBooleanValue(ast, (Frame) o);
+            return null;
+        }
+
         ast.E1.visit(this, o);
         ast.E2.visit(this, o);
         ast.O.visit(this, o);
-
-        String op = ast.O.spelling;
         
-        if (op.charAt(0) == 'i') {
-            // The operator takes integer operands
-            
-            if (isArithmeticOp(op)) {
-            } else if (isRelationalOp(op)) {
-                emitIF_ICMPCOND(op, (Frame) o);
-            } else if (isEqualityOp(op)) {
-                emitIF_ICMPCOND(op, (Frame) o);
-            } else if (isLogicalOp(op)) {
-            } else { // isAssignmentOp(op)
-            }
-            
-        } else {
-            // The operator takes float operands
-        }
+        // The remaining operators are arithmetic
+        int opcode;
+        String realOp = op.substring(1);
+        if (realOp.equals("+"))
+            opcode = JVM.IADD;
+        else if (realOp.equals("-"))
+            opcode = JVM.ISUB;
+        else if (realOp.equals("*"))
+            opcode = JVM.IMUL;
+        else // if (realOp.equals("/"))
+            opcode = JVM.IDIV;
+
+        // The float instruction follows the int one in each pair
+        if (op.charAt(0) == 'f')
+            opcode += JVM.FADD - JVM.IADD;
+        emit(opcode);
+        ((Frame) o).pop();
         
         return null;
     }
         
     public Object visitInitExpr(InitExpr ast, Object o) {
-        if (debug) System.out.println("visitInitExpr()");
+        if (debug) out.println("visitInitExpr()");
         ast.IL.visit(this, o);
         return null;
     }
     
     public Object visitExprList(ExprList ast, Object o) {
-        if (debug) System.out.println("visitExprList()");
-        ast.E.visit(this, o);
-        ast.EL.visit(this, o);
+        List list = ast;
+        while (list instanceof ExprList) {
+            ExprList cell = (ExprList) list;
+            if (debug) out.println("visitExprList()");
+            cell.E.visit(this, o);
+            list = cell.EL;
+        }
+        list.visit(this, o);
         return null;
     }
     
     public Object visitArrayExpr(ArrayExpr ast, Object o) {
-        if (debug) System.out.println("visitArrayExpr()");
+        if (debug) out.println("visitArrayExpr()");
         ast.V.visit(this, o);
         ast.E.visit(this, o);
 
@@ -622,72 +857,87 @@ public final class Emitter implements Visitor {
     }
     
     public Object visitVarExpr(VarExpr ast, Object o) {
-        if (debug) System.out.println("visitVarExpr()");
+        if (debug) out.println("visitVarExpr()");
         ast.V.visit(this, o);
 
         return null;
     }
 
     public Object visitCallExpr(CallExpr ast, Object o) {
-        if (debug) System.out.println("visitCallExpr()");
+        if (debug) out.println("visitCallExpr()");
         Frame frame = (Frame) o;
         String fname = ast.I.spelling;
 
-        System.out.println("fname is " + fname);
+        out.println("fname is " + fname);
 
-        if (fname.equals("getInt")) {
+        switch (ast.I.nameId) {
+        case NameTable.GETINT:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System.getInt()I");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "getInt", "()I");
             frame.push();
-        } else if (fname.equals("putInt")) {
+            break;
+        case NameTable.PUTINT:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System.putInt(I)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putInt", "(I)V");
             frame.pop();
-        } else if (fname.equals("putIntLn")) {
+            break;
+        case NameTable.PUTINTLN:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putIntLn(I)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putIntLn", "(I)V");
             frame.pop();
-        } else if (fname.equals("getFloat")) {
+            break;
+        case NameTable.GETFLOAT:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/getFloat()F");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "getFloat", "()F");
             frame.push();
-        } else if (fname.equals("putFloat")) {
+            break;
+        case NameTable.PUTFLOAT:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putFloat(F)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putFloat", "(F)V");
             frame.pop();
-        } else if (fname.equals("putFloatLn")) {
+            break;
+        case NameTable.PUTFLOATLN:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putFloatLn(F)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putFloatLn", "(F)V");
             frame.pop();
-        } else if (fname.equals("putBool")) {
+            break;
+        case NameTable.PUTBOOL:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putBool(Z)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putBool", "(Z)V");
             frame.pop();
-        } else if (fname.equals("putBoolLn")) {
+            break;
+        case NameTable.PUTBOOLLN:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putBoolLn(Z)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putBoolLn", "(Z)V");
             frame.pop();
-        } else if (fname.equals("putString")) {
+            break;
+        case NameTable.PUTSTRING:
             ast.AL.visit(this, o);
-            emit(JVM.INVOKESTATIC, "VC/lang/System/putString(Ljava/lang/String;)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putString", "(Ljava/lang/String;)V");
             frame.pop();
-        } else if (fname.equals("putStringLn")) {
+            break;
+        case NameTable.PUTSTRINGLN:
             ast.AL.visit(this, o);
-            emit(JVM.INVOKESTATIC, "VC/lang/System/putStringLn(Ljava/lang/String;)V");
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putStringLn", "(Ljava/lang/String;)V");
             frame.pop();
-        } else if (fname.equals("putLn")) {
+            break;
+        case NameTable.PUTLN:
             ast.AL.visit(this, o); // push args (if any) into the op stack
-            emit("invokestatic VC/lang/System/putLn()V");
-        } else { // programmer-defined functions
+            emitMember(JVM.INVOKESTATIC, "VC/lang/System", "putLn", "()V");
+            break;
+        default: // programmer-defined functions
 
             FuncDecl fAST = (FuncDecl) ast.I.decl;
 
-            // all functions except main are assumed to be instance methods
-            if (frame.isMain()) 
-                emit("aload_1"); // vc.funcname(...)
-            else
-                emit("aload_0"); // this.funcname(...)
-            frame.push();
+            // all functions except main are assumed to be instance methods,
+            // unless they are static methods
+            if (!staticMethods) {
+                if (frame.isMain()) 
+                    emit(JVM.ALOAD_1); // vc.funcname(...)
+                else
+                    emit(JVM.ALOAD_0); // this.funcname(...)
+                frame.push();
+            }
 
             ast.AL.visit(this, o);
 
@@ -700,17 +950,22 @@ public final class Emitter implements Visitor {
             StringBuffer argsTypes = new StringBuffer("");
             List fpl = fAST.PL;
             while (! fpl.isEmpty()) {
-                if (((ParaList) fpl).P.T.equals(StdEnvironment.booleanType))
+                if (((ParaList) fpl).P.T.equals(env.booleanType))
                     argsTypes.append("Z");         
-                else if (((ParaList) fpl).P.T.equals(StdEnvironment.intType))
+                else if (((ParaList) fpl).P.T.equals(env.intType))
                     argsTypes.append("I");         
                 else
                     argsTypes.append("F");         
                 fpl = ((ParaList) fpl).PL;
             }
 
-            emit("invokevirtual", classname + "/" + fname + "(" + argsTypes + ")" + retType);
-            frame.pop(argsTypes.length() + 1);
+            if (staticMethods) {
+                emitMember(JVM.INVOKESTATIC, classname, fname, "(" + argsTypes + ")" + retType);
+                frame.pop(argsTypes.length());
+            } else {
+                emitMember(JVM.INVOKEVIRTUAL, classname, fname, "(" + argsTypes + ")" + retType);
+                frame.pop(argsTypes.length() + 1);
+            }
 
             if (! retType.equals("V"))
                 frame.push();
@@ -719,14 +974,28 @@ public final class Emitter implements Visitor {
     }
 
     public Object visitAssignExpr(AssignExpr ast, Object o) {
-        if (debug) System.out.println("visitAssignExpr()");
-        ast.E1.visit(this, o);
+        if (debug) out.println("visitAssignExpr()");
+        Frame frame = (Frame) o;
+
+        // FIXME: assignments to array elements are not generated yet
+        if (! (ast.E1 instanceof VarExpr)) {
+            ast.E1.visit(this, o);
+            ast.E2.visit(this, o);
+            return null;
+        }
+
+        // The value of an assignment is the value assigned, so it is
+        // duplicated before it is stored
         ast.E2.visit(this, o);
+        emit(JVM.DUP);
+        frame.push();
+        emitStore(((SimpleVar) ((VarExpr) ast.E1).V).I);
+        frame.pop();
         return null;
     }
 
     public Object visitEmptyExpr(EmptyExpr ast, Object o) {
-        if (debug) System.out.println("visitEmptyExpr()");
+        if (debug) out.println("visitEmptyExpr()");
         return null;
     }
 
@@ -735,7 +1004,7 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitIntLiteral(IntLiteral ast, Object o) {
-        if (debug) System.out.println("visitIntLiteral()");
+        if (debug) out.println("visitIntLiteral()");
         Frame frame = (Frame) o;
         emitICONST(Integer.parseInt(ast.spelling));
         frame.push();
@@ -743,7 +1012,7 @@ public final class Emitter implements Visitor {
     }
 
     public Object visitFloatLiteral(FloatLiteral ast, Object o) {
-        if (debug) System.out.println("visitFloatLiteral()");
+        if (debug) out.println("visitFloatLiteral()");
         Frame frame = (Frame) o;
         emitFCONST(Float.parseFloat(ast.spelling));
         frame.push();
@@ -751,7 +1020,7 @@ public final class Emitter implements Visitor {
     }
 
     public Object visitBooleanLiteral(BooleanLiteral ast, Object o) {
-        if (debug) System.out.println("visitBooleanLiteral()");
+        if (debug) out.println("visitBooleanLiteral()");
         Frame frame = (Frame) o;
         emitBCONST(ast.spelling.equals("true"));
         frame.push();
@@ -759,20 +1028,20 @@ public final class Emitter implements Visitor {
     }
 
     public Object visitStringLiteral(StringLiteral ast, Object o) {
-        if (debug) System.out.println("visitStringLiteral()");
+        if (debug) out.println("visitStringLiteral()");
         Frame frame = (Frame) o;
-        emit(JVM.LDC, "\"" + ast.spelling + "\"");
+        emitLDC(ast.spelling);
         frame.push();
         return null;
     }
 
     public Object visitIdent(Ident ast, Object o) {
-        if (debug) System.out.println("visitIdent()");
+        if (debug) out.println("visitIdent()");
         return null;
     }
 
     public Object visitOperator(Operator ast, Object o) {
-        if (debug) System.out.println("visitOperator()");
+        if (debug) out.println("visitOperator()");
         return null;
     }
 
@@ -781,19 +1050,24 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitParaList(ParaList ast, Object o) {
-        if (debug) System.out.println("visitParaList()");
-        ast.P.visit(this, o);
-        ast.PL.visit(this, o);
+        List list = ast;
+        while (list instanceof ParaList) {
+            ParaList cell = (ParaList) list;
+            if (debug) out.println("visitParaList()");
+            cell.P.visit(this, o);
+            list = cell.PL;
+        }
+        list.visit(this, o);
         return null;
     }
 
     public Object visitParaDecl(ParaDecl ast, Object o) {
-        if (debug) System.out.println("visitParaDecl()");
+        if (debug) out.println("visitParaDecl()");
         Frame frame = (Frame) o;
         ast.index = frame.getNewIndex();
         String T = VCtoJavaType(ast.T);
 
-        emit(JVM.VAR + " " + ast.index + " is " + ast.I.spelling + " " + T + " from " + (String) frame.scopeStart.peek() + " to " +  (String) frame.scopeEnd.peek());
+        emitVar(ast.index, ast.I.spelling, T, frame.scopeStart.peek(), frame.scopeEnd.peek());
         return null;
     }
 
@@ -802,14 +1076,19 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitArgList(ArgList ast, Object o) {
-        if (debug) System.out.println("visitArgList()");
-        ast.A.visit(this, o);
-        ast.AL.visit(this, o);
+        List list = ast;
+        while (list instanceof ArgList) {
+            ArgList cell = (ArgList) list;
+            if (debug) out.println("visitArgList()");
+            cell.A.visit(this, o);
+            list = cell.AL;
+        }
+        list.visit(this, o);
         return null;
     }
 
     public Object visitArg(Arg ast, Object o) {
-        if (debug) System.out.println("visitArg()");
+        if (debug) out.println("visitArg()");
         ast.E.visit(this, o);
         return null;
     }
@@ -819,37 +1098,37 @@ public final class Emitter implements Visitor {
     // ----------------------------------------------------------------
 
     public Object visitVoidType(VoidType ast, Object o) {
-        if (debug) System.out.println("visitVoidType()");
+        if (debug) out.println("visitVoidType()");
         return null;
     }
     
     public Object visitBooleanType(BooleanType ast, Object o) {
-        if (debug) System.out.println("visitBooleanType()");
+        if (debug) out.println("visitBooleanType()");
         return null;
     }
 
     public Object visitIntType(IntType ast, Object o) {
-        if (debug) System.out.println("visitIntType()");
+        if (debug) out.println("visitIntType()");
         return null;
     }
 
     public Object visitFloatType(FloatType ast, Object o) {
-        if (debug) System.out.println("visitFloatType()");
+        if (debug) out.println("visitFloatType()");
         return null;
     }
 
     public Object visitStringType(StringType ast, Object o) {
-        if (debug) System.out.println("visitStringType()");
+        if (debug) out.println("visitStringType()");
         return null;
     }
     
     public Object visitArrayType(ArrayType ast, Object o) {
-        if (debug) System.out.println("visitArrayType()");
+        if (debug) out.println("visitArrayType()");
         return null;
     }
     
     public Object visitErrorType(ErrorType ast, Object o) {
-        if (debug) System.out.println("visitErrorType()");
+        if (debug) out.println("visitErrorType()");
         return null;
     }
 
@@ -861,40 +1140,18 @@ public final class Emitter implements Visitor {
 
     // There are two possibilities. If this variable is a lvalue, a
     // STORE instruction will be generated. If it is a rvalue, a LOAD
-    // instruction will be generated. However, we do not know which
-    // to generate by just looking at this node alone! 
-    // 
-    // Appropriate instructions will be generated at BinaryExpr (with = as its
-    //   operator and VarExpr nodes.
+    // instruction will be generated. We cannot tell which by looking
+    // at this node alone, so the STORE is generated by visitAssignExpr,
+    // which does not visit the variable assigned to, and a variable
+    // visited here is always an rvalue.
     public Object visitSimpleVar(SimpleVar ast, Object o) {
-        if (debug) System.out.println("visitSimpleVar()");
+        if (debug) out.println("visitSimpleVar()");
         Frame frame = (Frame) o;
         ast.I.visit(this, o);
-        AST tmp = ast;
-
-        // Find out whether this variable is an lvalue or rvalue.
-        //
-        // This variable is an rvalue if ast.parent.parent is 
-        // an instance of
-        //     (1) Arg, or
-        //     (2) BinaryExpr, or
-        //     (3) UnaryExpr
-        //
-        // This variable is an lvalue otherwise
-        //
-        // FIXME: Right now this code only stores/loads integers
-        //        Need to store/load floats and arrays too
-       
-        if ((ast.parent.parent instanceof Arg) ||
-                (ast.parent.parent instanceof BinaryExpr) ||
-                (ast.parent.parent instanceof UnaryExpr)) {
-            Decl d = (Decl) ast.I.decl;
-            emitILOAD(d.index);
-            frame.push();
-        } else {
-            emitISTORE(ast.I);
-            frame.pop();
-        }
+
+        // FIXME: Right now this code only loads scalars
+        emitLoad((Decl) ast.I.decl);
+        frame.push();
 
         return null;
     }
@@ -903,109 +1160,232 @@ public final class Emitter implements Visitor {
     // Auxiliary methods for byte code generation
     // ----------------------------------------------------------------
 
-    // The following method appends an instruction directly into the JVM 
-    // Code Store. It is called by all other overloaded emit methods.
+    // The following methods append an instruction, a label, a comment
+    // or a directive directly into the JVM Code Store.
 
-    private void emit(String s) {
-        JVM.append(new Instruction(s)); 
+    private void emit(int opcode) {
+        code.append(new Instruction(opcode)); 
     }
 
-    private void emit(String s1, String s2) {
-        emit(s1 + " " + s2);
+    private void emitLabel(Label label) {
+        Instruction inst = new Instruction(JVM.LABEL);
+        inst.label = label;
+        code.append(inst);
     }
 
-    private void emit(String s1, int i) {
-        emit(s1 + " " + i);
+    private void emitComment(String text) {
+        Instruction inst = new Instruction(JVM.COMMENT);
+        inst.text = text;
+        code.append(inst);
     }
 
-    private void emit(String s1, float f) {
-        emit(s1 + " " + f);
+    // bipush, sipush, newarray and .limit
+
+    private void emitValue(int opcode, int value) {
+        Instruction inst = new Instruction(opcode);
+        inst.value = value;
+        code.append(inst);
     }
 
-    private void emit(String s1, String s2, int i) {
-        emit(s1 + " " + s2 + " " + i);
+    // a load or a store, in its short form if it has one
+
+    private void emitLocal(int opcode, int index) {
+        Instruction inst = new Instruction(JVM.shortForm(opcode, index));
+        inst.index = index;
+        code.append(inst);
     }
 
-    private void emit(String s1, String s2, String s3) {
-        emit(s1 + " " + s2 + " " + s3);
+    private void emitBranch(int opcode, Label label) {
+        Instruction inst = new Instruction(opcode);
+        inst.label = label;
+        code.append(inst);
     }
 
-    private void emitIF_ICMPCOND(String op, Frame frame) {
-        String opcode;
+    // getstatic, putstatic and the invokes
 
-        if (op.equals("i!="))
-            opcode = JVM.IF_ICMPNE;
-        else if (op.equals("i=="))
-            opcode = JVM.IF_ICMPEQ;
-        else if (op.equals("i<"))
-            opcode = JVM.IF_ICMPLT;
-        else if (op.equals("i<="))
-            opcode = JVM.IF_ICMPLE;
-        else if (op.equals("i>"))
-            opcode = JVM.IF_ICMPGT;
-        else // if (op.equals("i>="))
-            opcode = JVM.IF_ICMPGE;
+    private void emitMember(int opcode, String owner, String name, String descriptor) {
+        Instruction inst = new Instruction(opcode);
+        inst.member = new MemberRef(owner, name, descriptor);
+        code.append(inst);
+    }
 
-        String falseLabel = frame.getNewLabel();
-        String nextLabel = frame.getNewLabel();
+    private void emitLDC(Object constant) {
+        Instruction inst = new Instruction(JVM.LDC);
+        inst.constant = constant;
+        code.append(inst);
+    }
 
-        emit(opcode, falseLabel);
-        frame.pop(2); 
-        emit("iconst_0");
-        emit("goto", nextLabel);
-        emit(falseLabel + ":");
-        emit(JVM.ICONST_1);
-        frame.push(); 
-        emit(nextLabel + ":");
-    }
-
-    private void emitFCMP(String op, Frame frame) {
-        String opcode;
-
-        if (op.equals("f!="))
-            opcode = JVM.IFNE;
-        else if (op.equals("f=="))
-            opcode = JVM.IFEQ;
-        else if (op.equals("f<"))
-            opcode = JVM.IFLT;
-        else if (op.equals("f<="))
-            opcode = JVM.IFLE;
-        else if (op.equals("f>"))
-            opcode = JVM.IFGT;
-        else // if (op.equals("f>="))
-            opcode = JVM.IFGE;
-
-        String falseLabel = frame.getNewLabel();
-        String nextLabel = frame.getNewLabel();
-
-        emit(JVM.FCMPG);
-        frame.pop(2);
-        emit(opcode, falseLabel);
+    private void emitNEW(String classname) {
+        Instruction inst = new Instruction(JVM.NEW);
+        inst.text = classname;
+        code.append(inst);
+    }
+
+    private void emitClass(String classname, String superclass) {
+        Instruction inst = new Instruction(JVM.CLASS);
+        inst.value = Instruction.ACC_PUBLIC;
+        inst.text = classname;
+        code.append(inst);
+        inst = new Instruction(JVM.SUPER);
+        inst.text = superclass;
+        code.append(inst);
+    }
+
+    private void emitField(String name, String T) {
+        Instruction inst = new Instruction(JVM.STATIC_FIELD);
+        inst.member = new MemberRef(classname, name, T);
+        code.append(inst);
+    }
+
+    private void emitMethod(int access, String name, String descriptor) {
+        Instruction inst = new Instruction(JVM.METHOD_START);
+        inst.value = access;
+        inst.member = new MemberRef(classname, name, descriptor);
+        code.append(inst);
+    }
+
+    private void emitVar(int index, String name, String T, Label start, Label end) {
+        Instruction inst = new Instruction(JVM.VAR);
+        inst.index = index;
+        inst.member = new MemberRef(null, name, T);
+        inst.label = start;
+        inst.endLabel = end;
+        code.append(inst);
+    }
+
+    // Generates a jump to target if the value of the boolean expression
+    // ast is sense, falling through otherwise. The comparisons branch
+    // on their operands directly, and &&, || and ! become chains of
+    // such jumps, so no 0 or 1 is computed for them. A missing
+    // expression (the test of a for statement) is true.
+
+    private void emitCondJump(Expr ast, boolean sense, Label target, Frame frame) {
+        if (ast.isEmptyExpr() || ast instanceof BooleanExpr) {
+            boolean value = ast.isEmptyExpr()
+                || ((BooleanExpr) ast).BL.spelling.equals("true");
+            if (value == sense)
+                emitBranch(JVM.GOTO, target);
+            return;
+        }
+
+        if (ast instanceof UnaryExpr && ((UnaryExpr) ast).O.spelling.equals("i!")) {
+            emitCondJump(((UnaryExpr) ast).E, !sense, target, frame);
+            return;
+        }
+
+        if (ast instanceof BinaryExpr) {
+            BinaryExpr bAST = (BinaryExpr) ast;
+            String op = bAST.O.spelling;
+
+            if (op.equals("i&&") || op.equals("i||")) {
+                // E1 alone decides a && b when it is false, and a || b
+                // when it is true
+                boolean decisive = op.equals("i||");
+                if (sense == decisive) {
+                    emitCondJump(bAST.E1, sense, target, frame);
+                    emitCondJump(bAST.E2, sense, target, frame);
+                } else {
+                    Label skipLabel = frame.getNewLabel();
+                    emitCondJump(bAST.E1, decisive, skipLabel, frame);
+                    emitCondJump(bAST.E2, sense, target, frame);
+                    emitLabel(skipLabel);
+                }
+                return;
+            }
+
+            if (isRelationalOp(op) || isEqualityOp(op)) {
+                bAST.E1.visit(this, frame);
+                bAST.E2.visit(this, frame);
+                int opcode = ifOpcode(op.substring(1));
+                if (!sense)
+                    opcode = JVM.negate(opcode);
+                if (op.charAt(0) == 'f') {
+                    // fcmpg gives 1 and fcmpl -1 if either operand is
+                    // NaN, which must make every comparison but != false
+                    String realOp = op.substring(1);
+                    emit(realOp.startsWith("<") ? JVM.FCMPG : JVM.FCMPL);
+                    frame.pop();
+                    emitBranch(opcode, target);
+                    frame.pop();
+                } else {
+                    emitBranch(opcode + (JVM.IF_ICMPEQ - JVM.IFEQ), target);
+                    frame.pop(2);
+                }
+                return;
+            }
+        }
+
+        ast.visit(this, frame);
+        emitBranch(sense ? JVM.IFNE : JVM.IFEQ, target);
+        frame.pop();
+    }
+
+    // Generates the 0 or 1 value of a boolean expression that is
+    // generated as jumps
+
+    private void emitBooleanValue(Expr ast, Frame frame) {
+        Label trueLabel = frame.getNewLabel();
+        Label nextLabel = frame.getNewLabel();
+
+        emitCondJump(ast, true, trueLabel, frame);
         emit(JVM.ICONST_0);
-        emit("goto", nextLabel);
-        emit(falseLabel + ":");
+        emitBranch(JVM.GOTO, nextLabel);
+        emitLabel(trueLabel);
         emit(JVM.ICONST_1);
         frame.push();
-        emit(nextLabel + ":");
+        emitLabel(nextLabel);
+    }
+
+    // Returns the ifxx opcode that compares with 0 as the comparison
+    // operator op compares its operands, e.g. IFLT for "<"
 
+    private int ifOpcode(String op) {
+        if (op.equals("!="))
+            return JVM.IFNE;
+        else if (op.equals("=="))
+            return JVM.IFEQ;
+        else if (op.equals("<"))
+            return JVM.IFLT;
+        else if (op.equals("<="))
+            return JVM.IFLE;
+        else if (op.equals(">"))
+            return JVM.IFGT;
+        else // if (op.equals(">="))
+            return JVM.IFGE;
     }
 
     private void emitILOAD(int index) {
-        if (index >= 0 && index <= 3) 
-            emit(JVM.ILOAD + "_" + index); 
-        else
-            emit(JVM.ILOAD, index); 
+        emitLocal(JVM.ILOAD, index); 
     }
 
     private void emitFLOAD(int index) {
-        if (index >= 0 && index <= 3) 
-            emit(JVM.FLOAD + "_"  + index); 
+        emitLocal(JVM.FLOAD, index); 
+    }
+
+    // Generates the load of a variable, from its static field if it is
+    // global and from its local variable otherwise
+
+    private void emitLoad(Decl decl) {
+        if (decl instanceof GlobalVarDecl)
+            emitGETSTATIC(VCtoJavaType(decl.T), decl.I.spelling);
+        else if (decl.T.isFloatType())
+            emitFLOAD(decl.index);
         else
-            emit(JVM.FLOAD, index); 
+            emitILOAD(decl.index);
+    }
+
+    private void emitStore(Ident ast) {
+        Decl decl = (Decl) ast.decl;
+        if (decl instanceof GlobalVarDecl)
+            emitPUTSTATIC(VCtoJavaType(decl.T), decl.I.spelling);
+        else if (decl.T.isFloatType())
+            emitFSTORE(ast);
+        else
+            emitISTORE(ast);
     }
 
     private void emitGETSTATIC(String T, String I) {
-        emit(JVM.GETSTATIC, classname + "/" + I, T); 
+        emitMember(JVM.GETSTATIC, classname, I, T); 
     }
 
     private void emitISTORE(Ident ast) {
@@ -1015,10 +1395,7 @@ public final class Emitter implements Visitor {
         else
             index = ((LocalVarDecl) ast.decl).index; 
 
-        if (index >= 0 && index <= 3) 
-            emit(JVM.ISTORE + "_" + index); 
-        else
-            emit(JVM.ISTORE, index); 
+        emitLocal(JVM.ISTORE, index); 
     }
 
     private void emitFSTORE(Ident ast) {
@@ -1027,27 +1404,24 @@ public final class Emitter implements Visitor {
             index = ((ParaDecl) ast.decl).index; 
         else
             index = ((LocalVarDecl) ast.decl).index; 
-        if (index >= 0 && index <= 3) 
-            emit(JVM.FSTORE + "_" + index); 
-        else
-            emit(JVM.FSTORE, index); 
+        emitLocal(JVM.FSTORE, index); 
     }
 
     private void emitPUTSTATIC(String T, String I) {
-        emit(JVM.PUTSTATIC, classname + "/" + I, T); 
+        emitMember(JVM.PUTSTATIC, classname, I, T); 
     }
 
     private void emitICONST(int value) {
         if (value == -1)
             emit(JVM.ICONST_M1); 
         else if (value >= 0 && value <= 5) 
-            emit(JVM.ICONST + "_" + value); 
+            emit(JVM.ICONST_0 + value); 
         else if (value >= -128 && value <= 127) 
-            emit(JVM.BIPUSH, value); 
+            emitValue(JVM.BIPUSH, value); 
         else if (value >= -32768 && value <= 32767)
-            emit(JVM.SIPUSH, value); 
+            emitValue(JVM.SIPUSH, value); 
         else 
-            emit(JVM.LDC, value); 
+            emitLDC(value); 
     }
 
     private void emitFCONST(float value) {
@@ -1058,7 +1432,7 @@ public final class Emitter implements Visitor {
         else if(value == 2.0)
             emit(JVM.FCONST_2); 
         else 
-            emit(JVM.LDC, value); 
+            emitLDC(value); 
     }
 
     private void emitBCONST(boolean value) {
@@ -1069,13 +1443,13 @@ public final class Emitter implements Visitor {
     }
 
     private String VCtoJavaType(Type t) {
-        if (t.equals(StdEnvironment.booleanType))
+        if (t.equals(env.booleanType))
             return "Z";
-        else if (t.equals(StdEnvironment.intType))
+        else if (t.equals(env.intType))
             return "I";
-        else if (t.equals(StdEnvironment.floatType))
+        else if (t.equals(env.floatType))
             return "F";
-        else // if (t.equals(StdEnvironment.voidType))
+        else // if (t.equals(env.voidType))
             return "V";
     }
 
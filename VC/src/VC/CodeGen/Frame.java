@@ -4,8 +4,11 @@
 
 package VC.CodeGen;
 
+import java.io.PrintStream;
 import java.util.Stack;
 
+import VC.FatalError;
+
  public class Frame {
 
     // true if the function being compiled is main and false otherwise
@@ -27,7 +30,8 @@ import java.util.Stack;
    //  (lexically) first local variable   n + 1
    //  (lexically) second local variable  n + 2
    // 
-   // The indices for a class method with n parameters are:
+   // The indices for a class method with n parameters (main, and all
+   // the functions when they are compiled into static methods) are:
    //  variable                           index
    // ===================-=======================
    //  para 1                               0 
@@ -37,8 +41,14 @@ import java.util.Stack;
    //  (lexically) second local variable  n + 1
    // 
    // See page 73, T Lindholm and F Yellin, The JVM spec, 2nd ed.
+   //
+   // The indices of the variables of a compound statement are released
+   // when it ends (see releaseIndices), so the variables of compound
+   // statements whose scopes do not overlap share indices, and the
+   // method needs only as many as are in scope at any one time.
 
    private int localVarIndex;
+   private int maximumLocals;
 
    // Simulate the execution of byte code to determine at compile-time
    // the maximum depth of the operand stack for a method. 
@@ -50,26 +60,35 @@ import java.util.Stack;
    // Stacks for storing labels used for translating continue and break in while
    // These labels are inherited attributes
 
-   public Stack<String> conStack; 
-   public Stack<String> brkStack; 
+   public Stack<Label> conStack; 
+   public Stack<Label> brkStack; 
 
    // Stacks for storing labels marking the beginning and end of a scope. 
    // These labels are inherited attributes and used in generating 
    // .VAR directive
 
-   public Stack<String> scopeStart;
-   public Stack<String> scopeEnd; 
+   public Stack<Label> scopeStart;
+   public Stack<Label> scopeEnd; 
+
+   // true if push and pop trace the operand stack on out
+   private final boolean tracing;
 
-   public Frame(boolean _main) {
+   // where the messages of the compilation are printed
+   private PrintStream out;
+
+   public Frame(boolean _main, boolean tracing, PrintStream out) {
      this._main = _main;
+     this.tracing = tracing;
+     this.out = out;
      label = 0;
      localVarIndex = 0;
      currentStackSize = 0;
      maximumStackSize = 0;
-     conStack = new Stack<String>();
-     brkStack = new Stack<String>();
-     scopeStart = new Stack<String>();
-     scopeEnd = new Stack<String>();
+     maximumLocals = 0;
+     conStack = new Stack<Label>();
+     brkStack = new Stack<Label>();
+     scopeStart = new Stack<Label>();
+     scopeEnd = new Stack<Label>();
    }
 
    public boolean isMain() { 
@@ -80,16 +99,37 @@ import java.util.Stack;
 
    public int getNewIndex() { 
      if (localVarIndex >= JVM.MAX_LOCALVARINDEX) {
-       System.out.println("The maximum local variable index (" + JVM.MAX_LOCALVARINDEX + ") reached.");
-       System.exit(1);
+       out.println("The maximum local variable index (" + JVM.MAX_LOCALVARINDEX + ") reached.");
+       throw new FatalError("too many local variables");
      }
-     return localVarIndex++;
+     localVarIndex++;
+     if (localVarIndex > maximumLocals)
+       maximumLocals = localVarIndex;
+     return localVarIndex - 1;
+   }
+
+  // returns the index the next new local variable would get; passed to
+  // releaseIndices at the end of a scope, it frees the indices of the
+  // variables declared in the scope
+
+   public int getNextIndex() { 
+     return localVarIndex;
+   }
+
+   public void releaseIndices(int nextIndex) { 
+     localVarIndex = nextIndex;
+   }
+
+  // returns the number of local variables the method needs (.limit locals)
+
+   public int getMaximumLocals() { 
+     return maximumLocals;
    }
 
   // returns the next new label for this frame
 
-   public String getNewLabel() { 
-     return "L" + label++;
+   public Label getNewLabel() { 
+     return new Label(label++);
    }
 
    // All the following functions are used in calculating the maximum
@@ -105,16 +145,17 @@ import java.util.Stack;
 
    public void push(int i) {
      currentStackSize += i;
-	 System.out.println("\t push called "  + i + " result: " + currentStackSize);
+     if (tracing)
+       out.println("\t push called "  + i + " result: " + currentStackSize);
      if (currentStackSize < 0 || currentStackSize > JVM.MAX_OPSTACK) {
-       System.out.println("Invalid operand stack size.");
-       System.out.println("Current operand stack size is " + currentStackSize + ".");
-       System.out.println("You wanted to push " + i + ((i == 1) ? " operand" : " operands") + " to the stack.");
-       System.out.println("The size of the operand stack is limited to the range 0 .. " + JVM.MAX_OPSTACK + ".");
-       System.out.println("Good luck with debugging your code generator."); 
+       out.println("Invalid operand stack size.");
+       out.println("Current operand stack size is " + currentStackSize + ".");
+       out.println("You wanted to push " + i + ((i == 1) ? " operand" : " operands") + " to the stack.");
+       out.println("The size of the operand stack is limited to the range 0 .. " + JVM.MAX_OPSTACK + ".");
+       out.println("Good luck with debugging your code generator."); 
        Exception e = new NullPointerException();
-       e.printStackTrace();
-       System.exit(1);
+       e.printStackTrace(out);
+       throw new FatalError("invalid operand stack size");
      }
 
      if (currentStackSize > maximumStackSize)
@@ -130,17 +171,18 @@ import java.util.Stack;
   */
    public void pop(int i) {
      currentStackSize -= i;
-	 System.out.println("\t pop called "  + i + " result: " + currentStackSize);
+     if (tracing)
+       out.println("\t pop called "  + i + " result: " + currentStackSize);
      
      if (currentStackSize < 0) {
-       System.out.println("Invalid operand stack size.");
-       System.out.println("Current operand stack size is " + currentStackSize + ".");
-       System.out.println("You wanted to pop " + i + ((i == 1) ? " operand" : " operands") + " to the stack.");
-       System.out.println("The size of the operand stack is limited to the range 0 .. " + JVM.MAX_OPSTACK + ".");
-       System.out.println("Good luck with debugging your code generator."); 
+       out.println("Invalid operand stack size.");
+       out.println("Current operand stack size is " + currentStackSize + ".");
+       out.println("You wanted to pop " + i + ((i == 1) ? " operand" : " operands") + " to the stack.");
+       out.println("The size of the operand stack is limited to the range 0 .. " + JVM.MAX_OPSTACK + ".");
+       out.println("Good luck with debugging your code generator."); 
        Exception e = new NullPointerException();
-       e.printStackTrace();
-       System.exit(1);
+       e.printStackTrace(out);
+       throw new FatalError("invalid operand stack size");
      }
    }
   
@@ -6,18 +6,131 @@ package VC.CodeGen;
 
 import java.io.PrintWriter;
 
+// An entry of the code store: a JVM instruction, a label, a comment or
+// a Jasmin directive, identified by its opcode (see JVM). Its operands
+// are kept as ints, Labels and MemberRefs, so the code can be analysed
+// and transformed, and the Assembler can build the class file from it
+// directly; write gives its Jasmin text, for the .j file.
+
 public class Instruction {
 
-  public String inst; // Jasmin assembly instruction
+  public int opcode;
+
+  // The operands. Which of them an entry has depends on its opcode:
+  //
+  //   index     the local variable of a load, a store, iinc and .var
+  //   value     the operand of bipush, sipush and newarray, the
+  //             increment of iinc, the value of .limit, and the access
+  //             flags of .class and .method
+  //   constant  the Integer, Float or String loaded by ldc
+  //   label     the target of a branch, the label placed by a LABEL,
+  //             and the start of the scope of .var
+  //   endLabel  the end of the scope of .var
+  //   member    the field or method of getstatic, putstatic, an
+  //             invoke, .field and .method, and the variable of .var
+  //   text      the class of new, .class and .super, and the text of
+  //             a COMMENT ("" for a blank line)
+
+  public int index;
+  public int value;
+  public Object constant;
+  public Label label;
+  public Label endLabel;
+  public MemberRef member;
+  public String text;
 
-  public Instruction (String inst) {
-    this.inst = inst;
+  public Instruction (int opcode) {
+    this.opcode = opcode;
   }
-  
+
   public void write(PrintWriter writer) {
-    if (! (inst.startsWith(".") || inst.endsWith(":")))
-      writer.print("\t");
-    writer.println(inst);
+    switch (opcode) {
+    case JVM.LABEL:
+      writer.println(label + ":");
+      return;
+    case JVM.COMMENT:
+      writer.println("\t" + text);
+      return;
+    case JVM.CLASS:
+      writer.println(".class " + access(value) + text);
+      return;
+    case JVM.SUPER:
+      writer.println(".super " + text);
+      return;
+    case JVM.STATIC_FIELD:
+      writer.println(".field static " + member.name + " " + member.descriptor);
+      return;
+    case JVM.METHOD_START:
+      writer.println(".method " + access(value) + member.name + member.descriptor);
+      return;
+    case JVM.METHOD_END:
+      writer.println(".end method");
+      return;
+    case JVM.LIMIT_LOCALS:
+      writer.println(".limit locals " + value);
+      return;
+    case JVM.LIMIT_STACK:
+      writer.println(".limit stack " + value);
+      return;
+    case JVM.VAR:
+      writer.println(".var " + index + " is " + member.name + " " + member.descriptor
+                     + " from " + label + " to " + endLabel);
+      return;
+    }
+
+    writer.print("\t" + JVM.mnemonic(opcode));
+    switch (JVM.operandKind(opcode)) {
+    case JVM.LOCAL_OPERAND:
+      writer.print(" " + index);
+      break;
+    case JVM.VALUE_OPERAND:
+      if (opcode == JVM.NEWARRAY)
+        writer.print(" " + arrayType(value));
+      else
+        writer.print(" " + value);
+      break;
+    case JVM.CONSTANT_OPERAND:
+      if (constant instanceof String)
+        writer.print(" \"" + constant + "\"");
+      else
+        writer.print(" " + constant);
+      break;
+    case JVM.LABEL_OPERAND:
+      writer.print(" " + label);
+      break;
+    case JVM.MEMBER_OPERAND:
+      writer.print(" " + member);
+      break;
+    case JVM.CLASS_OPERAND:
+      writer.print(" " + text);
+      break;
+    case JVM.IINC_OPERANDS:
+      writer.print(" " + index + " " + value);
+      break;
+    }
+    writer.println();
+  }
+
+  // Returns the Jasmin words for access flags, each followed by a space
+
+  private static String access(int flags) {
+    String words = "";
+    if ((flags & ACC_PUBLIC) != 0)
+      words += "public ";
+    if ((flags & ACC_STATIC) != 0)
+      words += "static ";
+    return words;
+  }
+
+  private static String arrayType(int atype) {
+    switch (atype) {
+    case JVM.BOOLEAN: return "boolean";
+    case JVM.FLOAT:   return "float";
+    default:          return "int";
+    }
   }
- 
-}  
+
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_STATIC = 0x0008;
+
+}
@@ -5,6 +5,9 @@
 package VC.CodeGen;
 
 import java.io.*;
+import java.util.List;
+
+import VC.FatalError;
 
 // This JVM includes only a subset the JVM instructions
 
@@ -12,13 +15,16 @@ public final class JVM {
 
     // CODE STORE
 
-    public static int nextInstAddr = 0;
-    public static int codeSize = 512;
-    public static Instruction[] code = new Instruction[codeSize];
+    // Each compilation generates its class into its own JVM (see
+    // VC.CompilationContext); only the constants below are shared.
+
+    public int nextInstAddr = 0;
+    public int codeSize = 512;
+    public Instruction[] code = new Instruction[codeSize];
 
     // In production compilers, expensive array copies will be avoided
     // when dynamic data structures such as linked lists are used.
-    public static void append(Instruction inst) {
+    public void append(Instruction inst) {
         if (nextInstAddr >= codeSize) {
             Instruction[] newCode = new Instruction[2 * codeSize];
             System.arraycopy(code, 0, newCode, 0, codeSize); 
@@ -29,160 +35,322 @@ public final class JVM {
         code[nextInstAddr++] = inst;
     }
 
-    public static void dump(String filename) {
+    // Replaces the code store with code, e.g. after it is optimised
+    // (see Peephole)
+
+    public void setCode(List<Instruction> code) {
+        codeSize = Math.max(512, code.size());
+        this.code = code.toArray(new Instruction[codeSize]);
+        nextInstAddr = code.size();
+    }
+
+    // Writes the Jasmin text to filename; an error is reported to out,
+    // the output of the compilation, before the FatalError is thrown
+
+    public void dump(String filename, PrintStream out) {
         PrintWriter writer;
         try {
             writer = new PrintWriter(new FileOutputStream(filename));
-            for (int addr = 0; addr < nextInstAddr; addr++)
-                JVM.code[addr].write(writer);
-
+            write(writer);
             writer.close();
         } catch (FileNotFoundException e) {
-            System.out.println ("Error opening object file: " + e); 
-            System.exit(1);
+            out.println ("Error opening object file: " + e); 
+            throw new FatalError("can't open " + filename);
+        } catch (IOException e) {
+            out.println ("Error writing object file: " + e); 
+            throw new FatalError("can't write " + filename);
+        }
+    }
+
+    public void write(PrintWriter writer) {
+        for (int addr = 0; addr < nextInstAddr; addr++)
+            code[addr].write(writer);
+    }
+
+    // Returns the Jasmin text that dump would write
+
+    public String text() {
+        StringWriter text = new StringWriter();
+        write(new PrintWriter(text));
+        return text.toString();
+    }
+
+    // Returns the class file for the code store, as Jasmin would
+    // assemble it from a .j file called sourceName (see Assembler)
+
+    public byte[] assemble(String sourceName) {
+        return Assembler.assemble(this, sourceName);
+    }
+
+    public void dumpClass(String filename, String sourceName, PrintStream out) {
+        byte[] classFile = assemble(sourceName);
+        try {
+            OutputStream file = new FileOutputStream(filename);
+            file.write(classFile);
+            file.close();
         } catch (IOException e) {
-            System.out.println ("Error writing object file: " + e); 
-            System.exit(1);
+            out.println ("Error writing class file: " + e); 
+            throw new FatalError("can't write " + filename);
         }
     }
 
-    // Jasmin ASSEMBLY INSTRUCTIONS
+    // INSTRUCTIONS
+
+    // Pseudo opcodes for the entries of the code store that are not JVM
+    // instructions: labels, comments and Jasmin directives. They are
+    // negative, so they do not clash with the JVM opcodes.
+    public final static int
+               LABEL = -1,
+               COMMENT = -2,
 
-    // Directive codes
-    public final static String
-               SOURCE = ".source",
-               CLASS = ".class",
-               STATIC_FIELD  = ".field static",
-               LIMIT = ".limit",
-               METHOD_START = ".method",
-               METHOD_END = ".end",
-               SUPER = ".super",
-               VAR  = ".var",
-               LINE  = ".line",
+               // Directive codes
+               CLASS = -3,          // .class
+               SUPER = -4,          // .super
+               STATIC_FIELD = -5,   // .field static
+               METHOD_START = -6,   // .method
+               METHOD_END = -7,     // .end method
+               LIMIT_LOCALS = -8,   // .limit locals
+               LIMIT_STACK = -9,    // .limit stack
+               VAR = -10,           // .var
 
                // JVM operation codes
 
                // Arithmetic Instructions
 
-               FADD = "fadd",
-               IADD = "iadd",
-               FSUB = "fsub",
-               ISUB = "isub",
-               FMUL = "fmul",
-               IMUL = "imul",
-               FDIV = "fdiv",
-               IDIV = "idiv",
-               FCMPG = "fcmpg",
-               FCMPL = "fcmpl",
-               FNEG = "fneg",
-               INEG = "ineg",
-               IXOR = "ixor",
-               WIDE = "wide", // not supported by Jasmin
-
+               IADD = 96,
+               FADD = 98,
+               ISUB = 100,
+               FSUB = 102,
+               IMUL = 104,
+               FMUL = 106,
+               IDIV = 108,
+               FDIV = 110,
+               IREM = 112,
+               INEG = 116,
+               FNEG = 118,
+               IXOR = 130,
+               IINC = 132,
+               FCMPL = 149,
+               FCMPG = 150,
+               WIDE = 196,
 
                // Loading and storing instructions
-               GETSTATIC = "getstatic",
-               PUTSTATIC = "putstatic",
+               GETSTATIC = 178,
+               PUTSTATIC = 179,
 
                // load a local variable into the operand stack
-               ALOAD = "aload",
-               ALOAD_0 = "aload_0",
-               ALOAD_1 = "aload_1",
-               ALOAD_2 = "aload_2",
-               ALOAD_3 = "aload_3",
-               ILOAD = "iload",
-               ILOAD_0 = "iload_0",
-               ILOAD_1 = "iload_1",
-               ILOAD_2 = "iload_2",
-               ILOAD_3 = "iload_3",
-               FLOAD = "fload",
-               FLOAD_0 = "fload_0",
-               FLOAD_1 = "fload_1",
-               FLOAD_2 = "fload_2",
-               FLOAD_3 = "fload_3",
-               IALOAD = "iaload",
-               BALOAD = "baload",
-               FALOAD = "faload",
+               ILOAD = 21,
+               FLOAD = 23,
+               ALOAD = 25,
+               ILOAD_0 = 26,
+               ILOAD_1 = 27,
+               ILOAD_2 = 28,
+               ILOAD_3 = 29,
+               FLOAD_0 = 34,
+               FLOAD_1 = 35,
+               FLOAD_2 = 36,
+               FLOAD_3 = 37,
+               ALOAD_0 = 42,
+               ALOAD_1 = 43,
+               ALOAD_2 = 44,
+               ALOAD_3 = 45,
+               IALOAD = 46,
+               FALOAD = 48,
+               BALOAD = 51,
                // store the operand stack into a local variable
-               ASTORE = "astore",
-               ASTORE_0 = "astore_0",
-               ASTORE_1 = "astore_1",
-               ASTORE_2 = "astore_2",
-               ASTORE_3 = "astore_3",
-               FSTORE = "fstore",
-               FSTORE_0 = "fstore_0",
-               FSTORE_1 = "fstore_1",
-               FSTORE_2 = "fstore_2",
-               FSTORE_3 = "fstore_3",
-               ISTORE = "istore",
-               ISTORE_0 = "istore_0",
-               ISTORE_1 = "istore_1",
-               ISTORE_2 = "istore_2",
-               ISTORE_3 = "istore_3",
-               IASTORE = "iastore",
-               BASTORE = "bastore",
-               FASTORE = "fastore",
+               ISTORE = 54,
+               FSTORE = 56,
+               ASTORE = 58,
+               ISTORE_0 = 59,
+               ISTORE_1 = 60,
+               ISTORE_2 = 61,
+               ISTORE_3 = 62,
+               FSTORE_0 = 67,
+               FSTORE_1 = 68,
+               FSTORE_2 = 69,
+               FSTORE_3 = 70,
+               ASTORE_0 = 75,
+               ASTORE_1 = 76,
+               ASTORE_2 = 77,
+               ASTORE_3 = 78,
+               IASTORE = 79,
+               FASTORE = 81,
+               BASTORE = 84,
                // load a constant into the operand stack
-
-               ICONST = "iconst",     // does not exist; used in the method
-               // emitICONST of the class Emitter.
-
-               ICONST_M1 = "iconst_m1",
-               ICONST_0 = "iconst_0",
-               ICONST_1 = "iconst_1",
-               ICONST_2 = "iconst_2",
-               ICONST_3 = "iconst_3",
-               ICONST_4 = "iconst_4",
-               ICONST_5 = "iconst_5",
-               FCONST_0 = "fconst_0",
-               FCONST_1 = "fconst_1",
-               FCONST_2 = "fconst_2",
-               BIPUSH = "bipush",
-               SIPUSH = "sipush",
-               LDC = "ldc",
+               ICONST_M1 = 2,
+               ICONST_0 = 3,
+               ICONST_1 = 4,
+               ICONST_2 = 5,
+               ICONST_3 = 6,
+               ICONST_4 = 7,
+               ICONST_5 = 8,
+               FCONST_0 = 11,
+               FCONST_1 = 12,
+               FCONST_2 = 13,
+               BIPUSH = 16,
+               SIPUSH = 17,
+               LDC = 18,
 
                // Method invocation and return instructions
 
-               INVOKESTATIC = "invokestatic",
-               INVOKESPECIAL = "invokespecial",
-               INVOKEVIRTUAL = "invokevirtual",
-               FRETURN = "freturn",
-               IRETURN = "ireturn",
-               RETURN = "return",
+               INVOKEVIRTUAL = 182,
+               INVOKESPECIAL = 183,
+               INVOKESTATIC = 184,
+               IRETURN = 172,
+               FRETURN = 174,
+               RETURN = 177,
 
                // Control transfer instructions
 
-               GOTO = "goto",
-               IFEQ = "ifeq",
-               IFNE = "ifne",
-               IFLE = "ifle",
-               IFLT = "iflt",
-               IFGE = "ifge",
-               IFGT = "ifgt",
-               IF_ICMPEQ = "if_icmpeq",
-               IF_ICMPNE = "if_icmpne",
-               IF_ICMPLE = "if_icmple",
-               IF_ICMPLT = "if_icmplt",
-               IF_ICMPGE = "if_icmpge",
-               IF_ICMPGT = "if_icmpgt",
+               IFEQ = 153,
+               IFNE = 154,
+               IFLT = 155,
+               IFGE = 156,
+               IFGT = 157,
+               IFLE = 158,
+               IF_ICMPEQ = 159,
+               IF_ICMPNE = 160,
+               IF_ICMPLT = 161,
+               IF_ICMPGE = 162,
+               IF_ICMPGT = 163,
+               IF_ICMPLE = 164,
+               GOTO = 167,
 
                // Type conversion instructions
-               I2F = "i2f",
+               I2F = 134,
 
                // Object creation and manipulation
-               NEW = "new",
+               NEW = 187,
 
                // Array creation and manipulation
-               NEWARRAY = "newarray", 
-               INT = "int",
-               BOOLEAN = "boolean",
-               FLOAT = "float",
+               NEWARRAY = 188, 
+               BOOLEAN = 4,         // the array types of newarray
+               FLOAT = 6,
+               INT = 10,
                
                // Operand Stack management instructions
 
-               DUP = "dup",
-               POP = "pop", 
-               NOP = "nop"; 
+               DUP = 89,
+               POP = 87, 
+               NOP = 0; 
+
+    // The kinds of operand an instruction takes (see Instruction)
+
+    public final static int
+               NO_OPERAND = 0,
+               LOCAL_OPERAND = 1,    // index
+               VALUE_OPERAND = 2,    // value
+               CONSTANT_OPERAND = 3, // constant
+               LABEL_OPERAND = 4,    // label
+               MEMBER_OPERAND = 5,   // member
+               CLASS_OPERAND = 6,    // text
+               IINC_OPERANDS = 7;    // index and value
+
+    public static int operandKind(int opcode) {
+        switch (opcode) {
+        case ILOAD: case FLOAD: case ALOAD:
+        case ISTORE: case FSTORE: case ASTORE:
+            return LOCAL_OPERAND;
+        case BIPUSH: case SIPUSH: case NEWARRAY:
+            return VALUE_OPERAND;
+        case LDC:
+            return CONSTANT_OPERAND;
+        case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+        case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+        case IF_ICMPGT: case IF_ICMPLE: case GOTO:
+            return LABEL_OPERAND;
+        case GETSTATIC: case PUTSTATIC:
+        case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC:
+            return MEMBER_OPERAND;
+        case NEW:
+            return CLASS_OPERAND;
+        case IINC:
+            return IINC_OPERANDS;
+        default:
+            return NO_OPERAND;
+        }
+    }
+
+    // Returns the Jasmin mnemonic of a JVM opcode, e.g. "iload_1"
+
+    public static String mnemonic(int opcode) {
+        return jas.RuntimeConstants.opcNames[opcode].substring("opc_".length());
+    }
+
+    // Returns the change in the depth of the operand stack that an
+    // instruction makes (0 for the other entries of the code store)
+
+    public static int stackEffect(Instruction inst) {
+        int opcode = inst.opcode;
+        switch (opcode) {
+        case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+        case ICONST_3: case ICONST_4: case ICONST_5:
+        case FCONST_0: case FCONST_1: case FCONST_2:
+        case BIPUSH: case SIPUSH: case LDC:
+        case ILOAD: case FLOAD: case ALOAD:
+        case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3:
+        case FLOAD_0: case FLOAD_1: case FLOAD_2: case FLOAD_3:
+        case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3:
+        case GETSTATIC: case NEW: case DUP:
+            return 1;
+        case ISTORE: case FSTORE: case ASTORE:
+        case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3:
+        case FSTORE_0: case FSTORE_1: case FSTORE_2: case FSTORE_3:
+        case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3:
+        case PUTSTATIC: case POP:
+        case IADD: case FADD: case ISUB: case FSUB: case IMUL: case FMUL:
+        case IDIV: case FDIV: case IREM: case IXOR: case FCMPL: case FCMPG:
+        case IALOAD: case FALOAD: case BALOAD:
+        case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+        case IRETURN: case FRETURN:
+            return -1;
+        case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+        case IF_ICMPGT: case IF_ICMPLE:
+            return -2;
+        case IASTORE: case FASTORE: case BASTORE:
+            return -3;
+        case INVOKESTATIC:
+            return inst.member.returnSize() - inst.member.argumentSize();
+        case INVOKEVIRTUAL: case INVOKESPECIAL:
+            return inst.member.returnSize() - inst.member.argumentSize() - 1;
+        default:
+            return 0;
+        }
+    }
+
+    // Returns true if control never passes from an instruction to the
+    // one after it
+
+    public static boolean isUnconditional(int opcode) {
+        return opcode == GOTO || opcode == RETURN || opcode == IRETURN || opcode == FRETURN;
+    }
+
+    // Returns the conditional branch taken exactly when opcode is not
+    // taken, e.g. IFGE for IFLT, or IF_ICMPNE for IF_ICMPEQ
+
+    public static int negate(int opcode) {
+        if (opcode >= IF_ICMPEQ)
+            return IF_ICMPEQ + ((opcode - IF_ICMPEQ) ^ 1);
+        return IFEQ + ((opcode - IFEQ) ^ 1);
+    }
+
+    // Returns the opcode of the short form of a load or a store of
+    // local variable index, e.g. ILOAD_1 for ILOAD and 1, or opcode
+    // itself if there is none
+
+    public static int shortForm(int opcode, int index) {
+        if (index < 0 || index > 3)
+            return opcode;
+        switch (opcode) {
+        case ILOAD:  return ILOAD_0 + index;
+        case FLOAD:  return FLOAD_0 + index;
+        case ALOAD:  return ALOAD_0 + index;
+        case ISTORE: return ISTORE_0 + index;
+        case FSTORE: return FSTORE_0 + index;
+        case ASTORE: return ASTORE_0 + index;
+        default:     return opcode;
+        }
+    }
 
     // Limitations of the JVM 
 
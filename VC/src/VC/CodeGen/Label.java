@@ -0,0 +1,24 @@
+/*
+ * Label.java
+ */
+
+package VC.CodeGen;
+
+// A label of the code store, made by Frame.getNewLabel. A label is
+// placed in the code by an Instruction with opcode JVM.LABEL and
+// referred to by the branches to it; its name L0, L1, ... appears only
+// in the Jasmin text.
+
+public final class Label {
+
+  public final int number;
+
+  public Label(int number) {
+    this.number = number;
+  }
+
+  public String toString() {
+    return "L" + number;
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * MemberRef.java
+ */
+
+package VC.CodeGen;
+
+// A reference to a field or a method: the class it belongs to, e.g.
+// "VC/lang/System", its name, e.g. "putIntLn", and its descriptor, e.g.
+// "(I)V". The class is null for the local variables named in a .var
+// directive.
+
+public final class MemberRef {
+
+  public final String owner;
+  public final String name;
+  public final String descriptor;
+
+  public MemberRef(String owner, String name, String descriptor) {
+    this.owner = owner;
+    this.name = name;
+    this.descriptor = descriptor;
+  }
+
+  public boolean isMethod() {
+    return descriptor.startsWith("(");
+  }
+
+  // Returns the number of words the arguments of a method take on the
+  // operand stack, or the number its return value takes (0 for V)
+
+  public int argumentSize() {
+    int size = 0;
+    int i = 1;
+    while (descriptor.charAt(i) != ')') {
+      i = skipType(i);
+      size++;
+    }
+    return size;
+  }
+
+  public int returnSize() {
+    return descriptor.endsWith(")V") ? 0 : 1;
+  }
+
+  // Returns the position after the type starting at position i of the
+  // descriptor
+
+  private int skipType(int i) {
+    while (descriptor.charAt(i) == '[')
+      i++;
+    if (descriptor.charAt(i) == 'L')
+      return descriptor.indexOf(';', i) + 1;
+    return i + 1;
+  }
+
+  // The Jasmin text of a method reference is "owner/name(...)r", and of a
+  // field reference "owner/name type"
+
+  public String toString() {
+    String prefix = owner == null ? "" : owner + "/";
+    if (isMethod())
+      return prefix + name + descriptor;
+    return prefix + name + " " + descriptor;
+  }
+
+}
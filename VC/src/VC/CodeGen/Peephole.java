@@ -0,0 +1,435 @@
+/*
+ * Peephole.java
+ *
+ * A peephole optimiser for the code store. It slides a window along
+ * the code and rewrites the instructions at the start of the window
+ * whenever they match one of the rules of its rule table, until no
+ * rule matches anywhere. It then recomputes the .limit stack of every
+ * method, as the rewrites can change the depth of the operand stack.
+ *
+ * Each rule counts the rewrites it makes, so a caller can report how
+ * often each one fires (see VC.Benchmark.PeepholeBenchmark). An
+ * optimiser can be given any table of rules; allRules() returns the
+ * full table, in the order the rules are tried.
+ */
+
+package VC.CodeGen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+public final class Peephole {
+
+    public static abstract class Rule {
+
+        public final String name;
+
+        // the number of rewrites this rule has made
+        public int hits = 0;
+
+        protected Rule(String name) {
+            this.name = name;
+        }
+
+        // Rewrites the code of p from at on if it matches this rule, and
+        // returns true if it did
+
+        protected abstract boolean apply(Peephole p, int at);
+
+    }
+
+    // Returns a new table of all the rules, with their counts at 0
+
+    public static Rule[] allRules() {
+        return new Rule[] {
+
+            // nop does nothing (the Emitter ends functions that do not
+            // return void with one), but a method must have some code
+            new Rule("nop") {
+                protected boolean apply(Peephole p, int at) {
+                    if (p.opcode(at) != JVM.NOP)
+                        return false;
+                    int i = at - 1;
+                    while (p.opcode(i) < 0 && p.opcode(i) != JVM.METHOD_START)
+                        i--;
+                    if (p.opcode(i) < 0)
+                        return false;
+                    p.remove(at);
+                    return true;
+                }
+            },
+
+            // goto L  L:  =>  L:, and a conditional branch to the next
+            // label is replaced by the pops of its operands
+            new Rule("branch to next") {
+                protected boolean apply(Peephole p, int at) {
+                    if (p.operandKind(at) != JVM.LABEL_OPERAND
+                            || !p.labelFollows(at + 1, p.get(at).label))
+                        return false;
+                    int operands = -JVM.stackEffect(p.get(at));
+                    p.remove(at);
+                    for (int i = 0; i < operands; i++)
+                        p.insert(at, new Instruction(JVM.POP));
+                    return true;
+                }
+            },
+
+            // a branch to L, where L: goto M  =>  a branch to M
+            new Rule("jump to jump") {
+                protected boolean apply(Peephole p, int at) {
+                    if (p.operandKind(at) != JVM.LABEL_OPERAND)
+                        return false;
+                    Label target = p.finalTarget(p.get(at).label);
+                    if (target == null || target == p.get(at).label)
+                        return false;
+                    p.retarget(at, target);
+                    return true;
+                }
+            },
+
+            // the instructions after goto or a return that no branch
+            // reaches are removed, keeping the labels and directives
+            new Rule("unreachable code") {
+                protected boolean apply(Peephole p, int at) {
+                    if (!JVM.isUnconditional(p.opcode(at)))
+                        return false;
+                    for (int i = at + 1; i < p.code.size(); i++) {
+                        Instruction inst = p.code.get(i);
+                        if (inst.opcode == JVM.METHOD_END
+                                || inst.opcode == JVM.LABEL && p.isTarget(inst.label))
+                            return false;
+                        if (inst.opcode >= 0) {
+                            p.remove(i);
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            },
+
+            // a label that no branch or .var refers to
+            new Rule("unused label") {
+                protected boolean apply(Peephole p, int at) {
+                    if (p.opcode(at) != JVM.LABEL || p.isReferenced(p.get(at).label))
+                        return false;
+                    p.remove(at);
+                    return true;
+                }
+            },
+
+            // a push with no other effect followed by pop  =>  nothing
+            new Rule("push pop") {
+                protected boolean apply(Peephole p, int at) {
+                    if (!isPush(p.opcode(at)) || p.opcode(at + 1) != JVM.POP)
+                        return false;
+                    p.remove(at + 1);
+                    p.remove(at);
+                    return true;
+                }
+            },
+
+            // dup  store  pop  =>  store
+            new Rule("dup store pop") {
+                protected boolean apply(Peephole p, int at) {
+                    if (p.opcode(at) != JVM.DUP || loadFor(p.get(at + 1)) == 0
+                            || p.opcode(at + 2) != JVM.POP)
+                        return false;
+                    p.remove(at + 2);
+                    p.remove(at);
+                    return true;
+                }
+            },
+
+            // store x  load x  =>  dup  store x
+            new Rule("store load") {
+                protected boolean apply(Peephole p, int at) {
+                    Instruction store = p.get(at);
+                    Instruction load = p.get(at + 1);
+                    int opcode = loadFor(store);
+                    if (opcode == 0 || load == null || load.opcode != opcode
+                            || load.index != store.index || load.member != null
+                                && !load.member.toString().equals(store.member.toString()))
+                        return false;
+                    p.remove(at + 1);
+                    p.insert(at, new Instruction(JVM.DUP));
+                    return true;
+                }
+            },
+
+            // iconst c  ifeq L / ifne L  =>  goto L, or nothing
+            new Rule("constant branch") {
+                protected boolean apply(Peephole p, int at) {
+                    Integer value = intConstant(p.get(at));
+                    int branch = p.opcode(at + 1);
+                    if (value == null || branch != JVM.IFEQ && branch != JVM.IFNE)
+                        return false;
+                    Label target = p.get(at + 1).label;
+                    p.remove(at + 1);
+                    p.remove(at);
+                    if ((value == 0) == (branch == JVM.IFEQ)) {
+                        Instruction jump = new Instruction(JVM.GOTO);
+                        jump.label = target;
+                        p.insert(at, jump);
+                    }
+                    return true;
+                }
+            }
+        };
+    }
+
+    private final Rule[] rules;
+
+    // the code being optimised
+    private ArrayList<Instruction> code;
+
+    // the number of branches to each label, and the number of branches
+    // and .var directives referring to each
+    private final IdentityHashMap<Label, Integer> branches = new IdentityHashMap<Label, Integer>();
+    private final IdentityHashMap<Label, Integer> references = new IdentityHashMap<Label, Integer>();
+
+    public Peephole() {
+        this(allRules());
+    }
+
+    public Peephole(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    public Rule[] getRules() {
+        return rules;
+    }
+
+    public void optimise(JVM jvm) {
+        code = new ArrayList<Instruction>(Arrays.asList(jvm.code).subList(0, jvm.nextInstAddr));
+        branches.clear();
+        references.clear();
+        for (Instruction inst : code)
+            count(inst, 1);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int at = 0; at < code.size(); at++) {
+                for (Rule rule : rules) {
+                    if (rule.apply(this, at)) {
+                        rule.hits++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (int at = 0; at < code.size(); at++)
+            if (code.get(at).opcode == JVM.METHOD_START)
+                setStackLimit(at);
+        jvm.setCode(code);
+    }
+
+    // ----------------------------------------------------------------
+    // The window
+    // ----------------------------------------------------------------
+
+    // Returns the entry at i, or null if there is none
+
+    private Instruction get(int i) {
+        return i < code.size() ? code.get(i) : null;
+    }
+
+    // Returns the opcode of the entry at i, or JVM.METHOD_END if there is
+    // none, which no rule matches
+
+    private int opcode(int i) {
+        return i < code.size() ? code.get(i).opcode : JVM.METHOD_END;
+    }
+
+    private int operandKind(int i) {
+        int opcode = opcode(i);
+        return opcode >= 0 ? JVM.operandKind(opcode) : JVM.NO_OPERAND;
+    }
+
+    private void remove(int i) {
+        count(code.remove(i), -1);
+    }
+
+    private void insert(int i, Instruction inst) {
+        code.add(i, inst);
+        count(inst, 1);
+    }
+
+    private void retarget(int i, Label label) {
+        Instruction inst = code.get(i);
+        count(inst, -1);
+        inst.label = label;
+        count(inst, 1);
+    }
+
+    private void count(Instruction inst, int n) {
+        if (inst.opcode == JVM.VAR) {
+            add(references, inst.label, n);
+            add(references, inst.endLabel, n);
+        } else if (inst.opcode >= 0 && JVM.operandKind(inst.opcode) == JVM.LABEL_OPERAND) {
+            add(branches, inst.label, n);
+            add(references, inst.label, n);
+        }
+    }
+
+    private static void add(IdentityHashMap<Label, Integer> counts, Label label, int n) {
+        Integer count = counts.get(label);
+        counts.put(label, (count == null ? 0 : count) + n);
+    }
+
+    private boolean isTarget(Label label) {
+        Integer count = branches.get(label);
+        return count != null && count > 0;
+    }
+
+    private boolean isReferenced(Label label) {
+        Integer count = references.get(label);
+        return count != null && count > 0;
+    }
+
+    // Returns true if label is placed among the labels and comments
+    // from i on, before any other entry
+
+    private boolean labelFollows(int i, Label label) {
+        for (; i < code.size(); i++) {
+            Instruction inst = code.get(i);
+            if (inst.opcode == JVM.LABEL && inst.label == label)
+                return true;
+            if (inst.opcode != JVM.LABEL && inst.opcode != JVM.COMMENT)
+                return false;
+        }
+        return false;
+    }
+
+    // Returns the label a jump to label ends up at after the gotos it
+    // meets straight away, or null if they go round in a loop
+
+    private Label finalTarget(Label label) {
+        IdentityHashMap<Label, Label> seen = new IdentityHashMap<Label, Label>();
+        while (seen.put(label, label) == null) {
+            Instruction next = instructionAfter(label);
+            if (next == null || next.opcode != JVM.GOTO)
+                return label;
+            label = next.label;
+        }
+        return null;
+    }
+
+    // Returns the first instruction after the place of label
+
+    private Instruction instructionAfter(Label label) {
+        int i = 0;
+        while (i < code.size() && !(code.get(i).opcode == JVM.LABEL && code.get(i).label == label))
+            i++;
+        for (; i < code.size(); i++) {
+            int opcode = code.get(i).opcode;
+            if (opcode >= 0)
+                return code.get(i);
+            if (opcode == JVM.METHOD_END)
+                return null;
+        }
+        return null;
+    }
+
+    // ----------------------------------------------------------------
+    // The instructions the rules look for
+    // ----------------------------------------------------------------
+
+    // Returns true if opcode pushes one word and has no other effect
+
+    private static boolean isPush(int opcode) {
+        switch (opcode) {
+        case JVM.ICONST_M1: case JVM.ICONST_0: case JVM.ICONST_1: case JVM.ICONST_2:
+        case JVM.ICONST_3: case JVM.ICONST_4: case JVM.ICONST_5:
+        case JVM.FCONST_0: case JVM.FCONST_1: case JVM.FCONST_2:
+        case JVM.BIPUSH: case JVM.SIPUSH: case JVM.LDC:
+        case JVM.ILOAD: case JVM.FLOAD: case JVM.ALOAD:
+        case JVM.ILOAD_0: case JVM.ILOAD_1: case JVM.ILOAD_2: case JVM.ILOAD_3:
+        case JVM.FLOAD_0: case JVM.FLOAD_1: case JVM.FLOAD_2: case JVM.FLOAD_3:
+        case JVM.ALOAD_0: case JVM.ALOAD_1: case JVM.ALOAD_2: case JVM.ALOAD_3:
+        case JVM.GETSTATIC: case JVM.DUP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // Returns the opcode of the load of the variable that inst stores
+    // into, or 0 if inst is not a store
+
+    private static int loadFor(Instruction inst) {
+        if (inst == null)
+            return 0;
+        int opcode = inst.opcode;
+        if (opcode == JVM.PUTSTATIC)
+            return JVM.GETSTATIC;
+        if (opcode == JVM.ISTORE || opcode == JVM.FSTORE || opcode == JVM.ASTORE)
+            return JVM.shortForm(opcode - (JVM.ISTORE - JVM.ILOAD), inst.index);
+        if (opcode >= JVM.ISTORE_0 && opcode <= JVM.ASTORE_3)
+            return opcode - (JVM.ISTORE_0 - JVM.ILOAD_0);
+        return 0;
+    }
+
+    // Returns the int that inst pushes, or null if it is not an int
+    // constant
+
+    private static Integer intConstant(Instruction inst) {
+        if (inst == null)
+            return null;
+        int opcode = inst.opcode;
+        if (opcode >= JVM.ICONST_M1 && opcode <= JVM.ICONST_5)
+            return opcode - JVM.ICONST_0;
+        if (opcode == JVM.BIPUSH || opcode == JVM.SIPUSH)
+            return inst.value;
+        if (opcode == JVM.LDC && inst.constant instanceof Integer)
+            return (Integer) inst.constant;
+        return null;
+    }
+
+    // ----------------------------------------------------------------
+    // The operand stack
+    // ----------------------------------------------------------------
+
+    // Sets the .limit stack of the method starting at start to the
+    // greatest depth its operand stack reaches, following every path
+    // through its code
+
+    private void setStackLimit(int start) {
+        int end = start;
+        while (code.get(end).opcode != JVM.METHOD_END)
+            end++;
+
+        IdentityHashMap<Label, Integer> places = new IdentityHashMap<Label, Integer>();
+        for (int i = start; i < end; i++)
+            if (code.get(i).opcode == JVM.LABEL)
+                places.put(code.get(i).label, i);
+
+        boolean[] visited = new boolean[end - start];
+        ArrayList<int[]> paths = new ArrayList<int[]>();
+        paths.add(new int[] { start, 0 });
+        int max = 0;
+        while (!paths.isEmpty()) {
+            int[] path = paths.remove(paths.size() - 1);
+            int depth = path[1];
+            for (int i = path[0]; i < end && !visited[i - start]; i++) {
+                visited[i - start] = true;
+                Instruction inst = code.get(i);
+                if (inst.opcode < 0)
+                    continue;
+                depth += JVM.stackEffect(inst);
+                max = Math.max(max, depth);
+                if (JVM.operandKind(inst.opcode) == JVM.LABEL_OPERAND)
+                    paths.add(new int[] { places.get(inst.label), depth });
+                if (JVM.isUnconditional(inst.opcode))
+                    break;
+            }
+        }
+
+        for (int i = start; i < end; i++)
+            if (code.get(i).opcode == JVM.LIMIT_STACK)
+                code.get(i).value = max;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * CompilationContext.java
+ *
+ * The state of one compilation of one source file: its options, its
+ * error reporter, its standard environment, the table of its
+ * identifiers and the code store its class is generated into.
+ *
+ * The Scanner, Parser, Checker and Emitter of a compilation all take
+ * the same context, and keep no state anywhere else, so compilations
+ * with different contexts can run at the same time in one JVM. All the
+ * messages of a compilation are printed to the PrintStream out of its
+ * context.
+ */
+
+package VC;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import VC.CodeGen.JVM;
+import VC.Scanner.NameTable;
+
+public final class CompilationContext {
+
+    public final String inputFilename;
+    public final PrintStream out;
+    public final ErrorReporter reporter;
+    public final StdEnvironment env;
+    public final NameTable names;
+    public final JVM code;
+
+    // Options
+
+    public int drawingAST = 0;
+    public boolean printingAST = false;
+    public boolean unparsingAST = false;
+    public boolean tableDrivenScanner = false;
+    public String astFilename = "";
+    public String unparsingFilename = "";
+
+    // The Emitter writes the .class file if writingClassFile is true and
+    // the .j file, for debugging, if writingJasminFile is true; either
+    // way the class is left in code.
+
+    public boolean writingClassFile = true;
+    public boolean writingJasminFile = false;
+
+    // The Emitter compiles the functions other than main into static
+    // methods, called with invokestatic, if staticMethods is true, and
+    // into instance methods of a vc$ object created by main otherwise.
+
+    public boolean staticMethods = false;
+
+    // The generated code is optimised if optimising is true (see
+    // VC.Optimiser.ConstantFolder and VC.CodeGen.Peephole).
+
+    public boolean optimising = false;
+
+    // The Emitter compiles each function through its SSA form (see
+    // VC.IR) if usingIR is true, unless the function uses arrays, which
+    // VC.IR does not represent.
+
+    public boolean usingIR = false;
+
+    // With -ir -O, the loops are optimised too (see
+    // VC.IR.LoopInvariantCodeMotion and VC.IR.StrengthReduction) unless
+    // optimisingLoops is false, as it is for measuring them.
+
+    public boolean optimisingLoops = true;
+
+    // With -ir -O, the calls to functions of at most inlineSize
+    // instructions of VC.IR are inlined (see VC.IR.Inliner), as long as
+    // the function calling them stays within inlineBudget instructions;
+    // an inlineSize of 0 inlines nothing.
+
+    public int inlineSize = 20;
+    public int inlineBudget = 1000;
+
+    // The Emitter prints the nodes it visits, and the Frames the pushes
+    // and pops of the operand stack, to out if tracing is true, as vc
+    // does for a single file on the command line.
+
+    public boolean tracing = false;
+
+    // Relative filenames are taken relative to directory, or to the
+    // current directory if it is null. The .class and .j files are
+    // written into outputDirectory if it is not null, and next to the
+    // source file otherwise.
+
+    public File directory = null;
+    public String outputDirectory = null;
+
+    public CompilationContext(String inputFilename) {
+        this(inputFilename, System.out);
+    }
+
+    public CompilationContext(String inputFilename, PrintStream out) {
+        this.inputFilename = inputFilename;
+        this.out = out;
+        reporter = new ErrorReporter(out);
+        env = new StdEnvironment();
+        names = new NameTable();
+        code = new JVM();
+    }
+
+    // Returns a new context for compiling inputFilename with the same
+    // options as this one, except that the AST is printed and unparsed
+    // into the default files
+
+    public CompilationContext forFile(String inputFilename, PrintStream out) {
+        CompilationContext context = new CompilationContext(inputFilename, out);
+        context.drawingAST = drawingAST;
+        context.printingAST = printingAST;
+        context.unparsingAST = unparsingAST;
+        context.tableDrivenScanner = tableDrivenScanner;
+        context.writingClassFile = writingClassFile;
+        context.writingJasminFile = writingJasminFile;
+        context.staticMethods = staticMethods;
+        context.optimising = optimising;
+        context.usingIR = usingIR;
+        context.optimisingLoops = optimisingLoops;
+        context.inlineSize = inlineSize;
+        context.inlineBudget = inlineBudget;
+        context.tracing = tracing;
+        context.directory = directory;
+        context.outputDirectory = outputDirectory;
+        return context;
+    }
+
+    // Returns the file called filename in this compilation
+
+    public File file(String filename) {
+        return resolve(directory, filename);
+    }
+
+    public static File resolve(File directory, String filename) {
+        File file = new File(filename);
+        if (directory == null || file.isAbsolute())
+            return file;
+        return new File(directory, filename);
+    }
+
+}
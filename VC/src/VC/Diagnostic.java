@@ -0,0 +1,43 @@
+/*
+ * Diagnostic.java
+ *
+ * One error or restriction reported during a compilation, as collected
+ * by the ErrorReporter. toString gives the message in the form it is
+ * printed in.
+ */
+
+package VC;
+
+import VC.Scanner.SourcePosition;
+
+public final class Diagnostic {
+
+  public static final int ERROR = 0;
+  public static final int RESTRICTION = 1;
+
+  public final int kind;
+  public final String message;
+  // null for a restriction, and for an error found outside the
+  // program, e.g. by Jasmin
+  public final SourcePosition position;
+
+  public Diagnostic(int kind, String message, SourcePosition position) {
+    this.kind = kind;
+    this.message = message;
+    this.position = position;
+  }
+
+  public boolean isError() {
+    return kind == ERROR;
+  }
+
+  public String toString() {
+    if (kind == RESTRICTION)
+      return "RESTRICTION: " + message;
+    if (position == null)
+      return "ERROR: " + message;
+    return "ERROR: " + position.lineStart + "(" + position.charStart + ").." +
+           position.lineFinish + "(" + position.charFinish + "): " + message;
+  }
+
+}
@@ -1,35 +1,50 @@
 /*
- * ErrorReporter.java     
+ * ErrorReporter.java
  */
 
 package VC;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+
 import VC.Scanner.SourcePosition;
 
 public class ErrorReporter {
 
   public int numErrors;
+  private PrintStream out;
+
+  // every error and restriction reported, in the order reported
+  public final ArrayList<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
 
   public ErrorReporter() {
+    this(System.out);
+  }
+
+  // Reports the errors to out rather than to System.out
+
+  public ErrorReporter(PrintStream out) {
+    this.out = out;
     numErrors = 0;
   }
 
   public void reportError(String message, String tokenName, SourcePosition pos) {
-    System.out.print ("ERROR: ");
-    System.out.print(pos.lineStart + "(" + pos.charStart + ").." +
-                     pos.lineFinish+ "(" + pos.charFinish + "): ");
-
+    StringBuilder text = new StringBuilder();
     for (int p = 0; p < message.length(); p++)
     if (message.charAt(p) == '%')
-      System.out.print(tokenName);
+      text.append(tokenName);
     else
-      System.out.print(message.charAt(p));
+      text.append(message.charAt(p));
 
-    System.out.println();
+    Diagnostic error = new Diagnostic(Diagnostic.ERROR, text.toString(), pos);
+    diagnostics.add(error);
+    out.println(error);
     numErrors++;
   }
 
   public void reportRestriction(String message) {
-    System.out.println("RESTRICTION: " + message);
+    Diagnostic restriction = new Diagnostic(Diagnostic.RESTRICTION, message, null);
+    diagnostics.add(restriction);
+    out.println(restriction);
   }
 }
@@ -0,0 +1,19 @@
+/*
+ * FatalError.java
+ *
+ * Thrown when a compilation cannot go on, after the reason has been
+ * printed. vc stops with exit status 1 on a FatalError when it compiles
+ * one file, and counts the file as failed when it compiles many.
+ */
+
+package VC;
+
+public class FatalError extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public FatalError(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Block.java
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+
+// A basic block: a sequence of instructions entered only at the first
+// and left only at the last, its terminator. Its phis come first, with
+// an operand for each of its predecessors, in the order of preds.
+
+public final class Block {
+
+    public int id;
+    public ArrayList<Instr> instrs = new ArrayList<Instr>();
+    public ArrayList<Block> preds = new ArrayList<Block>();
+    public ArrayList<Block> succs = new ArrayList<Block>();
+
+    // The dominator tree, as computed by Dominators.compute: the
+    // immediate dominator (null for the entry), the blocks this one
+    // immediately dominates, and the number of the block in reverse
+    // postorder (-1 if it cannot be reached from the entry)
+
+    public Block idom;
+    public ArrayList<Block> children = new ArrayList<Block>();
+    public int order;
+
+    Block(int id) {
+        this.id = id;
+    }
+
+    public void add(Instr inst) {
+        inst.block = this;
+        instrs.add(inst);
+    }
+
+    public void add(int k, Instr inst) {
+        inst.block = this;
+        instrs.add(k, inst);
+    }
+
+    public void addPhi(Instr phi) {
+        phi.block = this;
+        instrs.add(phis(), phi);
+    }
+
+    // Returns the number of phis, which are instrs[0 .. phis() - 1]
+
+    public int phis() {
+        int n = 0;
+        while (n < instrs.size() && instrs.get(n).op == Instr.PHI)
+            n++;
+        return n;
+    }
+
+    public Instr terminator() {
+        if (instrs.isEmpty())
+            return null;
+        Instr last = instrs.get(instrs.size() - 1);
+        return last.isTerminator() ? last : null;
+    }
+
+    public boolean dominates(Block b) {
+        while (b != null && b != this)
+            b = b.idom;
+        return b == this;
+    }
+
+    public String toString() {
+        return "B" + id;
+    }
+
+}
@@ -0,0 +1,730 @@
+/*
+ * Builder.java
+ *
+ * Builds the control-flow graph of a checked VC function in SSA form
+ * (see Function). The SSA form is built as the function is walked, as
+ * in Braun et al., "Simple and Efficient Construction of Static Single
+ * Assignment Form" (CC 2013): each block records the value each local
+ * variable has at its end, and reading a variable in a block that does
+ * not assign it looks for the value in its predecessors, creating a
+ * phi where they meet. A block is sealed once all its predecessors are
+ * known; until then, a read in it creates an incomplete phi, whose
+ * operands are filled in when it is sealed.
+ *
+ * The phis it creates may be trivial, e.g. phi(%1, %1); CopyPropagation
+ * removes them. The global variables are read and written by getglobal
+ * and putglobal, since a call may change them.
+ *
+ * The blocks are laid out as the Emitter lays out its code, with the
+ * test of a loop after its body. Blocks that cannot be reached, e.g.
+ * after a return, are left out, with the statements in them.
+ *
+ * Arrays are not supported; build returns null for a function that
+ * uses one, which the Emitter then generates from its AST.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Stack;
+
+import VC.ASTs.*;
+import VC.CodeGen.MemberRef;
+import VC.Scanner.NameTable;
+
+public final class Builder implements Visitor {
+
+    private String classname;
+    private boolean staticMethods;
+
+    private Function f;
+    private boolean supported;
+
+    // the block being built, or null if the code being built cannot be
+    // reached
+    private Block current;
+
+    private Stack<Block> breakTargets = new Stack<Block>();
+    private Stack<Block> continueTargets = new Stack<Block>();
+
+    // the value of each variable at the end of each block, as far as it
+    // has been built
+    private HashMap<Block, HashMap<Decl, Instr>> defs = new HashMap<Block, HashMap<Decl, Instr>>();
+    private HashSet<Block> sealed = new HashSet<Block>();
+    private HashMap<Block, LinkedHashMap<Decl, Instr>> incompletePhis =
+        new HashMap<Block, LinkedHashMap<Decl, Instr>>();
+
+    public Builder(String classname, boolean staticMethods) {
+        this.classname = classname;
+        this.staticMethods = staticMethods;
+    }
+
+    // Returns the Function for ast, or null if it uses arrays
+
+    public Function build(FuncDecl ast) {
+        f = new Function(ast, ast.I.nameId == NameTable.MAIN, typeOf(ast.T));
+        supported = true;
+
+        Block entry = f.newBlock();
+        f.place(entry);
+        seal(entry);
+        current = entry;
+        ast.PL.visit(this, null);
+        ast.S.visit(this, null);
+
+        // falling off the end of the function returns 0 if it returns a
+        // value; the Emitter leaves a nop there, which does not verify
+        if (current != null) {
+            Instr ret = f.newInstr(Instr.RETURN, Instr.VOID);
+            if (!f.isMain && f.returnType != Instr.VOID)
+                ret.args.add(f.zero(f.returnType));
+            current.add(ret);
+            current = null;
+        }
+        return supported ? f : null;
+    }
+
+    // The variables
+
+    private HashMap<Decl, Instr> defs(Block b) {
+        HashMap<Decl, Instr> map = defs.get(b);
+        if (map == null) {
+            map = new HashMap<Decl, Instr>();
+            defs.put(b, map);
+        }
+        return map;
+    }
+
+    private void write(Decl var, Block b, Instr value) {
+        defs(b).put(var, value);
+    }
+
+    private Instr read(Decl var, Block b) {
+        Instr value = defs(b).get(var);
+        if (value != null)
+            return value;
+        if (!sealed.contains(b)) {
+            value = newPhi(var, b);
+            LinkedHashMap<Decl, Instr> phis = incompletePhis.get(b);
+            if (phis == null) {
+                phis = new LinkedHashMap<Decl, Instr>();
+                incompletePhis.put(b, phis);
+            }
+            phis.put(var, value);
+        } else if (b.preds.size() == 1) {
+            value = read(var, b.preds.get(0));
+        } else if (b.preds.isEmpty()) {
+            // the variable is read before it is given a value
+            value = f.zero(typeOf(var.T));
+        } else {
+            // the phi breaks the cycles through loops
+            value = newPhi(var, b);
+            write(var, b, value);
+            addPhiOperands(var, value);
+        }
+        write(var, b, value);
+        return value;
+    }
+
+    private Instr newPhi(Decl var, Block b) {
+        Instr phi = f.newInstr(Instr.PHI, typeOf(var.T));
+        b.addPhi(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(Decl var, Instr phi) {
+        for (Block pred : phi.block.preds)
+            phi.args.add(read(var, pred));
+    }
+
+    // Records that all the predecessors of b are known
+
+    private void seal(Block b) {
+        sealed.add(b);
+        LinkedHashMap<Decl, Instr> phis = incompletePhis.remove(b);
+        if (phis != null)
+            for (Decl var : phis.keySet())
+                addPhiOperands(var, phis.get(var));
+    }
+
+    // The blocks
+
+    // Makes b the current block, laying it out, unless nothing leads to
+    // it
+
+    private void start(Block b) {
+        if (b.preds.isEmpty()) {
+            current = null;
+            return;
+        }
+        f.place(b);
+        current = b;
+    }
+
+    private void jump(Block to) {
+        if (current == null)
+            return;
+        current.add(f.newInstr(Instr.JUMP, Instr.VOID));
+        Function.addEdge(current, to);
+        current = null;
+    }
+
+    private void branch(Instr condition, Block ifTrue, Block ifFalse) {
+        Instr inst = f.newInstr(Instr.BRANCH, Instr.VOID);
+        inst.args.add(condition);
+        current.add(inst);
+        Function.addEdge(current, ifTrue);
+        Function.addEdge(current, ifFalse);
+        current = null;
+    }
+
+    // Removes the blocks laid out from mark on, to be laid out again
+    // later (see visitWhileStmt)
+
+    private ArrayList<Block> cut(int mark) {
+        ArrayList<Block> blocks = new ArrayList<Block>(f.blocks.subList(mark, f.blocks.size()));
+        f.blocks.subList(mark, f.blocks.size()).clear();
+        return blocks;
+    }
+
+    // Builds a jump to ifTrue if ast is true and to ifFalse otherwise;
+    // && || and ! become branches, as in Emitter.emitCondJump
+
+    private void cond(Expr ast, Block ifTrue, Block ifFalse) {
+        if (current == null)
+            return;
+        if (ast.isEmptyExpr()) {
+            jump(ifTrue);
+            return;
+        }
+        if (ast instanceof BooleanExpr) {
+            jump(((BooleanExpr) ast).BL.spelling.equals("true") ? ifTrue : ifFalse);
+            return;
+        }
+        if (ast instanceof UnaryExpr && ((UnaryExpr) ast).O.spelling.equals("i!")) {
+            cond(((UnaryExpr) ast).E, ifFalse, ifTrue);
+            return;
+        }
+        if (ast instanceof BinaryExpr) {
+            BinaryExpr e = (BinaryExpr) ast;
+            if (e.O.spelling.equals("i&&") || e.O.spelling.equals("i||")) {
+                Block next = f.newBlock();
+                if (e.O.spelling.equals("i&&"))
+                    cond(e.E1, next, ifFalse);
+                else
+                    cond(e.E1, ifTrue, next);
+                start(next);
+                seal(next);
+                cond(e.E2, ifTrue, ifFalse);
+                return;
+            }
+        }
+        branch(value(ast), ifTrue, ifFalse);
+    }
+
+    private Instr value(Expr ast) {
+        return (Instr) ast.visit(this, null);
+    }
+
+    private Instr add(int op, int type, Instr... args) {
+        Instr inst = f.newInstr(op, type);
+        for (Instr arg : args)
+            inst.args.add(arg);
+        current.add(inst);
+        return inst;
+    }
+
+    // Programs
+
+    public Object visitProgram(Program ast, Object o) {
+        return null;
+    }
+
+    // Lists for denoting the null reference
+
+    public Object visitEmptyDeclList(EmptyDeclList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyStmtList(EmptyStmtList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyExprList(EmptyExprList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyParaList(EmptyParaList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyArgList(EmptyArgList ast, Object o) {
+        return null;
+    }
+
+    // Declarations
+
+    public Object visitDeclList(DeclList ast, Object o) {
+        List list = ast;
+        while (list instanceof DeclList) {
+            DeclList cell = (DeclList) list;
+            cell.D.visit(this, o);
+            list = cell.DL;
+        }
+        return null;
+    }
+
+    public Object visitFuncDecl(FuncDecl ast, Object o) {
+        return null;
+    }
+
+    public Object visitGlobalVarDecl(GlobalVarDecl ast, Object o) {
+        return null;
+    }
+
+    public Object visitLocalVarDecl(LocalVarDecl ast, Object o) {
+        if (ast.T.isArrayType()) {
+            supported = false;
+            return null;
+        }
+        if (current != null && !ast.E.isEmptyExpr())
+            write(ast, current, value(ast.E));
+        return null;
+    }
+
+    // Stmts
+
+    public Object visitStmtList(StmtList ast, Object o) {
+        List list = ast;
+        while (list instanceof StmtList && current != null) {
+            StmtList cell = (StmtList) list;
+            cell.S.visit(this, o);
+            list = cell.SL;
+        }
+        return null;
+    }
+
+    public Object visitIfStmt(IfStmt ast, Object o) {
+        if (current == null)
+            return null;
+        Block thenBlock = f.newBlock();
+        Block elseBlock = f.newBlock();
+        Block join = f.newBlock();
+
+        cond(ast.E, thenBlock, elseBlock);
+        start(thenBlock);
+        seal(thenBlock);
+        ast.S1.visit(this, o);
+        jump(join);
+        start(elseBlock);
+        seal(elseBlock);
+        ast.S2.visit(this, o);
+        jump(join);
+        start(join);
+        seal(join);
+        return null;
+    }
+
+    // The test of a loop is built before its body, since the body is
+    // built in the scope of its test, but laid out after it. The loop
+    // header (where the test starts) is sealed once the body has added
+    // all the edges back to it.
+
+    public Object visitWhileStmt(WhileStmt ast, Object o) {
+        if (current == null)
+            return null;
+        Block header = f.newBlock();
+        Block body = f.newBlock();
+        Block exit = f.newBlock();
+
+        jump(header);
+        int mark = f.blocks.size();
+        start(header);
+        cond(ast.E, body, exit);
+        ArrayList<Block> test = cut(mark);
+
+        start(body);
+        seal(body);
+        breakTargets.push(exit);
+        continueTargets.push(header);
+        ast.S.visit(this, o);
+        continueTargets.pop();
+        breakTargets.pop();
+        jump(header);
+
+        f.blocks.addAll(test);
+        seal(header);
+        start(exit);
+        seal(exit);
+        return null;
+    }
+
+    public Object visitForStmt(ForStmt ast, Object o) {
+        if (current == null)
+            return null;
+        Block header = f.newBlock();
+        Block body = f.newBlock();
+        Block step = f.newBlock();
+        Block exit = f.newBlock();
+
+        if (!ast.E1.isEmptyExpr())
+            value(ast.E1);
+        jump(header);
+        int mark = f.blocks.size();
+        start(header);
+        cond(ast.E2, body, exit);
+        ArrayList<Block> test = cut(mark);
+
+        start(body);
+        seal(body);
+        breakTargets.push(exit);
+        continueTargets.push(step);
+        ast.S.visit(this, o);
+        continueTargets.pop();
+        breakTargets.pop();
+        jump(step);
+
+        start(step);
+        seal(step);
+        if (current != null && !ast.E3.isEmptyExpr())
+            value(ast.E3);
+        jump(header);
+
+        f.blocks.addAll(test);
+        seal(header);
+        start(exit);
+        seal(exit);
+        return null;
+    }
+
+    public Object visitBreakStmt(BreakStmt ast, Object o) {
+        jump(breakTargets.peek());
+        return null;
+    }
+
+    public Object visitContinueStmt(ContinueStmt ast, Object o) {
+        jump(continueTargets.peek());
+        return null;
+    }
+
+    public Object visitReturnStmt(ReturnStmt ast, Object o) {
+        if (current == null)
+            return null;
+        Instr ret = f.newInstr(Instr.RETURN, Instr.VOID);
+        if (!ast.E.isEmptyExpr()) {
+            // main returns nothing, but its return value is still
+            // evaluated
+            Instr value = value(ast.E);
+            if (!f.isMain)
+                ret.args.add(value);
+        }
+        current.add(ret);
+        current = null;
+        return null;
+    }
+
+    public Object visitCompoundStmt(CompoundStmt ast, Object o) {
+        ast.DL.visit(this, o);
+        ast.SL.visit(this, o);
+        return null;
+    }
+
+    public Object visitExprStmt(ExprStmt ast, Object o) {
+        if (current != null && !ast.E.isEmptyExpr())
+            value(ast.E);
+        return null;
+    }
+
+    public Object visitEmptyCompStmt(EmptyCompStmt ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyStmt(EmptyStmt ast, Object o) {
+        return null;
+    }
+
+    // Expressions
+    //
+    // Each builds the code for ast into the current block and returns
+    // the instruction giving its value
+
+    public Object visitIntExpr(IntExpr ast, Object o) {
+        return f.newConst(Instr.INT, Integer.valueOf(ast.IL.spelling));
+    }
+
+    public Object visitFloatExpr(FloatExpr ast, Object o) {
+        return f.newConst(Instr.FLOAT, Float.valueOf(ast.FL.spelling));
+    }
+
+    public Object visitBooleanExpr(BooleanExpr ast, Object o) {
+        return f.newConst(Instr.BOOLEAN, Boolean.valueOf(ast.BL.spelling.equals("true")));
+    }
+
+    public Object visitStringExpr(StringExpr ast, Object o) {
+        return f.newConst(Instr.STRING, ast.SL.spelling);
+    }
+
+    public Object visitUnaryExpr(UnaryExpr ast, Object o) {
+        String op = ast.O.spelling;
+        Instr e = value(ast.E);
+        if (op.equals("i!"))
+            return add(Instr.NOT, Instr.BOOLEAN, e);
+        else if (op.equals("i-"))
+            return add(Instr.NEG, Instr.INT, e);
+        else if (op.equals("f-"))
+            return add(Instr.NEG, Instr.FLOAT, e);
+        else if (op.equals("i2f"))
+            return add(Instr.I2F, Instr.FLOAT, e);
+        return e;   // i+ and f+
+    }
+
+    public Object visitBinaryExpr(BinaryExpr ast, Object o) {
+        String op = ast.O.spelling;
+        if (op.equals("i&&") || op.equals("i||")) {
+            // the value is true or false as control reaches it
+            Block ifTrue = f.newBlock();
+            Block ifFalse = f.newBlock();
+            Block join = f.newBlock();
+            cond(ast, ifTrue, ifFalse);
+            start(ifTrue);
+            seal(ifTrue);
+            jump(join);
+            start(ifFalse);
+            seal(ifFalse);
+            jump(join);
+            start(join);
+            seal(join);
+            Instr phi = f.newInstr(Instr.PHI, Instr.BOOLEAN);
+            for (Block pred : join.preds)
+                phi.args.add(f.newConst(Instr.BOOLEAN, Boolean.valueOf(pred == ifTrue)));
+            join.addPhi(phi);
+            return phi;
+        }
+
+        Instr e1 = value(ast.E1);
+        Instr e2 = value(ast.E2);
+        int type = op.charAt(0) == 'f' ? Instr.FLOAT : Instr.INT;
+        String realOp = op.substring(1);
+        if (realOp.equals("+"))
+            return add(Instr.ADD, type, e1, e2);
+        else if (realOp.equals("-"))
+            return add(Instr.SUB, type, e1, e2);
+        else if (realOp.equals("*"))
+            return add(Instr.MUL, type, e1, e2);
+        else if (realOp.equals("/"))
+            return add(Instr.DIV, type, e1, e2);
+        else if (realOp.equals("=="))
+            return add(Instr.EQ, Instr.BOOLEAN, e1, e2);
+        else if (realOp.equals("!="))
+            return add(Instr.NE, Instr.BOOLEAN, e1, e2);
+        else if (realOp.equals("<"))
+            return add(Instr.LT, Instr.BOOLEAN, e1, e2);
+        else if (realOp.equals("<="))
+            return add(Instr.LE, Instr.BOOLEAN, e1, e2);
+        else if (realOp.equals(">"))
+            return add(Instr.GT, Instr.BOOLEAN, e1, e2);
+        else // if (realOp.equals(">="))
+            return add(Instr.GE, Instr.BOOLEAN, e1, e2);
+    }
+
+    public Object visitInitExpr(InitExpr ast, Object o) {
+        supported = false;
+        return f.zero(Instr.INT);
+    }
+
+    public Object visitExprList(ExprList ast, Object o) {
+        return null;
+    }
+
+    public Object visitArrayExpr(ArrayExpr ast, Object o) {
+        supported = false;
+        return f.zero(Instr.INT);
+    }
+
+    public Object visitVarExpr(VarExpr ast, Object o) {
+        Decl decl = (Decl) ((SimpleVar) ast.V).I.decl;
+        if (decl.T.isArrayType()) {
+            supported = false;
+            return f.zero(Instr.INT);
+        }
+        if (decl instanceof GlobalVarDecl) {
+            Instr inst = add(Instr.GETGLOBAL, typeOf(decl.T));
+            inst.member = new MemberRef(classname, decl.I.spelling, descriptor(decl.T));
+            return inst;
+        }
+        return read(decl, current);
+    }
+
+    public Object visitCallExpr(CallExpr ast, Object o) {
+        FuncDecl decl = (FuncDecl) ast.I.decl;
+        StringBuilder desc = new StringBuilder("(");
+        List list = decl.PL;
+        while (list instanceof ParaList) {
+            desc.append(descriptor(((ParaList) list).P.T));
+            list = ((ParaList) list).PL;
+        }
+        desc.append(")").append(descriptor(decl.T));
+
+        Instr call = f.newInstr(Instr.CALL, typeOf(decl.T));
+        list = ast.AL;
+        while (list instanceof ArgList) {
+            call.args.add(value(((ArgList) list).A.E));
+            list = ((ArgList) list).AL;
+        }
+        if (ast.I.nameId >= NameTable.GETINT && ast.I.nameId <= NameTable.PUTLN) {
+            call.member = new MemberRef("VC/lang/System", ast.I.spelling, desc.toString());
+        } else {
+            call.member = new MemberRef(classname, ast.I.spelling, desc.toString());
+            call.virtual = !staticMethods;
+            call.callee = decl;
+        }
+        current.add(call);
+        return call;
+    }
+
+    public Object visitAssignExpr(AssignExpr ast, Object o) {
+        if (!(ast.E1 instanceof VarExpr)) {
+            supported = false;
+            return f.zero(Instr.INT);
+        }
+        Decl decl = (Decl) ((SimpleVar) ((VarExpr) ast.E1).V).I.decl;
+        Instr value = value(ast.E2);
+        if (decl instanceof GlobalVarDecl) {
+            Instr inst = add(Instr.PUTGLOBAL, Instr.VOID, value);
+            inst.member = new MemberRef(classname, decl.I.spelling, descriptor(decl.T));
+        } else
+            write(decl, current, value);
+        return value;
+    }
+
+    public Object visitEmptyExpr(EmptyExpr ast, Object o) {
+        return null;
+    }
+
+    // Literals and identifiers
+
+    public Object visitIntLiteral(IntLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatLiteral(FloatLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanLiteral(BooleanLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringLiteral(StringLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitIdent(Ident ast, Object o) {
+        return null;
+    }
+
+    public Object visitOperator(Operator ast, Object o) {
+        return null;
+    }
+
+    // Parameters
+
+    public Object visitParaList(ParaList ast, Object o) {
+        List list = ast;
+        while (list instanceof ParaList) {
+            ((ParaList) list).P.visit(this, o);
+            list = ((ParaList) list).PL;
+        }
+        return null;
+    }
+
+    public Object visitParaDecl(ParaDecl ast, Object o) {
+        if (ast.T.isArrayType()) {
+            supported = false;
+            return null;
+        }
+        Instr param = f.newInstr(Instr.PARAM, typeOf(ast.T));
+        param.index = f.params.size();
+        f.params.add(param);
+        write(ast, current, param);
+        return null;
+    }
+
+    // Arguments
+
+    public Object visitArgList(ArgList ast, Object o) {
+        return null;
+    }
+
+    public Object visitArg(Arg ast, Object o) {
+        return null;
+    }
+
+    // Types
+
+    public Object visitVoidType(VoidType ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanType(BooleanType ast, Object o) {
+        return null;
+    }
+
+    public Object visitIntType(IntType ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatType(FloatType ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringType(StringType ast, Object o) {
+        return null;
+    }
+
+    public Object visitArrayType(ArrayType ast, Object o) {
+        return null;
+    }
+
+    public Object visitErrorType(ErrorType ast, Object o) {
+        return null;
+    }
+
+    // Variables
+
+    public Object visitSimpleVar(SimpleVar ast, Object o) {
+        return null;
+    }
+
+    // The types
+
+    private static int typeOf(Type t) {
+        if (t.isIntType())
+            return Instr.INT;
+        else if (t.isFloatType())
+            return Instr.FLOAT;
+        else if (t.isBooleanType())
+            return Instr.BOOLEAN;
+        else if (t.isStringType())
+            return Instr.STRING;
+        else
+            return Instr.VOID;
+    }
+
+    private static String descriptor(Type t) {
+        if (t.isIntType())
+            return "I";
+        else if (t.isFloatType())
+            return "F";
+        else if (t.isBooleanType())
+            return "Z";
+        else if (t.isStringType())
+            return "Ljava/lang/String;";
+        else
+            return "V";
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * CopyPropagation.java
+ *
+ * Replaces each use of a copy by what it copies. The Builder makes no
+ * copy instructions, since an assignment x = y simply makes y the value
+ * of x; what is left are the phis whose operands are all the same value
+ * v (or the phi itself), e.g. %5 = phi %3 %5 for a variable not
+ * assigned in a loop. Such a phi is a copy of v.
+ */
+
+package VC.IR;
+
+import java.util.HashMap;
+
+public final class CopyPropagation extends Pass {
+
+    public CopyPropagation() {
+        super("copy propagation");
+    }
+
+    public boolean run(Function f) {
+        HashMap<Instr, Instr> copies = new HashMap<Instr, Instr>();
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (Block b : f.blocks)
+                for (int k = b.phis() - 1; k >= 0; k--) {
+                    Instr phi = b.instrs.get(k);
+                    Instr value = copied(f, phi, copies);
+                    if (value != null) {
+                        copies.put(phi, value);
+                        b.instrs.remove(k);
+                        found = true;
+                    }
+                }
+        }
+        f.replace(copies);
+        return !copies.isEmpty();
+    }
+
+    // Returns the value phi copies, taking account of the copies found
+    // so far, or null if it is not a copy
+
+    private static Instr copied(Function f, Instr phi, HashMap<Instr, Instr> copies) {
+        Instr value = null;
+        for (Instr arg : phi.args) {
+            while (copies.containsKey(arg))
+                arg = copies.get(arg);
+            if (arg == phi || arg == value)
+                continue;
+            if (value != null && !sameConstant(arg, value))
+                return null;
+            value = arg;
+        }
+        // a phi that only copies itself is never given a value
+        return value == null ? f.zero(phi.type) : value;
+    }
+
+    private static boolean sameConstant(Instr a, Instr b) {
+        return a.op == Instr.CONST && b.op == Instr.CONST
+            && a.type == b.type && a.constant.equals(b.constant);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * DeadCodeElimination.java
+ *
+ * Removes the code of a Function that is never executed or whose value
+ * is never used:
+ *
+ *   a branch on a constant becomes a jump to the block it would take.
+ *
+ *   the blocks that cannot be reached from the entry are removed, and
+ *   so are the operands they give the phis of their successors.
+ *
+ *   an instruction without side effects (see Instr.hasSideEffects)
+ *   whose value is not used, directly or through other instructions,
+ *   by one that has them is removed.
+ *
+ *   a jump to a block that nothing else jumps to is removed, and the
+ *   two blocks become one, so more of the code is in one block for the
+ *   Lowering to put together.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Stack;
+
+public final class DeadCodeElimination extends Pass {
+
+    public DeadCodeElimination() {
+        super("dead code elimination");
+    }
+
+    public boolean run(Function f) {
+        boolean changed = foldBranches(f);
+        changed |= removeUnreachable(f);
+        changed |= removeUnused(f);
+        changed |= mergeBlocks(f);
+        return changed;
+    }
+
+    private static boolean foldBranches(Function f) {
+        boolean changed = false;
+        for (Block b : f.blocks) {
+            Instr last = b.terminator();
+            if (last == null || last.op != Instr.BRANCH || last.args.get(0).op != Instr.CONST)
+                continue;
+            boolean value = (Boolean) last.args.get(0).constant;
+            Block untaken = b.succs.get(value ? 1 : 0);
+            removeEdge(b, untaken);
+            last.op = Instr.JUMP;
+            last.args.clear();
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static boolean removeUnreachable(Function f) {
+        Dominators.compute(f);
+        ArrayList<Block> unreachable = new ArrayList<Block>();
+        for (Block b : f.blocks)
+            if (b.order < 0)
+                unreachable.add(b);
+        for (Block b : unreachable) {
+            while (!b.succs.isEmpty())
+                removeEdge(b, b.succs.get(0));
+            f.blocks.remove(b);
+        }
+        return !unreachable.isEmpty();
+    }
+
+    // Removes the edge from pred to succ, and the operands of the phis
+    // of succ for it
+
+    private static void removeEdge(Block pred, Block succ) {
+        int k = succ.preds.indexOf(pred);
+        succ.preds.remove(k);
+        pred.succs.remove(succ);
+        for (int p = 0; p < succ.phis(); p++)
+            succ.instrs.get(p).args.remove(k);
+    }
+
+    // Appends each block without phis to its only predecessor if it is
+    // that block's only successor
+
+    private static boolean mergeBlocks(Function f) {
+        boolean changed = false;
+        for (int k = f.blocks.size() - 1; k >= 1; k--) {
+            Block b = f.blocks.get(k);
+            if (b.preds.size() != 1 || b.phis() > 0)
+                continue;
+            Block pred = b.preds.get(0);
+            if (pred == b || pred.succs.size() != 1)
+                continue;
+            pred.instrs.remove(pred.instrs.size() - 1);
+            for (Instr inst : b.instrs)
+                pred.add(inst);
+            pred.succs.clear();
+            for (Block succ : b.succs) {
+                pred.succs.add(succ);
+                succ.preds.set(succ.preds.indexOf(b), pred);
+            }
+            f.blocks.remove(k);
+            changed = true;
+        }
+        return changed;
+    }
+
+    // Marks the instructions with side effects as live, and the
+    // operands of live instructions, then removes the rest; so a cycle
+    // of phis and instructions that only use each other is removed too
+
+    private static boolean removeUnused(Function f) {
+        HashSet<Instr> live = new HashSet<Instr>();
+        Stack<Instr> work = new Stack<Instr>();
+        for (Block b : f.blocks)
+            for (Instr inst : b.instrs)
+                if (inst.hasSideEffects()) {
+                    live.add(inst);
+                    work.push(inst);
+                }
+        while (!work.isEmpty())
+            for (Instr arg : work.pop().args)
+                if (live.add(arg))
+                    work.push(arg);
+
+        boolean changed = false;
+        for (Block b : f.blocks)
+            for (int k = b.instrs.size() - 1; k >= 0; k--)
+                if (!live.contains(b.instrs.get(k))) {
+                    b.instrs.remove(k);
+                    changed = true;
+                }
+        return changed;
+    }
+
+}
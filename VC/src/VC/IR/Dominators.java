@@ -0,0 +1,100 @@
+/*
+ * Dominators.java
+ *
+ * Computes the dominator tree of a Function: block a dominates block b
+ * if every path from the entry to b passes through a. It uses the
+ * iterative algorithm of Cooper, Harvey and Kennedy, "A Simple, Fast
+ * Dominance Algorithm" (2001), over the blocks in reverse postorder.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Stack;
+
+public final class Dominators {
+
+    // Sets the idom, children and order of the blocks of f, and returns
+    // the blocks that can be reached from the entry in reverse postorder
+
+    public static ArrayList<Block> compute(Function f) {
+        for (Block b : f.blocks) {
+            b.idom = null;
+            b.children.clear();
+            b.order = -1;
+        }
+        ArrayList<Block> rpo = reversePostorder(f.entry());
+        for (int k = 0; k < rpo.size(); k++)
+            rpo.get(k).order = k;
+
+        Block entry = f.entry();
+        entry.idom = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block b : rpo) {
+                if (b == entry)
+                    continue;
+                Block idom = null;
+                for (Block pred : b.preds) {
+                    if (pred.idom == null)
+                        continue;   // not processed yet, or unreachable
+                    idom = idom == null ? pred : intersect(pred, idom);
+                }
+                if (b.idom != idom) {
+                    b.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+        entry.idom = null;
+
+        for (Block b : rpo)
+            if (b.idom != null)
+                b.idom.children.add(b);
+        return rpo;
+    }
+
+    private static Block intersect(Block a, Block b) {
+        while (a != b) {
+            while (a.order > b.order)
+                a = a.idom;
+            while (b.order > a.order)
+                b = b.idom;
+        }
+        return a;
+    }
+
+    public static ArrayList<Block> reversePostorder(Block entry) {
+        ArrayList<Block> postorder = new ArrayList<Block>();
+        HashSet<Block> visited = new HashSet<Block>();
+        // each entry of the stack is a block and the index of the next
+        // successor of it to visit
+        Stack<Block> blocks = new Stack<Block>();
+        Stack<Integer> next = new Stack<Integer>();
+        visited.add(entry);
+        blocks.push(entry);
+        next.push(0);
+        while (!blocks.isEmpty()) {
+            Block b = blocks.peek();
+            int k = next.pop();
+            if (k < b.succs.size()) {
+                next.push(k + 1);
+                Block succ = b.succs.get(k);
+                if (!visited.contains(succ)) {
+                    visited.add(succ);
+                    blocks.push(succ);
+                    next.push(0);
+                }
+            } else {
+                blocks.pop();
+                postorder.add(b);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+}
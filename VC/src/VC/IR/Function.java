@@ -0,0 +1,142 @@
+/*
+ * Function.java
+ */
+
+package VC.IR;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import VC.ASTs.FuncDecl;
+
+// The control-flow graph of a VC function, as built by the Builder.
+// The blocks are kept in the order the Lowering lays them out, with
+// the entry first.
+
+public final class Function {
+
+    public final FuncDecl decl;
+    public final boolean isMain;
+    public final int returnType;
+
+    public ArrayList<Instr> params = new ArrayList<Instr>();
+    public ArrayList<Block> blocks = new ArrayList<Block>();
+
+    private int nextBlock = 0;
+    private int nextInstr = 0;
+
+    public Function(FuncDecl decl, boolean isMain, int returnType) {
+        this.decl = decl;
+        this.isMain = isMain;
+        this.returnType = returnType;
+    }
+
+    public Block entry() {
+        return blocks.get(0);
+    }
+
+    // Returns a new block, which is not laid out until it is placed
+
+    public Block newBlock() {
+        return new Block(nextBlock++);
+    }
+
+    public void place(Block b) {
+        blocks.add(b);
+    }
+
+    public Instr newInstr(int op, int type) {
+        return new Instr(op, type, nextInstr++);
+    }
+
+    public Instr newConst(int type, Object value) {
+        Instr inst = newInstr(Instr.CONST, type);
+        inst.constant = value;
+        return inst;
+    }
+
+    // Returns the constant 0, 0.0 or false of type
+
+    public Instr zero(int type) {
+        if (type == Instr.FLOAT)
+            return newConst(type, Float.valueOf(0));
+        else if (type == Instr.BOOLEAN)
+            return newConst(type, Boolean.FALSE);
+        else
+            return newConst(Instr.INT, Integer.valueOf(0));
+    }
+
+    public static void addEdge(Block from, Block to) {
+        from.succs.add(to);
+        to.preds.add(from);
+    }
+
+    // Puts a new block on the edge from pred to succ, leaving the
+    // operands of the phis of succ in place, and returns it. It is laid
+    // out just before succ.
+
+    public Block splitEdge(Block pred, Block succ) {
+        Block b = newBlock();
+        pred.succs.set(pred.succs.indexOf(succ), b);
+        succ.preds.set(succ.preds.indexOf(pred), b);
+        b.preds.add(pred);
+        b.succs.add(succ);
+        b.add(newInstr(Instr.JUMP, Instr.VOID));
+        blocks.add(blocks.indexOf(succ), b);
+        return b;
+    }
+
+    // Replaces every use of an instruction in replacements by its
+    // replacement (or the replacement of that, and so on)
+
+    public void replace(HashMap<Instr, Instr> replacements) {
+        if (replacements.isEmpty())
+            return;
+        for (Block b : blocks)
+            for (Instr inst : b.instrs)
+                for (int k = 0; k < inst.args.size(); k++) {
+                    Instr arg = inst.args.get(k);
+                    while (replacements.containsKey(arg))
+                        arg = replacements.get(arg);
+                    inst.args.set(k, arg);
+                }
+    }
+
+    // Returns the number of uses of each instruction that has any
+
+    public HashMap<Instr, Integer> countUses() {
+        HashMap<Instr, Integer> uses = new HashMap<Instr, Integer>();
+        for (Block b : blocks)
+            for (Instr inst : b.instrs)
+                for (Instr arg : inst.args) {
+                    Integer n = uses.get(arg);
+                    uses.put(arg, n == null ? 1 : n + 1);
+                }
+        return uses;
+    }
+
+    public int size() {
+        int n = 0;
+        for (Block b : blocks)
+            n += b.instrs.size();
+        return n;
+    }
+
+    public void write(PrintWriter writer) {
+        writer.print("function " + decl.I.spelling + "(");
+        for (int k = 0; k < params.size(); k++)
+            writer.print((k > 0 ? ", " : "") + params.get(k));
+        writer.println(")");
+        for (Block b : blocks) {
+            writer.print(b + ":");
+            if (!b.preds.isEmpty())
+                writer.print("\t\t; preds " + b.preds);
+            writer.println();
+            for (Instr inst : b.instrs)
+                writer.println("\t" + inst.describe());
+        }
+        writer.flush();
+    }
+
+}
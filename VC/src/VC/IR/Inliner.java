@@ -0,0 +1,197 @@
+/*
+ * Inliner.java
+ *
+ * Replaces the calls of a Function to small VC functions by copies of
+ * their bodies, saving the cost of the call and letting the other
+ * passes optimise the body together with the code around the call.
+ *
+ * A call is inlined if the function called
+ *
+ *   has at most maxSize instructions, once built and optimised on its
+ *   own (without inlining), and is not main;
+ *
+ *   is not already being inlined at the call, which would inline a
+ *   recursive function without end: a call copied in with the body of
+ *   a function g is not inlined if it calls g, or any function whose
+ *   body the call to g was itself copied in with;
+ *
+ *   would not make the Function bigger than budget instructions, so
+ *   the methods generated stay small enough for the JIT to compile.
+ *
+ * The body is copied between the code before the call and the code
+ * after it, which is moved into a new block: the parameters become the
+ * arguments, and each return becomes a jump to the new block, where a
+ * phi of the values returned replaces the value of the call. The
+ * locals of the body become values of the Function, so the Lowering
+ * gives them local variables in its frame like its own.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import VC.ASTs.FuncDecl;
+import VC.Scanner.NameTable;
+
+public final class Inliner {
+
+    private String classname;
+    private boolean staticMethods;
+    private int maxSize;
+    private int budget;
+
+    // the body of each function called, built and optimised once for
+    // all its calls, or null if it cannot be built
+    private HashMap<FuncDecl, Function> bodies = new HashMap<FuncDecl, Function>();
+
+    public Inliner(String classname, boolean staticMethods, int maxSize, int budget) {
+        this.classname = classname;
+        this.staticMethods = staticMethods;
+        this.maxSize = maxSize;
+        this.budget = budget;
+    }
+
+    // Inlines the calls of f that can be, and returns how many it has
+
+    public int inline(Function f) {
+        ArrayList<Instr> calls = new ArrayList<Instr>();
+        for (Block b : f.blocks)
+            for (Instr inst : b.instrs)
+                if (inst.op == Instr.CALL && inst.callee != null)
+                    calls.add(inst);
+
+        // the functions whose bodies each call copied in was copied in
+        // with, as far as it has been
+        HashMap<Instr, HashSet<FuncDecl>> inlining = new HashMap<Instr, HashSet<FuncDecl>>();
+        HashSet<FuncDecl> none = new HashSet<FuncDecl>();
+        none.add(f.decl);
+
+        int inlined = 0;
+        for (int k = 0; k < calls.size(); k++) {
+            Instr call = calls.get(k);
+            HashSet<FuncDecl> active = inlining.containsKey(call) ? inlining.get(call) : none;
+            if (active.contains(call.callee))
+                continue;
+            Function body = body(call.callee);
+            if (body == null || body.size() > maxSize || f.size() + body.size() > budget)
+                continue;
+            HashSet<FuncDecl> nested = new HashSet<FuncDecl>(active);
+            nested.add(call.callee);
+            for (Instr copied : expand(f, call, body)) {
+                calls.add(copied);
+                inlining.put(copied, nested);
+            }
+            inlined++;
+        }
+        return inlined;
+    }
+
+    private Function body(FuncDecl decl) {
+        if (bodies.containsKey(decl))
+            return bodies.get(decl);
+        Function body = null;
+        if (decl.I.nameId != NameTable.MAIN) {
+            body = new Builder(classname, staticMethods).build(decl);
+            if (body != null)
+                new PassManager(PassManager.standardPasses(true, false)).run(body);
+        }
+        bodies.put(decl, body);
+        return body;
+    }
+
+    // Replaces call by a copy of body, and returns the calls copied
+
+    private static ArrayList<Instr> expand(Function f, Instr call, Function body) {
+        // the code after the call goes into a block of its own
+        Block before = call.block;
+        Block after = f.newBlock();
+        int at = before.instrs.indexOf(call);
+        for (Instr inst : before.instrs.subList(at + 1, before.instrs.size()))
+            after.add(inst);
+        before.instrs.subList(at, before.instrs.size()).clear();
+        for (Block succ : before.succs) {
+            after.succs.add(succ);
+            succ.preds.set(succ.preds.indexOf(before), after);
+        }
+        before.succs.clear();
+
+        HashMap<Instr, Instr> copies = new HashMap<Instr, Instr>();
+        for (int k = 0; k < body.params.size(); k++)
+            copies.put(body.params.get(k), call.args.get(k));
+        HashMap<Block, Block> blocks = new HashMap<Block, Block>();
+        for (Block b : body.blocks) {
+            Block copy = f.newBlock();
+            blocks.put(b, copy);
+            for (Instr inst : b.instrs) {
+                Instr c = f.newInstr(inst.op, inst.type);
+                c.index = inst.index;
+                c.member = inst.member;
+                c.virtual = inst.virtual;
+                c.callee = inst.callee;
+                copy.add(c);
+                copies.put(inst, c);
+            }
+        }
+
+        ArrayList<Instr> calls = new ArrayList<Instr>();
+        ArrayList<Instr> returned = new ArrayList<Instr>();
+        for (Block b : body.blocks) {
+            Block copy = blocks.get(b);
+            for (Block pred : b.preds)
+                copy.preds.add(blocks.get(pred));
+            for (Block succ : b.succs)
+                copy.succs.add(blocks.get(succ));
+            for (int k = 0; k < b.instrs.size(); k++) {
+                Instr inst = b.instrs.get(k);
+                Instr c = copy.instrs.get(k);
+                for (Instr arg : inst.args)
+                    c.args.add(copy(f, arg, copies));
+                if (c.op == Instr.CALL && c.callee != null)
+                    calls.add(c);
+                else if (c.op == Instr.RETURN) {
+                    if (!c.args.isEmpty())
+                        returned.add(c.args.get(0));
+                    c.op = Instr.JUMP;
+                    c.args.clear();
+                    Function.addEdge(copy, after);
+                }
+            }
+        }
+
+        before.add(f.newInstr(Instr.JUMP, Instr.VOID));
+        Function.addEdge(before, blocks.get(body.entry()));
+        int place = f.blocks.indexOf(before) + 1;
+        for (Block b : body.blocks)
+            f.blocks.add(place++, blocks.get(b));
+        f.blocks.add(place, after);
+
+        if (call.type != Instr.VOID) {
+            Instr value;
+            if (returned.size() == 1)
+                value = returned.get(0);
+            else if (returned.isEmpty())
+                value = f.zero(call.type);   // the body never returns
+            else {
+                value = f.newInstr(Instr.PHI, call.type);
+                value.args.addAll(returned);
+                after.addPhi(value);
+            }
+            HashMap<Instr, Instr> replacement = new HashMap<Instr, Instr>();
+            replacement.put(call, value);
+            f.replace(replacement);
+        }
+        return calls;
+    }
+
+    private static Instr copy(Function f, Instr inst, HashMap<Instr, Instr> copies) {
+        Instr c = copies.get(inst);
+        if (c == null && inst.op == Instr.CONST) {
+            c = f.newConst(inst.type, inst.constant);
+            copies.put(inst, c);
+        }
+        return c;
+    }
+
+}
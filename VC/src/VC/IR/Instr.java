@@ -0,0 +1,153 @@
+/*
+ * Instr.java
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+
+import VC.ASTs.FuncDecl;
+import VC.CodeGen.MemberRef;
+
+// An instruction of the IR, which is also the value it computes: the IR
+// is in SSA form, so every value is defined by exactly one instruction
+// and its operands (args) are the instructions that define them.
+//
+// The constants and the parameters of a function belong to no block
+// (block is null); the Lowering generates them where they are used.
+// Every other instruction is in a block, in which the phis come first
+// and a terminator (RETURN, JUMP or BRANCH) comes last.
+
+public final class Instr {
+
+    // The operations
+    public static final int
+        CONST = 0,       // constant
+        PARAM = 1,       // the index-th parameter of the function
+        PHI = 2,         // args[k] if control came from block.preds[k]
+
+        ADD = 3,         // args[0] op args[1], of type INT or FLOAT
+        SUB = 4,
+        MUL = 5,
+        DIV = 6,
+        NEG = 7,         // -args[0]
+        I2F = 8,         // (float) args[0]
+        NOT = 9,         // !args[0]
+
+        // The comparisons of two ints, booleans or floats. They come in
+        // the order of JVM.IFEQ ... JVM.IFLE, so each is paired with
+        // its negation.
+        EQ = 10,
+        NE = 11,
+        LT = 12,
+        GE = 13,
+        GT = 14,
+        LE = 15,
+
+        GETGLOBAL = 16,  // the static field member
+        PUTGLOBAL = 17,  // member = args[0]
+        CALL = 18,       // the method member, applied to args
+
+        // The terminators
+        RETURN = 19,     // return args[0], if any
+        JUMP = 20,       // go to block.succs[0]
+        BRANCH = 21;     // go to block.succs[0] if args[0], else succs[1]
+
+    private static final String[] names = {
+        "const", "param", "phi", "add", "sub", "mul", "div", "neg", "i2f",
+        "not", "eq", "ne", "lt", "ge", "gt", "le", "getglobal", "putglobal",
+        "call", "return", "jump", "branch"
+    };
+
+    // The types of the values
+    public static final int
+        VOID = 0,
+        INT = 1,
+        FLOAT = 2,
+        BOOLEAN = 3,
+        STRING = 4;
+
+    public int op;
+    public int type;
+    public ArrayList<Instr> args = new ArrayList<Instr>();
+
+    public Object constant;    // CONST: an Integer, Float, Boolean or String
+    public int index;          // PARAM
+    public MemberRef member;   // GETGLOBAL, PUTGLOBAL and CALL
+    public boolean virtual;    // CALL: invokevirtual on vc$ (or this)
+    public FuncDecl callee;    // CALL: the function called, unless built in
+
+    public Block block;
+    public int id;             // numbers the instructions of a Function
+
+    Instr(int op, int type, int id) {
+        this.op = op;
+        this.type = type;
+        this.id = id;
+    }
+
+    public boolean isTerminator() {
+        return op == RETURN || op == JUMP || op == BRANCH;
+    }
+
+    public boolean isComparison() {
+        return op >= EQ && op <= LE;
+    }
+
+    // Returns the comparison true exactly when this one is false, e.g.
+    // GE for LT
+
+    public static int negate(int op) {
+        return EQ + ((op - EQ) ^ 1);
+    }
+
+    // Returns true if executing this instruction can do anything other
+    // than computing its value: write a variable, call a function, pass
+    // control elsewhere, or throw, as an int division by zero does
+
+    public boolean hasSideEffects() {
+        switch (op) {
+        case PUTGLOBAL: case CALL: case RETURN: case JUMP: case BRANCH:
+            return true;
+        case DIV:
+            Instr divisor = args.get(1);
+            return type == INT && !(divisor.op == CONST && ((Integer) divisor.constant) != 0);
+        default:
+            return false;
+        }
+    }
+
+    // Returns true if this instruction computes its value from its
+    // operands alone, so two instructions with the same operation and
+    // operands compute the same value (see ValueNumbering)
+
+    public boolean isArithmetic() {
+        return op >= ADD && op <= LE;
+    }
+
+    public String toString() {
+        if (op == CONST)
+            return constant instanceof String ? "\"" + constant + "\"" : String.valueOf(constant);
+        return "%" + id;
+    }
+
+    // Returns the text of the instruction, e.g. "%7 = add %5 %6"
+
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        if (type != VOID)
+            text.append(this).append(" = ");
+        text.append(names[op]);
+        if (op == PARAM)
+            text.append(" ").append(index);
+        if (member != null)
+            text.append(" ").append(member.name);
+        for (Instr arg : args)
+            text.append(" ").append(arg);
+        if (op == JUMP || op == BRANCH)
+            for (Block succ : block.succs)
+                text.append(" ").append(succ);
+        return text.toString();
+    }
+
+}
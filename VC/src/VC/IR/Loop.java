@@ -0,0 +1,117 @@
+/*
+ * Loop.java
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Stack;
+
+// A natural loop of a Function: the blocks that can reach one of the
+// back edges to its header without passing through the header, where a
+// back edge is an edge to a block that dominates its source. Each for
+// and while statement builds one, whose header is the start of its
+// test.
+//
+// The preheader of a loop is the block outside it that jumps to its
+// header, in which the loop optimisations put the code they take out
+// of it; each loop the Builder builds has one, but find makes one where
+// necessary.
+
+public final class Loop {
+
+    public Block header;
+    public Block preheader;
+    public HashSet<Block> blocks = new HashSet<Block>();
+
+    private Loop(Block header) {
+        this.header = header;
+    }
+
+    public boolean contains(Block b) {
+        return blocks.contains(b);
+    }
+
+    // Returns true if the value of inst is the same throughout the loop,
+    // i.e. it is computed before the loop is entered
+
+    public boolean isInvariant(Instr inst) {
+        return inst.block == null || !blocks.contains(inst.block);
+    }
+
+    // Returns the loops of f that have a preheader (or can be given one),
+    // inner loops before the loops containing them. The dominator tree
+    // of f must be up to date; the preheaders made are not in it.
+
+    public static ArrayList<Loop> find(Function f) {
+        ArrayList<Loop> loops = new ArrayList<Loop>();
+        for (Block header : f.blocks) {
+            Loop loop = null;
+            for (Block pred : header.preds)
+                if (header.dominates(pred)) {
+                    if (loop == null)
+                        loop = new Loop(header);
+                    loop.addBody(pred);
+                }
+            if (loop != null)
+                loops.add(loop);
+        }
+
+        // an inner loop has fewer blocks than any loop containing it
+        Collections.sort(loops, new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                return a.blocks.size() - b.blocks.size();
+            }
+        });
+
+        ArrayList<Loop> result = new ArrayList<Loop>();
+        for (Loop loop : loops)
+            if (loop.makePreheader(f, loops))
+                result.add(loop);
+        return result;
+    }
+
+    // Adds the blocks from which latch can be reached without passing
+    // through the header
+
+    private void addBody(Block latch) {
+        Stack<Block> work = new Stack<Block>();
+        blocks.add(header);
+        if (blocks.add(latch))
+            work.push(latch);
+        while (!work.isEmpty())
+            for (Block pred : work.pop().preds)
+                if (pred.order >= 0 && blocks.add(pred))
+                    work.push(pred);
+    }
+
+    // Sets preheader, splitting the edge into the loop if the block it
+    // comes from goes elsewhere too, and returns true; a loop entered
+    // from more than one block is left alone, and false is returned
+
+    private boolean makePreheader(Function f, ArrayList<Loop> loops) {
+        Block entering = null;
+        for (Block pred : header.preds)
+            if (!blocks.contains(pred)) {
+                if (entering != null)
+                    return false;
+                entering = pred;
+            }
+        if (entering == null)
+            return false;
+        if (entering.succs.size() == 1) {
+            preheader = entering;
+            return true;
+        }
+        preheader = f.splitEdge(entering, header);
+        // the new block is in each loop that contains the edge it is on
+        for (Loop loop : loops)
+            if (loop.blocks.contains(entering) && loop.blocks.contains(header))
+                loop.blocks.add(preheader);
+        return true;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * LoopInvariantCodeMotion.java
+ *
+ * Moves the instructions of a loop whose values are the same on every
+ * iteration into its preheader, so that they are computed once before
+ * the loop rather than on every iteration:
+ *
+ *   an arithmetic instruction (see Instr.isArithmetic) without side
+ *   effects whose operands are all computed outside the loop, or moved
+ *   out of it already. An int division is moved only if its divisor is
+ *   a constant other than 0, since the loop may never execute it. The
+ *   float operations are moved as they are, never rearranged, so each
+ *   gives exactly the value it gave in the loop.
+ *
+ *   a getglobal of a variable the loop does not write, if the loop
+ *   calls no function, which might write it.
+ *
+ * The inner loops are done first, so an instruction can move out of a
+ * nest of loops one loop at a time.
+ */
+
+package VC.IR;
+
+import java.util.HashSet;
+
+public final class LoopInvariantCodeMotion extends Pass {
+
+    public LoopInvariantCodeMotion() {
+        super("loop-invariant code motion");
+    }
+
+    public boolean run(Function f) {
+        boolean changed = false;
+        for (Loop loop : Loop.find(f))
+            changed |= hoist(f, loop);
+        return changed;
+    }
+
+    private static boolean hoist(Function f, Loop loop) {
+        // the globals the loop writes, or null if it calls a function
+        HashSet<String> written = new HashSet<String>();
+        for (Block b : loop.blocks)
+            for (Instr inst : b.instrs)
+                if (inst.op == Instr.CALL)
+                    written = null;
+                else if (inst.op == Instr.PUTGLOBAL && written != null)
+                    written.add(inst.member.name);
+
+        Block preheader = loop.preheader;
+        boolean changed = false;
+        boolean found = true;
+        // an instruction may use one in a block after its own, so the
+        // blocks are scanned until nothing more is moved
+        while (found) {
+            found = false;
+            for (Block b : f.blocks) {
+                if (!loop.contains(b))
+                    continue;
+                for (int k = b.phis(); k < b.instrs.size(); k++) {
+                    Instr inst = b.instrs.get(k);
+                    if (!isInvariant(loop, inst, written))
+                        continue;
+                    b.instrs.remove(k--);
+                    preheader.add(preheader.instrs.size() - 1, inst);
+                    found = changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isInvariant(Loop loop, Instr inst, HashSet<String> written) {
+        if (inst.op == Instr.GETGLOBAL)
+            return written != null && !written.contains(inst.member.name);
+        if (!inst.isArithmetic() || inst.hasSideEffects())
+            return false;
+        for (Instr arg : inst.args)
+            if (!loop.isInvariant(arg))
+                return false;
+        return true;
+    }
+
+}
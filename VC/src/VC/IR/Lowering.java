@@ -0,0 +1,522 @@
+/*
+ * Lowering.java
+ *
+ * Generates the JVM code of a Function into the code store, in place
+ * of the code the Emitter would generate from its AST.
+ *
+ * Out of SSA form, each phi gets a local variable of its own, which
+ * the predecessors of its block assign before they jump to it. The
+ * operands of all the phis of a block are pushed before any is stored,
+ * so the phis are assigned at once, as they must be when one phi is an
+ * operand of another. A branch cannot assign the phis of only one of
+ * its targets, so an edge from a branch to a block with phis is split
+ * first, with a block of its own to do the assignments.
+ *
+ * The JVM evaluates expressions on its operand stack, so a value used
+ * once, by the instruction after it, is best left on the stack for
+ * it: the instructions are regrouped into the expression trees the
+ * Builder made them from (see fold). Each value that is not generated
+ * where it is used this way, and is used, gets a local variable; the
+ * constants and the parameters are generated (or loaded) at each use.
+ *
+ * A phi that a predecessor gives its own value plus a constant, as the
+ * variable of a counting loop, is updated in place by an iinc instead,
+ * after the others are assigned (see increment).
+ *
+ * The blocks are generated in the order they are laid out in, and a
+ * jump to the next block is left out.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Stack;
+
+import VC.CodeGen.Frame;
+import VC.CodeGen.Instruction;
+import VC.CodeGen.JVM;
+import VC.CodeGen.Label;
+import VC.CodeGen.MemberRef;
+
+public final class Lowering {
+
+    private static final int MAX_FOLD_DEPTH = 100;
+
+    private JVM code;
+    private Frame frame;
+    private String classname;
+    private boolean staticMethods;
+
+    private Function f;
+    private HashMap<Instr, Integer> uses;
+    // the instructions generated as part of the instruction using them
+    private HashSet<Instr> folded = new HashSet<Instr>();
+    // the operands of phis generated as an iinc of the phi
+    private HashMap<Instr, Integer> increments = new HashMap<Instr, Integer>();
+    // the local variable of each value kept in one
+    private HashMap<Instr, Integer> slots = new HashMap<Instr, Integer>();
+    private HashMap<Block, Label> labels = new HashMap<Block, Label>();
+
+    public Lowering(JVM code, Frame frame, String classname, boolean staticMethods) {
+        this.code = code;
+        this.frame = frame;
+        this.classname = classname;
+        this.staticMethods = staticMethods;
+    }
+
+    // Generates the body of f into a method whose local variables up to
+    // the parameters are already allocated in frame
+
+    public void lower(Function f) {
+        this.f = f;
+        splitEdges();
+        uses = f.countUses();
+
+        for (Instr param : f.params)
+            slots.put(param, frame.getNewIndex());
+        // a phi that the entry block jumps to with a parameter used by
+        // nothing else, as the header of a loop of tail calls is (see
+        // TailCallElimination), takes over the variable of the parameter,
+        // which holds the value of the phi on entry and is dead after it.
+        // (The parameter given on any other edge would be overwritten by
+        // the value the phi has on entry.) This comes before fold, which
+        // leaves out the phis whose operand is already in their variable.
+        Block entry = f.entry();
+        for (Block succ : entry.succs)
+            for (int k = 0; k < succ.phis(); k++) {
+                Instr phi = succ.instrs.get(k);
+                Instr arg = phi.args.get(succ.preds.indexOf(entry));
+                if (arg.op == Instr.PARAM && uses.get(arg) == 1 && !slots.containsKey(phi))
+                    slots.put(phi, slots.get(arg));
+            }
+
+        for (Block b : f.blocks)
+            fold(b);
+        for (Block b : f.blocks) {
+            labels.put(b, frame.getNewLabel());
+            for (Instr inst : b.instrs)
+                if (!slots.containsKey(inst)
+                        && (inst.op == Instr.PHI || !folded.contains(inst) && uses.containsKey(inst)))
+                    slots.put(inst, frame.getNewIndex());
+        }
+
+        if (f.isMain && !staticMethods) {
+            // vc$ = new classname();
+            Instruction inst = new Instruction(JVM.NEW);
+            inst.text = classname;
+            append(inst);
+            emit(JVM.DUP);
+            emitMember(JVM.INVOKESPECIAL, classname, "<init>", "()V");
+            emitLocal(JVM.ASTORE, 1);
+        }
+
+        for (int k = 0; k < f.blocks.size(); k++) {
+            Block next = k + 1 < f.blocks.size() ? f.blocks.get(k + 1) : null;
+            lower(f.blocks.get(k), next);
+        }
+    }
+
+    private void splitEdges() {
+        for (Block b : new ArrayList<Block>(f.blocks)) {
+            Instr last = b.terminator();
+            if (last == null || last.op != Instr.BRANCH)
+                continue;
+            for (Block succ : new ArrayList<Block>(b.succs))
+                if (succ.phis() > 0)
+                    f.splitEdge(b, succ);
+        }
+    }
+
+    // Marks the instructions of b that are generated where they are used
+
+    private void fold(Block b) {
+        int k = b.instrs.size() - 1;
+        Instr last = b.terminator();
+        if (last != null && last.op == Instr.JUMP) {
+            // the operands of the phis jumped to are generated just
+            // before the jump, as if they were its own (see assignPhis)
+            Block succ = b.succs.get(0);
+            ArrayList<Instr> operands = new ArrayList<Instr>();
+            for (Instr phi : assignedPhis(b, succ)) {
+                Instr arg = phi.args.get(succ.preds.indexOf(b));
+                Integer increment = increment(b, phi, arg);
+                if (increment != null) {
+                    increments.put(arg, increment);
+                    folded.add(arg);
+                } else
+                    operands.add(arg);
+            }
+            k = fold(b, operands, k - 1);
+        }
+        while (k >= b.phis())
+            k = fold(b, b.instrs.get(k).args, k - 1);
+    }
+
+    // Folds into an instruction the operands args it can take straight
+    // from the stack, given that instrs[0 .. k] of b come before it and
+    // have not been folded, and returns the index of the last of those
+    // that is left. An operand can be folded if it is used only by the
+    // instruction and is instrs[k], or once the operands after it have
+    // been folded, the instruction before them; then the operands are
+    // evaluated in the order they are in b.
+    //
+    // The operands of the operands folded are folded in turn, with a
+    // stack of the operand lists being folded rather than by recursion,
+    // since a chain of statements can nest as deep as the function is
+    // long: s = s * 3 + 1; s = s * 3 + 1; ... Below MAX_FOLD_DEPTH lists
+    // an operand is left in a local variable instead, so that value and
+    // compute, which generate the trees recursively, stay shallow too.
+
+    private int fold(Block b, ArrayList<Instr> args, int k) {
+        Stack<ArrayList<Instr>> lists = new Stack<ArrayList<Instr>>();
+        // the index in each list of the operand to fold next
+        Stack<Integer> next = new Stack<Integer>();
+        lists.push(args);
+        next.push(args.size() - 1);
+        while (!lists.isEmpty()) {
+            int a = next.pop();
+            if (a < 0) {
+                lists.pop();
+                continue;
+            }
+            next.push(a - 1);
+            // an increment reads only the variable of its phi, which
+            // nothing in b assigns, so it can be passed over
+            while (k >= b.phis() && increments.containsKey(b.instrs.get(k)))
+                k--;
+            Instr arg = lists.peek().get(a);
+            if (k >= b.phis() && b.instrs.get(k) == arg && uses.get(arg) == 1
+                    && lists.size() < MAX_FOLD_DEPTH) {
+                folded.add(arg);
+                k--;
+                lists.push(arg.args);
+                next.push(arg.args.size() - 1);
+            }
+        }
+        return k;
+    }
+
+    private void lower(Block b, Block next) {
+        emitLabel(labels.get(b));
+        for (int k = b.phis(); k < b.instrs.size(); k++) {
+            Instr inst = b.instrs.get(k);
+            if (folded.contains(inst))
+                continue;
+            switch (inst.op) {
+            case Instr.RETURN:
+                if (inst.args.isEmpty())
+                    emit(JVM.RETURN);
+                else {
+                    value(inst.args.get(0));
+                    emit(inst.args.get(0).type == Instr.FLOAT ? JVM.FRETURN : JVM.IRETURN);
+                }
+                break;
+            case Instr.JUMP:
+                assignPhis(b, b.succs.get(0));
+                if (b.succs.get(0) != next)
+                    emitBranch(JVM.GOTO, labels.get(b.succs.get(0)));
+                break;
+            case Instr.BRANCH:
+                Block ifTrue = b.succs.get(0);
+                Block ifFalse = b.succs.get(1);
+                if (ifFalse == next)
+                    condJump(inst.args.get(0), true, labels.get(ifTrue));
+                else {
+                    condJump(inst.args.get(0), false, labels.get(ifFalse));
+                    if (ifTrue != next)
+                        emitBranch(JVM.GOTO, labels.get(ifTrue));
+                }
+                break;
+            default:
+                compute(inst);
+                if (slots.containsKey(inst))
+                    store(inst);
+                else if (inst.type != Instr.VOID)
+                    emit(JVM.POP);
+            }
+        }
+    }
+
+    // Assigns the phis of succ the operands b gives them, all at once:
+    // the increments last, once the other operands, which may use the
+    // values of the phis before they are incremented, are computed
+
+    private void assignPhis(Block b, Block succ) {
+        int k = succ.preds.indexOf(b);
+        ArrayList<Instr> phis = new ArrayList<Instr>();
+        ArrayList<Instr> incremented = new ArrayList<Instr>();
+        for (Instr phi : assignedPhis(b, succ)) {
+            if (increments.containsKey(phi.args.get(k)))
+                incremented.add(phi);
+            else
+                phis.add(phi);
+        }
+        for (Instr phi : phis)
+            value(phi.args.get(k));
+        for (int p = phis.size() - 1; p >= 0; p--)
+            store(phis.get(p));
+        for (Instr phi : incremented) {
+            Instruction inst = new Instruction(JVM.IINC);
+            inst.index = slots.get(phi);
+            inst.value = increments.get(phi.args.get(k));
+            append(inst);
+        }
+    }
+
+    // Returns the constant that the operand arg b gives phi adds to phi,
+    // if arg is phi + c, c + phi or phi - c, computed in b for phi alone,
+    // and the increment is in the range of a short, which iinc takes (the
+    // Assembler makes it wide if need be); returns null otherwise
+
+    private Integer increment(Block b, Instr phi, Instr arg) {
+        if (phi.type != Instr.INT || arg.block != b || uses.get(arg) != 1
+                || arg.op != Instr.ADD && arg.op != Instr.SUB)
+            return null;
+        Instr x = arg.args.get(0);
+        Instr c = arg.args.get(1);
+        if (arg.op == Instr.ADD && x.op == Instr.CONST) {
+            x = arg.args.get(1);
+            c = arg.args.get(0);
+        }
+        if (x != phi || c.op != Instr.CONST)
+            return null;
+        long increment = (Integer) c.constant;
+        if (arg.op == Instr.SUB)
+            increment = -increment;
+        if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE)
+            return null;
+        return (int) increment;
+    }
+
+    // Returns the phis of succ that b gives a value other than their own
+    // (or, from the entry, that of a parameter whose variable the phi has
+    // taken over), in the order their operands are computed in b (those
+    // computed elsewhere first), so that as many as possible can be folded
+
+    private ArrayList<Instr> assignedPhis(final Block b, Block succ) {
+        final int k = succ.preds.indexOf(b);
+        ArrayList<Instr> phis = new ArrayList<Instr>();
+        for (int p = 0; p < succ.phis(); p++) {
+            Instr phi = succ.instrs.get(p);
+            Instr arg = phi.args.get(k);
+            if (arg != phi && !(arg.op == Instr.PARAM && slots.get(arg).equals(slots.get(phi))))
+                phis.add(phi);
+        }
+        Collections.sort(phis, new Comparator<Instr>() {
+            public int compare(Instr x, Instr y) {
+                return b.instrs.indexOf(x.args.get(k)) - b.instrs.indexOf(y.args.get(k));
+            }
+        });
+        return phis;
+    }
+
+    // Generates the value of inst onto the stack
+
+    private void value(Instr inst) {
+        if (inst.op == Instr.CONST)
+            emitConstant(inst);
+        else if (folded.contains(inst))
+            compute(inst);
+        else
+            load(inst);
+    }
+
+    // Generates the instruction inst itself, from the values of its
+    // operands
+
+    private void compute(Instr inst) {
+        switch (inst.op) {
+        case Instr.ADD: case Instr.SUB: case Instr.MUL: case Instr.DIV:
+            value(inst.args.get(0));
+            value(inst.args.get(1));
+            // the four int operations are 4 opcodes apart, and each
+            // float one follows 2 after the int one
+            emit(JVM.IADD + 4 * (inst.op - Instr.ADD)
+                 + (inst.type == Instr.FLOAT ? JVM.FADD - JVM.IADD : 0));
+            break;
+        case Instr.NEG:
+            value(inst.args.get(0));
+            emit(inst.type == Instr.FLOAT ? JVM.FNEG : JVM.INEG);
+            break;
+        case Instr.I2F:
+            value(inst.args.get(0));
+            emit(JVM.I2F);
+            break;
+        case Instr.NOT:
+            value(inst.args.get(0));
+            emit(JVM.ICONST_1);
+            emit(JVM.IXOR);
+            break;
+        case Instr.EQ: case Instr.NE: case Instr.LT:
+        case Instr.GE: case Instr.GT: case Instr.LE:
+            Label trueLabel = frame.getNewLabel();
+            Label nextLabel = frame.getNewLabel();
+            compare(inst, true, trueLabel);
+            emit(JVM.ICONST_0);
+            emitBranch(JVM.GOTO, nextLabel);
+            emitLabel(trueLabel);
+            emit(JVM.ICONST_1);
+            frame.pop();   // only one of the two constants is pushed
+            emitLabel(nextLabel);
+            break;
+        case Instr.GETGLOBAL:
+            emitMember(JVM.GETSTATIC, inst.member);
+            break;
+        case Instr.PUTGLOBAL:
+            value(inst.args.get(0));
+            emitMember(JVM.PUTSTATIC, inst.member);
+            break;
+        case Instr.CALL:
+            if (inst.virtual)
+                emit(f.isMain ? JVM.ALOAD_1 : JVM.ALOAD_0);
+            for (Instr arg : inst.args)
+                value(arg);
+            emitMember(inst.virtual ? JVM.INVOKEVIRTUAL : JVM.INVOKESTATIC, inst.member);
+            break;
+        }
+    }
+
+    // Generates a jump to target if the boolean value inst is sense,
+    // falling through otherwise
+
+    private void condJump(Instr inst, boolean sense, Label target) {
+        if (inst.op == Instr.CONST) {
+            if ((Boolean) inst.constant == sense)
+                emitBranch(JVM.GOTO, target);
+        } else if (folded.contains(inst) && inst.op == Instr.NOT)
+            condJump(inst.args.get(0), !sense, target);
+        else if (folded.contains(inst) && inst.isComparison())
+            compare(inst, sense, target);
+        else {
+            value(inst);
+            emitBranch(sense ? JVM.IFNE : JVM.IFEQ, target);
+        }
+    }
+
+    // Generates the operands of the comparison inst and a jump to target
+    // if the comparison is sense
+
+    private void compare(Instr inst, boolean sense, Label target) {
+        value(inst.args.get(0));
+        value(inst.args.get(1));
+        int op = sense ? inst.op : Instr.negate(inst.op);
+        int opcode = JVM.IFEQ + (op - Instr.EQ);
+        if (inst.args.get(0).type == Instr.FLOAT) {
+            // fcmpg gives 1 and fcmpl -1 if either operand is NaN, which
+            // must make every comparison but != false (see the Emitter)
+            emit(inst.op == Instr.LT || inst.op == Instr.LE ? JVM.FCMPG : JVM.FCMPL);
+            emitBranch(opcode, target);
+        } else
+            emitBranch(opcode + (JVM.IF_ICMPEQ - JVM.IFEQ), target);
+    }
+
+    // The local variables
+
+    private void load(Instr inst) {
+        if (inst.type == Instr.FLOAT)
+            emitLocal(JVM.FLOAD, slots.get(inst));
+        else if (inst.type == Instr.STRING)
+            emitLocal(JVM.ALOAD, slots.get(inst));
+        else
+            emitLocal(JVM.ILOAD, slots.get(inst));
+    }
+
+    private void store(Instr inst) {
+        if (inst.type == Instr.FLOAT)
+            emitLocal(JVM.FSTORE, slots.get(inst));
+        else if (inst.type == Instr.STRING)
+            emitLocal(JVM.ASTORE, slots.get(inst));
+        else
+            emitLocal(JVM.ISTORE, slots.get(inst));
+    }
+
+    private void emitConstant(Instr inst) {
+        Object value = inst.constant;
+        if (value instanceof Boolean)
+            emit((Boolean) value ? JVM.ICONST_1 : JVM.ICONST_0);
+        else if (value instanceof Integer) {
+            int n = (Integer) value;
+            if (n >= -1 && n <= 5)
+                emit(JVM.ICONST_0 + n);
+            else if (n >= -128 && n <= 127)
+                emitValue(JVM.BIPUSH, n);
+            else if (n >= -32768 && n <= 32767)
+                emitValue(JVM.SIPUSH, n);
+            else
+                emitLDC(value);
+        } else if (value instanceof Float) {
+            float x = (Float) value;
+            // not -0.0, which fconst_0 would make 0.0
+            if (x == 0.0f && Float.floatToIntBits(x) == 0)
+                emit(JVM.FCONST_0);
+            else if (x == 1.0f)
+                emit(JVM.FCONST_1);
+            else if (x == 2.0f)
+                emit(JVM.FCONST_2);
+            else
+                emitLDC(value);
+        } else
+            emitLDC(value);
+    }
+
+    // The following methods append an instruction or a label to the code
+    // store, keeping track of the depth of the operand stack in frame
+
+    private void append(Instruction inst) {
+        code.append(inst);
+        int effect = JVM.stackEffect(inst);
+        if (effect > 0)
+            frame.push(effect);
+        else if (effect < 0)
+            frame.pop(-effect);
+    }
+
+    private void emit(int opcode) {
+        append(new Instruction(opcode));
+    }
+
+    private void emitLabel(Label label) {
+        Instruction inst = new Instruction(JVM.LABEL);
+        inst.label = label;
+        append(inst);
+    }
+
+    private void emitValue(int opcode, int value) {
+        Instruction inst = new Instruction(opcode);
+        inst.value = value;
+        append(inst);
+    }
+
+    private void emitLocal(int opcode, int index) {
+        Instruction inst = new Instruction(JVM.shortForm(opcode, index));
+        inst.index = index;
+        append(inst);
+    }
+
+    private void emitBranch(int opcode, Label label) {
+        Instruction inst = new Instruction(opcode);
+        inst.label = label;
+        append(inst);
+    }
+
+    private void emitMember(int opcode, String owner, String name, String descriptor) {
+        emitMember(opcode, new MemberRef(owner, name, descriptor));
+    }
+
+    private void emitMember(int opcode, MemberRef member) {
+        Instruction inst = new Instruction(opcode);
+        inst.member = member;
+        append(inst);
+    }
+
+    private void emitLDC(Object constant) {
+        Instruction inst = new Instruction(JVM.LDC);
+        inst.constant = constant;
+        append(inst);
+    }
+
+}
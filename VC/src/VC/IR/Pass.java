@@ -0,0 +1,23 @@
+/*
+ * Pass.java
+ */
+
+package VC.IR;
+
+// An optimisation of a Function, run by a PassManager, which computes
+// the dominator tree of the function before each pass.
+
+public abstract class Pass {
+
+    public final String name;
+    public int changes;   // the number of functions the pass has changed
+
+    protected Pass(String name) {
+        this.name = name;
+    }
+
+    // Transforms f, returning true if it changed anything
+
+    public abstract boolean run(Function f);
+
+}
@@ -0,0 +1,73 @@
+/*
+ * PassManager.java
+ *
+ * Runs a sequence of Passes over a Function, over and over until none
+ * of them changes it (or MAX_ROUNDS is reached), since each pass may
+ * leave work for the others: value numbering makes phis trivial, copy
+ * propagation makes instructions dead, and so on.
+ */
+
+package VC.IR;
+
+public final class PassManager {
+
+    private static final int MAX_ROUNDS = 10;
+
+    private Pass[] passes;
+
+    public PassManager(Pass[] passes) {
+        this.passes = passes;
+    }
+
+    // Returns the passes that tidy up what the Builder builds, which are
+    // always run, followed by the optimisations if optimising (vc -O),
+    // including those of loops if optimisingLoops
+
+    public static Pass[] standardPasses(boolean optimising) {
+        return standardPasses(optimising, true);
+    }
+
+    public static Pass[] standardPasses(boolean optimising, boolean optimisingLoops) {
+        if (!optimising)
+            return new Pass[] {
+                new DeadCodeElimination(),
+                new CopyPropagation()
+            };
+        if (!optimisingLoops)
+            return new Pass[] {
+                new TailCallElimination(),
+                new DeadCodeElimination(),
+                new CopyPropagation(),
+                new ValueNumbering()
+            };
+        return new Pass[] {
+            new TailCallElimination(),
+            new DeadCodeElimination(),
+            new CopyPropagation(),
+            new ValueNumbering(),
+            new LoopInvariantCodeMotion(),
+            new StrengthReduction()
+        };
+    }
+
+    public Pass[] getPasses() {
+        return passes;
+    }
+
+    public void run(Function f) {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = false;
+            for (Pass pass : passes) {
+                Dominators.compute(f);
+                if (pass.run(f)) {
+                    pass.changes++;
+                    changed = true;
+                }
+            }
+            if (!changed)
+                break;
+        }
+        Dominators.compute(f);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * StrengthReduction.java
+ *
+ * Replaces the multiplications of the induction variables of a loop by
+ * additions. An induction variable of a loop is a phi of its header
+ * of type int that starts with a value v0 from the preheader and is
+ * changed by a constant or loop-invariant step on each way round the
+ * loop: its operand from each back edge is itself, or itself + s or
+ * itself - s with s invariant.
+ *
+ * A multiplication i * c in the loop, of an induction variable i by an
+ * invariant c, is then replaced by a new induction variable j starting
+ * with v0 * c, to which s * c is added (or subtracted) wherever s is
+ * added to i. For the loop
+ *
+ *     for (i = 0; i < n; i = i + 1)
+ *         sum = sum + i * m;
+ *
+ * this gives, with the products computed in the preheader,
+ *
+ *     for (i = 0, j = 0; i < n; i = i + 1, j = j + m)
+ *         sum = sum + j;
+ *
+ * Only ints are done: int arithmetic wraps around, so j is always equal
+ * to i * c, even where the multiplication overflows, but float
+ * arithmetic rounds, so the sum of the steps would drift from the
+ * product.
+ */
+
+package VC.IR;
+
+import java.util.HashMap;
+
+public final class StrengthReduction extends Pass {
+
+    private Function f;
+
+    public StrengthReduction() {
+        super("strength reduction");
+    }
+
+    public boolean run(Function f) {
+        this.f = f;
+        HashMap<Instr, Instr> replacements = new HashMap<Instr, Instr>();
+        for (Loop loop : Loop.find(f))
+            for (Block b : f.blocks) {
+                if (!loop.contains(b))
+                    continue;
+                for (int k = b.phis(); k < b.instrs.size(); k++) {
+                    Instr inst = b.instrs.get(k);
+                    if (inst.op != Instr.MUL || inst.type != Instr.INT)
+                        continue;
+                    Instr iv = inst.args.get(0);
+                    Instr c = inst.args.get(1);
+                    if (!isInductionVariable(loop, iv)) {
+                        iv = inst.args.get(1);
+                        c = inst.args.get(0);
+                    }
+                    if (!isInductionVariable(loop, iv) || !loop.isInvariant(c))
+                        continue;
+                    replacements.put(inst, reduce(loop, iv, c));
+                    b.instrs.remove(k--);
+                }
+            }
+        f.replace(replacements);
+        return !replacements.isEmpty();
+    }
+
+    private static boolean isInductionVariable(Loop loop, Instr phi) {
+        if (phi.op != Instr.PHI || phi.block != loop.header || phi.type != Instr.INT)
+            return false;
+        for (int k = 0; k < phi.args.size(); k++)
+            if (loop.contains(loop.header.preds.get(k)) && step(loop, phi, phi.args.get(k)) == null)
+                return false;
+        return true;
+    }
+
+    // Returns the step s if next is phi + s, s + phi or phi - s with s
+    // invariant (or phi itself, whose step is 0), and null otherwise
+
+    private static Instr step(Loop loop, Instr phi, Instr next) {
+        if (next == phi)
+            return phi;
+        if (next.op != Instr.ADD && next.op != Instr.SUB || next.type != Instr.INT)
+            return null;
+        Instr a = next.args.get(0);
+        Instr b = next.args.get(1);
+        if (a == phi && loop.isInvariant(b))
+            return b;
+        if (next.op == Instr.ADD && b == phi && loop.isInvariant(a))
+            return a;
+        return null;
+    }
+
+    // Returns a new induction variable equal to iv * c
+
+    private Instr reduce(Loop loop, Instr iv, Instr c) {
+        Block header = loop.header;
+        Instr j = f.newInstr(Instr.PHI, Instr.INT);
+        for (int k = 0; k < iv.args.size(); k++) {
+            Instr next = iv.args.get(k);
+            if (!loop.contains(header.preds.get(k)))
+                j.args.add(multiply(loop.preheader, next, c));
+            else if (next == iv)
+                j.args.add(j);
+            else {
+                Instr update = f.newInstr(next.op, Instr.INT);
+                update.args.add(j);
+                update.args.add(multiply(loop.preheader, step(loop, iv, next), c));
+                next.block.add(next.block.instrs.indexOf(next) + 1, update);
+                j.args.add(update);
+            }
+        }
+        header.addPhi(j);
+        return j;
+    }
+
+    // Returns a * b, computed at the end of block unless it is known at
+    // compile time, e.g. for i = 0
+
+    private Instr multiply(Block block, Instr a, Instr b) {
+        if (a.op == Instr.CONST && b.op == Instr.CONST)
+            return f.newConst(Instr.INT, (Integer) a.constant * (Integer) b.constant);
+        if (isConstant(a, 0) || isConstant(b, 1))
+            return a;
+        if (isConstant(b, 0) || isConstant(a, 1))
+            return b;
+        Instr product = f.newInstr(Instr.MUL, Instr.INT);
+        product.args.add(a);
+        product.args.add(b);
+        block.add(block.instrs.size() - 1, product);
+        return product;
+    }
+
+    private static boolean isConstant(Instr inst, int value) {
+        return inst.op == Instr.CONST && (Integer) inst.constant == value;
+    }
+
+}
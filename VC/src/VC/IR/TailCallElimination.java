@@ -0,0 +1,94 @@
+/*
+ * TailCallElimination.java
+ *
+ * Replaces each call of a function to itself whose value it returns at
+ * once (a tail call) by a jump back to its start, so that the recursion
+ * becomes a loop and runs in constant stack space:
+ *
+ *     int gcd(int a, int b) {          B0: %1 = param 0, %2 = param 1
+ *         if (b == 0)                      jump B1
+ *             return a;                B1: %3 = phi %1 %7
+ *         return gcd(b, a - a/b*b);        %4 = phi %2 %8
+ *     }                                    ...
+ *                                      B2: ... jump B1
+ *
+ * The body of the entry block moves into a new block, the loop header,
+ * with a phi for each parameter, which is the parameter on entry and
+ * the argument of the tail call on each jump back.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public final class TailCallElimination extends Pass {
+
+    public TailCallElimination() {
+        super("tail call elimination");
+    }
+
+    public boolean run(Function f) {
+        if (f.isMain)
+            return false;
+        ArrayList<Block> tailCalls = new ArrayList<Block>();
+        for (Block b : f.blocks)
+            if (isTailCall(f, b))
+                tailCalls.add(b);
+        if (tailCalls.isEmpty())
+            return false;
+
+        Block entry = f.entry();
+        Block header = f.newBlock();
+        for (Instr inst : entry.instrs)
+            header.add(inst);
+        entry.instrs.clear();
+        for (Block succ : entry.succs) {
+            header.succs.add(succ);
+            succ.preds.set(succ.preds.indexOf(entry), header);
+        }
+        entry.succs.clear();
+        entry.add(f.newInstr(Instr.JUMP, Instr.VOID));
+        Function.addEdge(entry, header);
+        f.blocks.add(1, header);
+        if (tailCalls.get(0) == entry)
+            tailCalls.set(0, header);
+
+        HashMap<Instr, Instr> phis = new HashMap<Instr, Instr>();
+        for (Instr param : f.params) {
+            Instr phi = f.newInstr(Instr.PHI, param.type);
+            phi.args.add(param);
+            header.addPhi(phi);
+            phis.put(param, phi);
+        }
+        f.replace(phis);
+        // the phis are the parameters on entry, not themselves
+        for (Instr param : f.params)
+            phis.get(param).args.set(0, param);
+
+        for (Block b : tailCalls) {
+            int last = b.instrs.size() - 1;
+            Instr call = b.instrs.get(last - 1);
+            b.instrs.subList(last - 1, last + 1).clear();
+            b.add(f.newInstr(Instr.JUMP, Instr.VOID));
+            Function.addEdge(b, header);
+            for (int k = 0; k < f.params.size(); k++)
+                phis.get(f.params.get(k)).args.add(call.args.get(k));
+        }
+        return true;
+    }
+
+    // Returns true if b ends by returning the value of a call of f itself,
+    // made just before
+
+    private static boolean isTailCall(Function f, Block b) {
+        int last = b.instrs.size() - 1;
+        if (last < 1 || b.instrs.get(last).op != Instr.RETURN
+                || b.instrs.get(last).args.isEmpty())
+            return false;
+        Instr call = b.instrs.get(last - 1);
+        return call.op == Instr.CALL && call.callee == f.decl
+            && b.instrs.get(last).args.get(0) == call;
+    }
+
+}
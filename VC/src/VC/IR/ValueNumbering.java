@@ -0,0 +1,87 @@
+/*
+ * ValueNumbering.java
+ *
+ * Dominator-based global value numbering: an arithmetic instruction
+ * (see Instr.isArithmetic) that computes what an instruction in a
+ * dominating block, or earlier in its own block, has computed already
+ * is replaced by that instruction. The blocks are visited down the
+ * dominator tree with a table of the instructions available in each,
+ * keyed by their operation and operands; constants with the same value
+ * are the same operand, and the operands of +, *, == and != are taken
+ * in either order.
+ */
+
+package VC.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public final class ValueNumbering extends Pass {
+
+    private HashMap<Instr, Instr> replacements;
+
+    public ValueNumbering() {
+        super("value numbering");
+    }
+
+    public boolean run(Function f) {
+        replacements = new HashMap<Instr, Instr>();
+        number(f.entry(), new HashMap<String, Instr>());
+        f.replace(replacements);
+        return !replacements.isEmpty();
+    }
+
+    // Numbers the instructions of b and of the blocks it dominates,
+    // given the instructions available on entry to b, which are in
+    // table again when it returns
+
+    private void number(Block b, HashMap<String, Instr> table) {
+        ArrayList<String> added = new ArrayList<String>();
+        ArrayList<Instr> instrs = b.instrs;
+        for (int k = 0; k < instrs.size(); k++) {
+            Instr inst = instrs.get(k);
+            for (int a = 0; a < inst.args.size(); a++) {
+                Instr replacement = replacements.get(inst.args.get(a));
+                if (replacement != null)
+                    inst.args.set(a, replacement);
+            }
+            if (!inst.isArithmetic())
+                continue;
+            String key = key(inst);
+            Instr same = table.get(key);
+            if (same == null) {
+                table.put(key, inst);
+                added.add(key);
+            } else {
+                replacements.put(inst, same);
+                instrs.remove(k--);
+            }
+        }
+        for (Block child : b.children)
+            number(child, table);
+        for (String key : added)
+            table.remove(key);
+    }
+
+    private static String key(Instr inst) {
+        String a = operand(inst.args.get(0));
+        if (inst.args.size() == 1)
+            return inst.op + " " + inst.type + " " + a;
+        String b = operand(inst.args.get(1));
+        boolean commutative = inst.op == Instr.ADD || inst.op == Instr.MUL
+            || inst.op == Instr.EQ || inst.op == Instr.NE;
+        if (commutative && a.compareTo(b) > 0) {
+            String t = a;
+            a = b;
+            b = t;
+        }
+        return inst.op + " " + inst.type + " " + a + " " + b;
+    }
+
+    private static String operand(Instr inst) {
+        if (inst.op == Instr.CONST)
+            return inst.type + ":" + inst.constant;
+        return "%" + inst.id;
+    }
+
+}
@@ -0,0 +1,511 @@
+/*
+ * ConstantFolder.java
+ *
+ * Folds the constant subexpressions of a checked AST, and propagates
+ * the constants held in local variables that are never assigned to.
+ *
+ * It runs after the Checker, when optimising (vc -O), and relies on
+ * the decorations the Checker leaves: the operators are the
+ * non-overloaded "i+", "f<", "i!", "i2f", ..., each Ident is linked to
+ * its declaration, and each expression has its type. Every expression
+ * it builds is decorated in the same way, so the Emitter sees an AST
+ * it could have got from the Checker.
+ *
+ * An expression is folded only if the JVM would compute the same value
+ * at run time:
+ *
+ *   int arithmetic wraps around as iadd, isub, imul and idiv do, and an
+ *   int division by zero is left for the JVM, which throws
+ *   ArithmeticException.
+ *
+ *   float arithmetic is done in float, rounding as fadd, ..., fdiv do,
+ *   and comparisons involving NaN are false as with fcmpl and fcmpg. A
+ *   float result that is NaN, infinite or -0.0 is not folded, since a
+ *   FloatLiteral cannot spell it.
+ *
+ *   a && b and a || b are folded only if the operand that is dropped
+ *   need not be evaluated, e.g. false && f() becomes false, but f() &&
+ *   false is left alone.
+ */
+
+package VC.Optimiser;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import VC.ASTs.*;
+import VC.CompilationContext;
+import VC.StdEnvironment;
+
+public final class ConstantFolder implements Visitor {
+
+    private StdEnvironment env;
+
+    // true during the first walk over the AST, which finds the
+    // variables assigned to without changing anything
+    private boolean collecting;
+
+    // the local variables that are assigned to somewhere
+    private HashSet<Decl> assigned = new HashSet<Decl>();
+
+    // the constant value of each local variable that has a constant
+    // initialiser and is never assigned to
+    private HashMap<Decl, Expr> constants = new HashMap<Decl, Expr>();
+
+    public ConstantFolder(CompilationContext context) {
+        env = context.env;
+    }
+
+    public void fold(AST ast) {
+        collecting = true;
+        ast.visit(this, null);
+        collecting = false;
+        ast.visit(this, null);
+    }
+
+    // Returns the folded form of ast, which replaces it in parent
+
+    private Expr fold(Expr ast, AST parent) {
+        Expr folded = (Expr) ast.visit(this, null);
+        folded.parent = parent;
+        return folded;
+    }
+
+    // Programs
+
+    public Object visitProgram(Program ast, Object o) {
+        ast.FL.visit(this, o);
+        return null;
+    }
+
+    // Lists for denoting the null reference
+
+    public Object visitEmptyDeclList(EmptyDeclList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyStmtList(EmptyStmtList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyExprList(EmptyExprList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyParaList(EmptyParaList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyArgList(EmptyArgList ast, Object o) {
+        return null;
+    }
+
+    // Declarations
+
+    public Object visitDeclList(DeclList ast, Object o) {
+        List list = ast;
+        while (list instanceof DeclList) {
+            DeclList cell = (DeclList) list;
+            cell.D.visit(this, o);
+            list = cell.DL;
+        }
+        return null;
+    }
+
+    public Object visitFuncDecl(FuncDecl ast, Object o) {
+        ast.S.visit(this, o);
+        return null;
+    }
+
+    public Object visitGlobalVarDecl(GlobalVarDecl ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        return null;
+    }
+
+    public Object visitLocalVarDecl(LocalVarDecl ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        if (!collecting && isLiteral(ast.E) && !assigned.contains(ast))
+            constants.put(ast, ast.E);
+        return null;
+    }
+
+    // Stmts
+
+    public Object visitStmtList(StmtList ast, Object o) {
+        List list = ast;
+        while (list instanceof StmtList) {
+            StmtList cell = (StmtList) list;
+            cell.S.visit(this, o);
+            list = cell.SL;
+        }
+        return null;
+    }
+
+    public Object visitIfStmt(IfStmt ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        ast.S1.visit(this, o);
+        ast.S2.visit(this, o);
+        return null;
+    }
+
+    public Object visitWhileStmt(WhileStmt ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        ast.S.visit(this, o);
+        return null;
+    }
+
+    public Object visitForStmt(ForStmt ast, Object o) {
+        ast.E1 = fold(ast.E1, ast);
+        ast.E2 = fold(ast.E2, ast);
+        ast.E3 = fold(ast.E3, ast);
+        ast.S.visit(this, o);
+        return null;
+    }
+
+    public Object visitBreakStmt(BreakStmt ast, Object o) {
+        return null;
+    }
+
+    public Object visitContinueStmt(ContinueStmt ast, Object o) {
+        return null;
+    }
+
+    public Object visitReturnStmt(ReturnStmt ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        return null;
+    }
+
+    public Object visitCompoundStmt(CompoundStmt ast, Object o) {
+        ast.DL.visit(this, o);
+        ast.SL.visit(this, o);
+        return null;
+    }
+
+    public Object visitExprStmt(ExprStmt ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        return null;
+    }
+
+    public Object visitEmptyCompStmt(EmptyCompStmt ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyStmt(EmptyStmt ast, Object o) {
+        return null;
+    }
+
+    // Expressions
+    //
+    // Each returns the expression that replaces ast, which is ast itself
+    // while collecting
+
+    public Object visitIntExpr(IntExpr ast, Object o) {
+        return ast;
+    }
+
+    public Object visitFloatExpr(FloatExpr ast, Object o) {
+        return ast;
+    }
+
+    public Object visitBooleanExpr(BooleanExpr ast, Object o) {
+        return ast;
+    }
+
+    public Object visitStringExpr(StringExpr ast, Object o) {
+        return ast;
+    }
+
+    public Object visitUnaryExpr(UnaryExpr ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        if (collecting || !isLiteral(ast.E))
+            return ast;
+
+        String op = ast.O.spelling;
+        if (op.equals("i+") || op.equals("f+"))
+            return ast.E;
+        else if (op.equals("i-"))
+            return intExpr(-intValue(ast.E), ast);
+        else if (op.equals("f-"))
+            return floatExpr(-floatValue(ast.E), ast);
+        else if (op.equals("i2f"))
+            return floatExpr((float) intValue(ast.E), ast);
+        else if (op.equals("i!"))
+            return booleanExpr(!booleanValue(ast.E), ast);
+        return ast;
+    }
+
+    public Object visitBinaryExpr(BinaryExpr ast, Object o) {
+        ast.E1 = fold(ast.E1, ast);
+        ast.E2 = fold(ast.E2, ast);
+        if (collecting)
+            return ast;
+
+        String op = ast.O.spelling;
+        if (op.equals("i&&") || op.equals("i||"))
+            return foldLogical(ast, op.equals("i||"));
+        if (!isLiteral(ast.E1) || !isLiteral(ast.E2))
+            return ast;
+
+        if (ast.E1 instanceof BooleanExpr) {
+            // the operands of i== and i!= can be booleans
+            boolean a = booleanValue(ast.E1), b = booleanValue(ast.E2);
+            if (op.equals("i=="))
+                return booleanExpr(a == b, ast);
+            else if (op.equals("i!="))
+                return booleanExpr(a != b, ast);
+        } else if (op.charAt(0) == 'i') {
+            int a = intValue(ast.E1), b = intValue(ast.E2);
+            if (op.equals("i+"))
+                return intExpr(a + b, ast);
+            else if (op.equals("i-"))
+                return intExpr(a - b, ast);
+            else if (op.equals("i*"))
+                return intExpr(a * b, ast);
+            else if (op.equals("i/"))
+                return b == 0 ? ast : intExpr(a / b, ast);
+            else if (op.equals("i=="))
+                return booleanExpr(a == b, ast);
+            else if (op.equals("i!="))
+                return booleanExpr(a != b, ast);
+            else if (op.equals("i<"))
+                return booleanExpr(a < b, ast);
+            else if (op.equals("i<="))
+                return booleanExpr(a <= b, ast);
+            else if (op.equals("i>"))
+                return booleanExpr(a > b, ast);
+            else if (op.equals("i>="))
+                return booleanExpr(a >= b, ast);
+        } else {
+            float a = floatValue(ast.E1), b = floatValue(ast.E2);
+            if (op.equals("f+"))
+                return floatExpr(a + b, ast);
+            else if (op.equals("f-"))
+                return floatExpr(a - b, ast);
+            else if (op.equals("f*"))
+                return floatExpr(a * b, ast);
+            else if (op.equals("f/"))
+                return floatExpr(a / b, ast);
+            else if (op.equals("f=="))
+                return booleanExpr(a == b, ast);
+            else if (op.equals("f!="))
+                return booleanExpr(a != b, ast);
+            else if (op.equals("f<"))
+                return booleanExpr(a < b, ast);
+            else if (op.equals("f<="))
+                return booleanExpr(a <= b, ast);
+            else if (op.equals("f>"))
+                return booleanExpr(a > b, ast);
+            else if (op.equals("f>="))
+                return booleanExpr(a >= b, ast);
+        }
+        return ast;
+    }
+
+    // Folds a && b (or a || b if isOr): a constant a decides whether b
+    // is evaluated at all, but b can only be dropped if it is constant
+    // too, since a must still be evaluated
+
+    private Expr foldLogical(BinaryExpr ast, boolean isOr) {
+        if (ast.E1 instanceof BooleanExpr) {
+            if (booleanValue(ast.E1) == isOr)
+                return ast.E1;   // false && b, true || b
+            return ast.E2;       // true && b, false || b
+        }
+        if (ast.E2 instanceof BooleanExpr && booleanValue(ast.E2) != isOr)
+            return ast.E1;       // a && true, a || false
+        return ast;
+    }
+
+    public Object visitInitExpr(InitExpr ast, Object o) {
+        ast.IL.visit(this, o);
+        return ast;
+    }
+
+    public Object visitExprList(ExprList ast, Object o) {
+        List list = ast;
+        while (list instanceof ExprList) {
+            ExprList cell = (ExprList) list;
+            cell.E = fold(cell.E, cell);
+            list = cell.EL;
+        }
+        return null;
+    }
+
+    public Object visitArrayExpr(ArrayExpr ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        return ast;
+    }
+
+    public Object visitVarExpr(VarExpr ast, Object o) {
+        Expr value = constants.get(((SimpleVar) ast.V).I.decl);
+        if (value == null)
+            return ast;
+        return copy(value, ast);
+    }
+
+    public Object visitCallExpr(CallExpr ast, Object o) {
+        ast.AL.visit(this, o);
+        return ast;
+    }
+
+    public Object visitAssignExpr(AssignExpr ast, Object o) {
+        if (collecting) {
+            Var var;
+            if (ast.E1 instanceof VarExpr)
+                var = ((VarExpr) ast.E1).V;
+            else
+                var = ((ArrayExpr) ast.E1).V;
+            assigned.add((Decl) ((SimpleVar) var).I.decl);
+        } else if (ast.E1 instanceof ArrayExpr)
+            ast.E1 = fold(ast.E1, ast);
+        ast.E2 = fold(ast.E2, ast);
+        return ast;
+    }
+
+    public Object visitEmptyExpr(EmptyExpr ast, Object o) {
+        return ast;
+    }
+
+    // Literals and identifiers
+
+    public Object visitIntLiteral(IntLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatLiteral(FloatLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanLiteral(BooleanLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringLiteral(StringLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitIdent(Ident ast, Object o) {
+        return null;
+    }
+
+    public Object visitOperator(Operator ast, Object o) {
+        return null;
+    }
+
+    // Parameters
+
+    public Object visitParaList(ParaList ast, Object o) {
+        return null;
+    }
+
+    public Object visitParaDecl(ParaDecl ast, Object o) {
+        return null;
+    }
+
+    // Arguments
+
+    public Object visitArgList(ArgList ast, Object o) {
+        List list = ast;
+        while (list instanceof ArgList) {
+            ArgList cell = (ArgList) list;
+            cell.A.visit(this, o);
+            list = cell.AL;
+        }
+        return null;
+    }
+
+    public Object visitArg(Arg ast, Object o) {
+        ast.E = fold(ast.E, ast);
+        return ast;
+    }
+
+    // Types
+
+    public Object visitVoidType(VoidType ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanType(BooleanType ast, Object o) {
+        return null;
+    }
+
+    public Object visitIntType(IntType ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatType(FloatType ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringType(StringType ast, Object o) {
+        return null;
+    }
+
+    public Object visitArrayType(ArrayType ast, Object o) {
+        return null;
+    }
+
+    public Object visitErrorType(ErrorType ast, Object o) {
+        return null;
+    }
+
+    // Variables
+
+    public Object visitSimpleVar(SimpleVar ast, Object o) {
+        return null;
+    }
+
+    // The literals
+
+    private static boolean isLiteral(Expr ast) {
+        return ast instanceof IntExpr || ast instanceof FloatExpr || ast instanceof BooleanExpr;
+    }
+
+    private static int intValue(Expr ast) {
+        return Integer.parseInt(((IntExpr) ast).IL.spelling);
+    }
+
+    private static float floatValue(Expr ast) {
+        return Float.parseFloat(((FloatExpr) ast).FL.spelling);
+    }
+
+    private static boolean booleanValue(Expr ast) {
+        return ((BooleanExpr) ast).BL.spelling.equals("true");
+    }
+
+    // Each returns the literal for value that replaces ast
+
+    private Expr intExpr(int value, Expr ast) {
+        Expr e = new IntExpr(new IntLiteral(Integer.toString(value), ast.position), ast.position);
+        e.type = env.intType;
+        return e;
+    }
+
+    private Expr floatExpr(float value, Expr ast) {
+        if (Float.isNaN(value) || Float.isInfinite(value)
+                || value == 0.0f && 1 / value < 0)
+            return ast;
+        Expr e = new FloatExpr(new FloatLiteral(Float.toString(value), ast.position), ast.position);
+        e.type = env.floatType;
+        return e;
+    }
+
+    private Expr booleanExpr(boolean value, Expr ast) {
+        Expr e = new BooleanExpr(new BooleanLiteral(Boolean.toString(value), ast.position),
+                                 ast.position);
+        e.type = env.booleanType;
+        return e;
+    }
+
+    // Returns a copy of the literal value, to replace ast
+
+    private Expr copy(Expr value, Expr ast) {
+        if (value instanceof IntExpr)
+            return intExpr(intValue(value), ast);
+        else if (value instanceof FloatExpr)
+            return floatExpr(floatValue(value), ast);
+        else
+            return booleanExpr(booleanValue(value), ast);
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ * DeadCodeEliminator.java
+ *
+ * Removes the statements of a checked AST that are never executed or
+ * have no effect. It runs after the ConstantFolder, when optimising
+ * (vc -O), whose constant conditions it relies on:
+ *
+ *   the statements after a return, break or continue, or after any
+ *   other statement that cannot complete normally (see
+ *   canCompleteNormally), are removed.
+ *
+ *   if (true) S1 else S2 becomes S1, and if (false) S1 else S2 becomes
+ *   S2; while (false) S is removed, and for (E1; false; E3) S becomes
+ *   E1;
+ *
+ *   an expression statement, or the E1 or E3 of a for statement, whose
+ *   expression is pure (see isPure) is removed.
+ *
+ *   the initialiser of a local variable that is never used is removed,
+ *   if it is pure.
+ *
+ * The AST is walked twice. The first walk removes the statements and
+ * finds the variables used by those that are left; the second only
+ * removes the initialisers, since the first walk changes nothing the
+ * second time round.
+ */
+
+package VC.Optimiser;
+
+import java.util.HashSet;
+
+import VC.ASTs.*;
+
+public final class DeadCodeEliminator implements Visitor {
+
+    // true during the second walk over the AST
+    private boolean stripping;
+
+    // the variables used by the statements that are left
+    private HashSet<Decl> used = new HashSet<Decl>();
+
+    public void eliminate(AST ast) {
+        stripping = false;
+        ast.visit(this, null);
+        stripping = true;
+        ast.visit(this, null);
+    }
+
+    // Returns the statement that replaces ast in parent
+
+    private Stmt eliminate(Stmt ast, AST parent) {
+        Stmt stmt = (Stmt) ast.visit(this, null);
+        stmt.parent = parent;
+        return stmt;
+    }
+
+    // Returns true if control can pass from the end of ast to the
+    // statement after it. The conditions of if statements are not taken
+    // into account, so that the answer does not depend on whether ast
+    // has been through the ConstantFolder and this pass: the Emitter
+    // uses it to leave out the code after a statement when there is
+    // no way to reach it.
+
+    public static boolean canCompleteNormally(Stmt ast) {
+        if (ast instanceof ReturnStmt || ast instanceof BreakStmt
+                || ast instanceof ContinueStmt)
+            return false;
+        else if (ast instanceof CompoundStmt) {
+            List list = ((CompoundStmt) ast).SL;
+            while (list instanceof StmtList) {
+                if (!canCompleteNormally(((StmtList) list).S))
+                    return false;
+                list = ((StmtList) list).SL;
+            }
+            return true;
+        } else if (ast instanceof IfStmt)
+            return canCompleteNormally(((IfStmt) ast).S1)
+                || canCompleteNormally(((IfStmt) ast).S2);
+        else if (ast instanceof WhileStmt)
+            return !isTrue(((WhileStmt) ast).E) || breaks(((WhileStmt) ast).S);
+        else if (ast instanceof ForStmt)
+            return !isTrue(((ForStmt) ast).E2) || breaks(((ForStmt) ast).S);
+        return true;
+    }
+
+    // Returns true if a loop whose body is ast can be left by a break
+
+    private static boolean breaks(Stmt ast) {
+        if (ast instanceof BreakStmt)
+            return true;
+        else if (ast instanceof CompoundStmt) {
+            List list = ((CompoundStmt) ast).SL;
+            while (list instanceof StmtList) {
+                if (breaks(((StmtList) list).S))
+                    return true;
+                list = ((StmtList) list).SL;
+            }
+            return false;
+        } else if (ast instanceof IfStmt)
+            return breaks(((IfStmt) ast).S1) || breaks(((IfStmt) ast).S2);
+        // a break inside a nested loop leaves only the nested loop
+        return false;
+    }
+
+    // Returns true if ast is a loop condition that always holds: true,
+    // or the missing E2 of a for statement
+
+    private static boolean isTrue(Expr ast) {
+        return ast.isEmptyExpr()
+            || ast instanceof BooleanExpr && ((BooleanExpr) ast).BL.spelling.equals("true");
+    }
+
+    // Returns true if evaluating ast has no effect other than giving its
+    // value: it calls no function, assigns to no variable and cannot
+    // throw, as an int division by a variable or an array subscript can
+
+    public static boolean isPure(Expr ast) {
+        if (ast instanceof IntExpr || ast instanceof FloatExpr || ast instanceof BooleanExpr
+                || ast instanceof StringExpr || ast instanceof VarExpr || ast.isEmptyExpr())
+            return true;
+        else if (ast instanceof UnaryExpr)
+            return isPure(((UnaryExpr) ast).E);
+        else if (ast instanceof BinaryExpr) {
+            BinaryExpr e = (BinaryExpr) ast;
+            if (e.O.spelling.equals("i/")
+                    && !(e.E2 instanceof IntExpr && Integer.parseInt(((IntExpr) e.E2).IL.spelling) != 0))
+                return false;
+            return isPure(e.E1) && isPure(e.E2);
+        }
+        return false;
+    }
+
+    // Programs
+
+    public Object visitProgram(Program ast, Object o) {
+        ast.FL.visit(this, o);
+        return null;
+    }
+
+    // Lists for denoting the null reference
+
+    public Object visitEmptyDeclList(EmptyDeclList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyStmtList(EmptyStmtList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyExprList(EmptyExprList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyParaList(EmptyParaList ast, Object o) {
+        return null;
+    }
+
+    public Object visitEmptyArgList(EmptyArgList ast, Object o) {
+        return null;
+    }
+
+    // Declarations
+
+    public Object visitDeclList(DeclList ast, Object o) {
+        List list = ast;
+        while (list instanceof DeclList) {
+            DeclList cell = (DeclList) list;
+            cell.D.visit(this, o);
+            list = cell.DL;
+        }
+        return null;
+    }
+
+    public Object visitFuncDecl(FuncDecl ast, Object o) {
+        ast.S.visit(this, o);
+        return null;
+    }
+
+    public Object visitGlobalVarDecl(GlobalVarDecl ast, Object o) {
+        ast.E.visit(this, o);
+        return null;
+    }
+
+    public Object visitLocalVarDecl(LocalVarDecl ast, Object o) {
+        if (stripping && !used.contains(ast) && isPure(ast.E)) {
+            ast.E = new EmptyExpr(ast.E.position);
+            ast.E.parent = ast;
+        }
+        ast.E.visit(this, o);
+        return null;
+    }
+
+    // Stmts
+    //
+    // Each returns the statement that replaces ast
+
+    public Object visitStmtList(StmtList ast, Object o) {
+        List list = ast;
+        while (list instanceof StmtList) {
+            StmtList cell = (StmtList) list;
+            cell.S = eliminate(cell.S, cell);
+            if (!canCompleteNormally(cell.S) && cell.SL instanceof StmtList) {
+                cell.SL = new EmptyStmtList(cell.SL.position);
+                cell.SL.parent = cell;
+            }
+            list = cell.SL;
+        }
+        return null;
+    }
+
+    public Object visitIfStmt(IfStmt ast, Object o) {
+        if (ast.E instanceof BooleanExpr) {
+            if (isTrue(ast.E))
+                return ast.S1.visit(this, o);
+            else
+                return ast.S2.visit(this, o);
+        }
+        ast.E.visit(this, o);
+        ast.S1 = eliminate(ast.S1, ast);
+        ast.S2 = eliminate(ast.S2, ast);
+        return ast;
+    }
+
+    public Object visitWhileStmt(WhileStmt ast, Object o) {
+        if (ast.E instanceof BooleanExpr && !isTrue(ast.E))
+            return new EmptyStmt(ast.position);
+        ast.E.visit(this, o);
+        ast.S = eliminate(ast.S, ast);
+        return ast;
+    }
+
+    public Object visitForStmt(ForStmt ast, Object o) {
+        if (ast.E2 instanceof BooleanExpr && !isTrue(ast.E2))
+            return new ExprStmt(ast.E1, ast.position).visit(this, o);
+        if (isPure(ast.E1)) {
+            ast.E1 = new EmptyExpr(ast.E1.position);
+            ast.E1.parent = ast;
+        }
+        if (isPure(ast.E3)) {
+            ast.E3 = new EmptyExpr(ast.E3.position);
+            ast.E3.parent = ast;
+        }
+        ast.E1.visit(this, o);
+        ast.E2.visit(this, o);
+        ast.E3.visit(this, o);
+        ast.S = eliminate(ast.S, ast);
+        return ast;
+    }
+
+    public Object visitBreakStmt(BreakStmt ast, Object o) {
+        return ast;
+    }
+
+    public Object visitContinueStmt(ContinueStmt ast, Object o) {
+        return ast;
+    }
+
+    public Object visitReturnStmt(ReturnStmt ast, Object o) {
+        ast.E.visit(this, o);
+        return ast;
+    }
+
+    public Object visitCompoundStmt(CompoundStmt ast, Object o) {
+        ast.DL.visit(this, o);
+        ast.SL.visit(this, o);
+        return ast;
+    }
+
+    public Object visitExprStmt(ExprStmt ast, Object o) {
+        if (isPure(ast.E))
+            return new EmptyStmt(ast.position);
+        ast.E.visit(this, o);
+        return ast;
+    }
+
+    public Object visitEmptyCompStmt(EmptyCompStmt ast, Object o) {
+        return ast;
+    }
+
+    public Object visitEmptyStmt(EmptyStmt ast, Object o) {
+        return ast;
+    }
+
+    // Expressions
+
+    public Object visitIntExpr(IntExpr ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatExpr(FloatExpr ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanExpr(BooleanExpr ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringExpr(StringExpr ast, Object o) {
+        return null;
+    }
+
+    public Object visitUnaryExpr(UnaryExpr ast, Object o) {
+        ast.E.visit(this, o);
+        return null;
+    }
+
+    public Object visitBinaryExpr(BinaryExpr ast, Object o) {
+        ast.E1.visit(this, o);
+        ast.E2.visit(this, o);
+        return null;
+    }
+
+    public Object visitInitExpr(InitExpr ast, Object o) {
+        ast.IL.visit(this, o);
+        return null;
+    }
+
+    public Object visitExprList(ExprList ast, Object o) {
+        List list = ast;
+        while (list instanceof ExprList) {
+            ExprList cell = (ExprList) list;
+            cell.E.visit(this, o);
+            list = cell.EL;
+        }
+        return null;
+    }
+
+    public Object visitArrayExpr(ArrayExpr ast, Object o) {
+        ast.V.visit(this, o);
+        ast.E.visit(this, o);
+        return null;
+    }
+
+    public Object visitVarExpr(VarExpr ast, Object o) {
+        ast.V.visit(this, o);
+        return null;
+    }
+
+    public Object visitCallExpr(CallExpr ast, Object o) {
+        ast.AL.visit(this, o);
+        return null;
+    }
+
+    public Object visitAssignExpr(AssignExpr ast, Object o) {
+        ast.E1.visit(this, o);
+        ast.E2.visit(this, o);
+        return null;
+    }
+
+    public Object visitEmptyExpr(EmptyExpr ast, Object o) {
+        return null;
+    }
+
+    // Literals and identifiers
+
+    public Object visitIntLiteral(IntLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatLiteral(FloatLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanLiteral(BooleanLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringLiteral(StringLiteral ast, Object o) {
+        return null;
+    }
+
+    public Object visitIdent(Ident ast, Object o) {
+        return null;
+    }
+
+    public Object visitOperator(Operator ast, Object o) {
+        return null;
+    }
+
+    // Parameters
+
+    public Object visitParaList(ParaList ast, Object o) {
+        return null;
+    }
+
+    public Object visitParaDecl(ParaDecl ast, Object o) {
+        return null;
+    }
+
+    // Arguments
+
+    public Object visitArgList(ArgList ast, Object o) {
+        List list = ast;
+        while (list instanceof ArgList) {
+            ArgList cell = (ArgList) list;
+            cell.A.E.visit(this, o);
+            list = cell.AL;
+        }
+        return null;
+    }
+
+    public Object visitArg(Arg ast, Object o) {
+        ast.E.visit(this, o);
+        return null;
+    }
+
+    // Types
+
+    public Object visitVoidType(VoidType ast, Object o) {
+        return null;
+    }
+
+    public Object visitBooleanType(BooleanType ast, Object o) {
+        return null;
+    }
+
+    public Object visitIntType(IntType ast, Object o) {
+        return null;
+    }
+
+    public Object visitFloatType(FloatType ast, Object o) {
+        return null;
+    }
+
+    public Object visitStringType(StringType ast, Object o) {
+        return null;
+    }
+
+    public Object visitArrayType(ArrayType ast, Object o) {
+        return null;
+    }
+
+    public Object visitErrorType(ErrorType ast, Object o) {
+        return null;
+    }
+
+    // Variables
+
+    public Object visitSimpleVar(SimpleVar ast, Object o) {
+        if (ast.I.decl instanceof Decl)
+            used.add((Decl) ast.I.decl);
+        return null;
+    }
+
+}
@@ -97,29 +97,49 @@
 
 package VC.Parser;
 
+import VC.Scanner.NameTable;
 import VC.Scanner.Scanner;
 import VC.Scanner.SourcePosition;
 import VC.Scanner.Token;
+import VC.Scanner.TokenStream;
+import VC.CompilationContext;
 import VC.ErrorReporter;
 import VC.ASTs.*;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 
 public class Parser {
 
-    private Scanner scanner;
+    private TokenStream tokens;
     private ErrorReporter errorReporter;
-    private Token currentToken;
-    private SourcePosition previousTokenPosition;
+
+    // the cursor: indices into tokens of the current token and of the
+    // token before it (-1 if there is none)
+    private int currentToken;
+    private int previousToken;
     private SourcePosition dummyPos = new SourcePosition();
 
+    // where the stack trace of a syntax error is printed
+    private PrintStream trace = System.err;
+
     public Parser (Scanner lexer, ErrorReporter reporter) {
-        scanner = lexer;
+        this(lexer, reporter, new NameTable());
+    }
+
+    public Parser (Scanner lexer, CompilationContext context) {
+        this(lexer, context.reporter, context.names);
+        trace = context.out;
+    }
+
+    private Parser (Scanner lexer, ErrorReporter reporter, NameTable names) {
+        tokens = new TokenStream(lexer, names);
         errorReporter = reporter;
 
-        previousTokenPosition = new SourcePosition();
+        previousToken = -1;
 
-        currentToken = scanner.getToken();
+        currentToken = tokens.first();
     }
 
     // match checks to see f the current token matches tokenExpected.
@@ -127,21 +147,21 @@ public class Parser {
     // If not, reports a syntactic error.
 
     void match(int tokenExpected) throws SyntaxError {
-        if (currentToken.kind == tokenExpected) {
-            previousTokenPosition = currentToken.position;
-            currentToken = scanner.getToken();
+        if (tokens.kind(currentToken) == tokenExpected) {
+            previousToken = currentToken;
+            currentToken = tokens.next(currentToken);
         } else {
             syntacticError("\"%\" expected here", Token.spell(tokenExpected));
         }
     }
 
     void accept() {
-        previousTokenPosition = currentToken.position;
-        currentToken = scanner.getToken();
+        previousToken = currentToken;
+        currentToken = tokens.next(currentToken);
     }
 
     void syntacticError(String messageTemplate, String tokenQuoted) throws SyntaxError {
-        SourcePosition pos = currentToken.position;
+        SourcePosition pos = tokens.position(currentToken);
         errorReporter.reportError(messageTemplate, tokenQuoted, pos);
         throw(new SyntaxError());
     }
@@ -151,8 +171,8 @@ public class Parser {
     // character of the first token of the phrase.
 
     void start(SourcePosition position) {
-        position.lineStart = currentToken.position.lineStart;
-        position.charStart = currentToken.position.charStart;
+        position.lineStart = tokens.line(currentToken);
+        position.charStart = tokens.charStart(currentToken);
     }
 
     // finish records the position of the end of a phrase.
@@ -160,8 +180,13 @@ public class Parser {
     // character of the last token of the phrase.
 
     void finish(SourcePosition position) {
-        position.lineFinish = previousTokenPosition.lineFinish;
-        position.charFinish = previousTokenPosition.charFinish;
+        if (previousToken >= 0) {
+            position.lineFinish = tokens.line(previousToken);
+            position.charFinish = tokens.charFinish(previousToken);
+        } else {
+            position.lineFinish = 0;
+            position.charFinish = 0;
+        }
     }
 
     void copyStart(SourcePosition from, SourcePosition to) {
@@ -182,8 +207,8 @@ public class Parser {
 
             List dlAST = parseDeclList();
 
-            if (currentToken.kind != Token.EOF) {
-                syntacticError("\"%\" unknown type", currentToken.spelling);
+            if (tokens.kind(currentToken) != Token.EOF) {
+                syntacticError("\"%\" unknown type", tokens.spelling(currentToken));
             }
 
             finish(pos);
@@ -191,7 +216,7 @@ public class Parser {
 
         } catch (SyntaxError s) { 
 
-            s.printStackTrace();
+            s.printStackTrace(trace);
             return null; 
         }
     }
@@ -200,95 +225,82 @@ public class Parser {
 
     // decl-list -> decl *
     // decl -> type identifier (func-decl-tail | var-decl-tail) decl-list * 
+    //
+    // Like the other lists, the declarations are parsed in a loop and
+    // the list cells are then linked up from the last declaration to the
+    // first, so that the length of a program does not affect the depth
+    // of the Java stack. Each cell gets the position the recursive
+    // definition above would give it: a function declaration and its
+    // cell share one position, which finishes at the end of the whole
+    // list; the variables declared together share the position of their
+    // cells, which finishes at the last of those variables.
 
     List parseDeclList() throws SyntaxError {
 
+        ArrayList<Decl> decls = new ArrayList<Decl>();
+        ArrayList<SourcePosition> positions = new ArrayList<SourcePosition>();
+        ArrayList<SourcePosition> funcPositions = new ArrayList<SourcePosition>();
+
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        if (isType(currentToken.kind)) {
+        while (isType(tokens.kind(currentToken))) {
 
-            // The program has at least one declaration
             Type t = parseType();
             Ident i = parseIdent();
 
-            if (currentToken.kind == Token.LPAREN) {
+            if (tokens.kind(currentToken) == Token.LPAREN) {
 
-                // First we have a function declaration
-                // By calling the following function we parse it and all subsequent declarations
-                return parseFuncDeclList(t, i, pos);
+                // decl -> type identifier func-decl-tail
+                decls.add(parseFuncDeclTail(t, i, pos));
+                positions.add(pos);
+                funcPositions.add(pos);
 
             } else {
 
-                // First we have a global variable declaration 
-                // By calling the following function we parse it and all subsequent declarations
-                return parseGlobalVarDeclList(t, i, pos); 
+                // decl -> type identifier var-decl-tail
+                parseGlobalVarDecls(t, i, pos, decls, positions);
             }
 
-            
-        } else {
-
-            // The program has no declarations
-            finish(pos);
-            return new EmptyDeclList(pos); 
+            pos = new SourcePosition();
+            start(pos);
         }
-    }
-    
-    // This parses the first of the two non-nullable productions of decl-list:
-    // 
-    // decl-list -> type identifier func-decl-tail decl-list *
 
-    List parseFuncDeclList(Type t, Ident i, SourcePosition pos) throws SyntaxError { 
+        finish(pos);
+        List l = new EmptyDeclList(pos); 
 
-        Decl d = parseFuncDeclTail(t, i, pos);
-        List l = parseDeclList();
+        for (int k = 0; k < funcPositions.size(); k++)
+            finish(funcPositions.get(k));
 
-        finish(pos);
-        return new DeclList(d, l, pos);
+        for (int k = decls.size() - 1; k >= 0; k--)
+            l = new DeclList(decls.get(k), l, positions.get(k));
+        return l;
     }
 
-    // This parses the second of the two non-nullable productions of decl-list:
-    //
-    // decl-list -> type identifier var-decl-tail decl-list *
     // var-decl-tail -> var-first ( "," identifier var-first ) * ";"
+    //
+    // Appends the variables declared to decls, and their position (which
+    // is also that of their list cells) to positions.
 
-    List parseGlobalVarDeclList(Type t, Ident i, SourcePosition pos) throws SyntaxError {
+    void parseGlobalVarDecls(Type t, Ident i, SourcePosition pos, 
+            ArrayList<Decl> decls, ArrayList<SourcePosition> positions) throws SyntaxError {
 
-        LinkedList<Decl> vars = new LinkedList<Decl>();
-       
-        // 'vars' is a linked list of the Decl objects representing variables
-        // The elements in 'vars' are ordered in order of their appearance in the source code
-        // The first element is the Decl object of the first variable
-        // The last element is the Decl object of the last variable
-        
         // Parse the first variable declaration 
 
-        vars.addLast(parseVarFirst(t, i, pos, true)); // true means 'global variable'
+        decls.add(parseVarFirst(t, i, pos, true)); // true means 'global variable'
+        positions.add(pos);
         
         // Parse the rest of the variable declarations 
 
-        while (currentToken.kind == Token.COMMA) {
+        while (tokens.kind(currentToken) == Token.COMMA) {
             
             match(Token.COMMA);
             i = parseIdent(); 
-            vars.addLast(parseVarFirst(t, i, pos, true)); // true means 'global variable'
+            decls.add(parseVarFirst(t, i, pos, true)); // true means 'global variable'
+            positions.add(pos);
         }
         
         match(Token.SEMICOLON);
-
-        // Parse the rest of the declarations        
-
-        List l = parseDeclList();
-
-        // Combine the variable declarations with the rest of the declarations 
-        // Then return the result
-
-        while (! vars.isEmpty()) { 
-            Decl d = vars.removeLast();
-            l = new DeclList(d, l, pos);
-        }
-
-        return l; 
     }
 
     // func-decl-tail -> para-list compound-stmt
@@ -308,7 +320,7 @@ public class Parser {
 
         // Upgrade the type of this declaration to an array if possible
         
-        if (currentToken.kind == Token.LBRACKET) {
+        if (tokens.kind(currentToken) == Token.LBRACKET) {
 
             match(Token.LBRACKET);
             Expr e = parseArraySize();
@@ -321,7 +333,7 @@ public class Parser {
 
         Expr initExpr = new EmptyExpr(pos);
 
-        if (currentToken.kind == Token.EQ) {
+        if (tokens.kind(currentToken) == Token.EQ) {
 
             match(Token.EQ);
             initExpr = parseInitialiser(); 
@@ -347,7 +359,7 @@ public class Parser {
         SourcePosition pos = new SourcePosition();
         start(pos);
         
-        if (currentToken.kind != Token.LCURLY) {
+        if (tokens.kind(currentToken) != Token.LCURLY) {
 
             return parseExpr();
 
@@ -358,7 +370,7 @@ public class Parser {
             LinkedList<Expr> exprs = new LinkedList<Expr>();
             exprs.addLast(parseExpr());
             
-            while (currentToken.kind == Token.COMMA) {
+            while (tokens.kind(currentToken) == Token.COMMA) {
 
                 match(Token.COMMA);
                 exprs.addLast(parseExpr());
@@ -386,7 +398,7 @@ public class Parser {
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        switch (currentToken.kind) {
+        switch (tokens.kind(currentToken)) {
 
             case Token.VOID:
                 accept();
@@ -409,7 +421,7 @@ public class Parser {
                 return new FloatType(pos);
 
             default:
-                syntacticError("type expected here", currentToken.spelling);
+                syntacticError("type expected here", tokens.spelling(currentToken));
                 return null; // syntacticError() calls System.exit(), so execution should not reach this line
         }
     }
@@ -450,76 +462,75 @@ public class Parser {
 
     List parseLocalVarDeclList() throws SyntaxError {
 
+        ArrayList<Decl> decls = new ArrayList<Decl>();
+        ArrayList<SourcePosition> positions = new ArrayList<SourcePosition>();
+
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        if (isType(currentToken.kind)) {
-            
-            // There is at least one declaration 
-
-            // Parse the first declaration, which is of the form <type> <identifier> <var-decl-tail>
+        while (isType(tokens.kind(currentToken))) {
             
-            LinkedList<Decl> vars = new LinkedList<Decl>();
+            // Parse a declaration, which is of the form <type> <identifier> <var-decl-tail>
+            // The variables declared together share one position
 
             Type t = parseType();
             Ident i = parseIdent();
-            Decl d = parseVarFirst(t, i, pos, false); // false means 'local variable'
+            decls.add(parseVarFirst(t, i, pos, false)); // false means 'local variable'
+            positions.add(pos);
 
-            vars.addLast(d); 
-
-            while (currentToken.kind == Token.COMMA) {
+            while (tokens.kind(currentToken) == Token.COMMA) {
 
                 match(Token.COMMA);
                 i = parseIdent(); 
-                d = parseVarFirst(t, i, pos, false); // false means 'local variable'
-
-                vars.addLast(d);
+                decls.add(parseVarFirst(t, i, pos, false)); // false means 'local variable'
+                positions.add(pos);
             }
 
             match(Token.SEMICOLON);
-            
-            // Parse the remaining declarations. To do so, use recursion.
-            
-            List l = parseLocalVarDeclList(); 
 
-            // Combine the result of parsing the first declaration
-            // with the result of parsing the remaining declarations.
-            
-            while (! vars.isEmpty()) {
-                l = new DeclList(vars.removeLast() , l, pos);
-            }
-
-            return l;
+            pos = new SourcePosition();
+            start(pos);
+        }
 
-        } else {
+        finish(pos);
+        List l = new EmptyDeclList(pos);
 
-            // There are no declarations
-            
-            finish(pos);
-            return new EmptyDeclList(pos);
-        }
+        for (int k = decls.size() - 1; k >= 0; k--)
+            l = new DeclList(decls.get(k), l, positions.get(k));
+        return l;
     }
     
     // stmt-list -> stmt *
 
+    // Each list cell starts at its statement and finishes at the end of
+    // the list.
+
     List parseStmtList() throws SyntaxError {
 
+        ArrayList<Stmt> stmts = new ArrayList<Stmt>();
+        ArrayList<SourcePosition> positions = new ArrayList<SourcePosition>();
+
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        if (currentToken.kind != Token.RCURLY) {
+        while (tokens.kind(currentToken) != Token.RCURLY) {
              
-            Stmt sAST = parseStmt();
-            List slAST = parseStmtList(); // recursion ...
+            stmts.add(parseStmt());
+            positions.add(pos);
 
-            finish(pos);
-            return new StmtList(sAST, slAST, pos); 
+            pos = new SourcePosition();
+            start(pos);
+        }
 
-        } else {
+        finish(pos);
+        List l = new EmptyStmtList(pos);
 
+        for (int k = stmts.size() - 1; k >= 0; k--) {
+            pos = positions.get(k);
             finish(pos);
-            return new EmptyStmtList(pos);
+            l = new StmtList(stmts.get(k), l, pos); 
         }
+        return l;
     }
     
     // stmt -> compound-stmt
@@ -533,7 +544,7 @@ public class Parser {
         
     Stmt parseStmt() throws SyntaxError {
 
-        switch (currentToken.kind) {
+        switch (tokens.kind(currentToken)) {
 
             case Token.LCURLY:
                 return parseCompoundStmt();
@@ -575,7 +586,7 @@ public class Parser {
         match(Token.RPAREN);
         Stmt s1AST = parseStmt();
 
-        if (currentToken.kind == Token.ELSE) {
+        if (tokens.kind(currentToken) == Token.ELSE) {
 
             accept();
             Stmt s2AST = parseStmt();
@@ -604,19 +615,19 @@ public class Parser {
         match(Token.FOR);
         match(Token.LPAREN);
 
-        if (currentToken.kind != Token.SEMICOLON) {
+        if (tokens.kind(currentToken) != Token.SEMICOLON) {
             e1 = parseExpr();
         }
         
         match(Token.SEMICOLON);
 
-        if (currentToken.kind != Token.SEMICOLON) {
+        if (tokens.kind(currentToken) != Token.SEMICOLON) {
             e2 = parseExpr();
         }
 
         match(Token.SEMICOLON);
 
-        if (currentToken.kind != Token.RPAREN) {
+        if (tokens.kind(currentToken) != Token.RPAREN) {
             e3 = parseExpr();
         }
 
@@ -683,7 +694,7 @@ public class Parser {
 
         Expr e = new EmptyExpr(dummyPos);
 
-        if (currentToken.kind != Token.SEMICOLON) {
+        if (tokens.kind(currentToken) != Token.SEMICOLON) {
             e = parseExpr();
         }
 
@@ -702,7 +713,7 @@ public class Parser {
 
         Expr eAST = new EmptyExpr(dummyPos);
 
-        if (currentToken.kind != Token.SEMICOLON) {
+        if (tokens.kind(currentToken) != Token.SEMICOLON) {
             eAST = parseExpr();
         }
 
@@ -716,223 +727,226 @@ public class Parser {
     // ======================= EXPRESSIONS ======================
 
     // expr -> assignment-expr
-    
-    Expr parseExpr() throws SyntaxError {
-
-        return parseAssignmentExpr();
-    }
-
-    // assignment-expr -> cond-or-expr ( "=" cond-or-expr )* 
-   
-    Expr parseAssignmentExpr() throws SyntaxError {
-
-        SourcePosition pos = new SourcePosition();
-        start(pos);
-
-        Expr condOrAST = parseCondOrExpr();
-
-        if (currentToken.kind == Token.EQ) {
-
-            accept();
-            Expr assignAST = parseAssignmentExpr(); // recursive ...
-
-            finish(pos);
-            return new AssignExpr(condOrAST, assignAST, pos);
+    //
+    // Expressions are parsed by operator precedence, using an explicit
+    // stack of operands and a stack of pending operators instead of one
+    // recursive method per level of the grammar:
+    //
+    //   precedence  operators
+    //   0           =                 (right associative)
+    //   1           ||
+    //   2           &&
+    //   3           == !=
+    //   4           < <= > >=
+    //   5           + -
+    //   6           * /
+    //   UNARY       + - ! (prefix)
+    //
+    // Parentheses are pushed on the operator stack as markers, so neither
+    // long operator chains nor deep nesting use up the Java stack. The
+    // trees and source positions built are the same as those of the
+    // recursive descent parser for the grammar above: a binary or
+    // assignment expression starts where the text of its left operand
+    // (including any parentheses around it) starts, a unary expression
+    // starts at its operator, and each expression finishes at the last
+    // token of its right operand.
+
+    private static final int ASSIGN_PRECEDENCE = 0;
+    private static final int UNARY = 7;
+    private static final int PAREN = -1;
+
+    // the operand stack: an expression and the position where its text
+    // starts (only lineStart and charStart are used)
+    private Expr[] operands = new Expr[32];
+    private SourcePosition[] operandStarts = new SourcePosition[32];
+    private int operandTop = 0;
+
+    // the operator stack: a binary or unary operator (or null for a
+    // parenthesis), its precedence, and for unary operators and
+    // parentheses the position of the operator
+    private Operator[] operators = new Operator[32];
+    private int[] operatorPrecedences = new int[32];
+    private SourcePosition[] operatorPositions = new SourcePosition[32];
+    private int operatorTop = 0;
 
-        } else {
-            
-            return condOrAST;
-        }
+    Expr parseExpr() throws SyntaxError {
 
-    }
+        // parseExpr is re-entered for array indices and arguments, so it
+        // only touches the stack entries above the ones it found
+        int operatorBase = operatorTop;
+        int openParens = 0;
+
+        while (true) {
+
+            // an operand, preceded by any number of unary operators
+            // and opening parentheses
+
+            while (true) {
+                int kind = tokens.kind(currentToken);
+                if (kind == Token.PLUS || kind == Token.MINUS || kind == Token.NOT) {
+                    SourcePosition pos = new SourcePosition();
+                    start(pos);
+                    pushOperator(acceptOperator(), UNARY, pos);
+                } else if (kind == Token.LPAREN) {
+                    SourcePosition pos = new SourcePosition();
+                    start(pos);
+                    accept();
+                    pushOperator(null, PAREN, pos);
+                    openParens++;
+                } else
+                    break;
+            }
 
-    // cond-or-expr -> cond-and-expr ("||" cond-and-expr)*
+            Expr primaryAST = parsePrimaryExpr();
+            pushOperand(primaryAST, primaryAST.position);
 
-    Expr parseCondOrExpr() throws SyntaxError {
+            // the operator after the operand, or closing parentheses
 
+            while (true) {
 
-        SourcePosition startPos = new SourcePosition();
-        start(startPos);
+                while (operatorTop > operatorBase 
+                       && operatorPrecedences[operatorTop - 1] == UNARY)
+                    reduce();
 
-        Expr exprAST = parseCondAndExpr();
-        
-        while (currentToken.kind == Token.OROR) {
-            
-            Operator oAST = acceptOperator();
-            Expr e2AST = parseCondAndExpr();
+                int precedence = binaryPrecedence(tokens.kind(currentToken));
 
-            SourcePosition pos = new SourcePosition();
-            copyStart(startPos, pos);
-            finish(pos);
-
-            exprAST = new BinaryExpr(exprAST, oAST, e2AST, pos);
+                if (precedence >= 0) {
+                    reduceWhileBindsTighter(operatorBase, precedence);
+                    pushOperator(acceptOperator(), precedence, null);
+                    break;
+                } else if (openParens > 0) {
+                    while (operatorPrecedences[operatorTop - 1] != PAREN)
+                        reduce();
+                    match(Token.RPAREN);
+
+                    // the parenthesised expression starts at the "("
+                    operatorTop--;
+                    operandStarts[operandTop - 1] = operatorPositions[operatorTop];
+                    operatorPositions[operatorTop] = null;
+                    openParens--;
+                } else {
+                    while (operatorTop > operatorBase)
+                        reduce();
+                    return operands[--operandTop];
+                }
+            }
         }
-
-        return exprAST;
     }
 
-    // cond-and-expr -> equality-expr ("&&" equality-expr)*
-
-    Expr parseCondAndExpr() throws SyntaxError {
-
-        SourcePosition startPos = new SourcePosition();
-        start(startPos);
-
-        Expr exprAST = parseEqualityExpr();
-        
-        while (currentToken.kind == Token.ANDAND) {
-            
-            Operator oAST = acceptOperator();
-            Expr e2AST = parseEqualityExpr();
-            
-            SourcePosition pos = new SourcePosition();
-            copyStart(startPos, pos);
-            finish(pos);
-
-            exprAST = new BinaryExpr(exprAST, oAST, e2AST, pos);
+    // Returns the precedence of the binary (or assignment) operator kind,
+    // or -1 if kind is not one
+
+    private static int binaryPrecedence(int kind) {
+
+        switch (kind) {
+            case Token.EQ:
+                return ASSIGN_PRECEDENCE;
+            case Token.OROR:
+                return 1;
+            case Token.ANDAND:
+                return 2;
+            case Token.EQEQ:
+            case Token.NOTEQ:
+                return 3;
+            case Token.LT:
+            case Token.LTEQ:
+            case Token.GT:
+            case Token.GTEQ:
+                return 4;
+            case Token.PLUS:
+            case Token.MINUS:
+                return 5;
+            case Token.MULT:
+            case Token.DIV:
+                return 6;
+            default:
+                return -1;
         }
-
-        return exprAST;
     }
 
-    // equality-expr -> rel-expr ("==" rel-expr | 
-    //                            "!=" rel-expr)*
-
-    Expr parseEqualityExpr() throws SyntaxError {
+    // Reduces the binary operators on top of the operator stack that take
+    // their right operand before an operator of the given precedence
+    // does: those of higher precedence, and those of equal precedence
+    // unless it is the right associative "=".
 
-        SourcePosition startPos = new SourcePosition();
-        start(startPos);
+    private void reduceWhileBindsTighter(int operatorBase, int precedence) {
 
-        Expr exprAST = parseRelExpr();
-        
-        while (currentToken.kind == Token.EQEQ ||
-               currentToken.kind == Token.NOTEQ) {
-            
-            Operator oAST = acceptOperator();
-            Expr e2AST = parseRelExpr();
-            
-            SourcePosition pos = new SourcePosition();
-            copyStart(startPos, pos);
-            finish(pos);
-
-            exprAST = new BinaryExpr(exprAST, oAST, e2AST, pos);
+        while (operatorTop > operatorBase) {
+            int top = operatorPrecedences[operatorTop - 1];
+            if (top == PAREN || top < precedence 
+                || (top == precedence && precedence == ASSIGN_PRECEDENCE))
+                return;
+            reduce();
         }
-
-        return exprAST;
     }
-    
-    // rel-expr -> additive-expr ("<" additive-expr  | 
-    //                            "<=" additive-expr | 
-    //                            ">" additive-expr  | 
-    //                            ">=" additive-expr)*
 
-    Expr parseRelExpr() throws SyntaxError {
+    // Pops the operator on top of the operator stack and its operands,
+    // and pushes the expression built from them. Its position finishes
+    // at the last token accepted.
 
-        SourcePosition startPos = new SourcePosition();
-        start(startPos);
+    private void reduce() {
 
-        Expr exprAST = parseAdditiveExpr();
-        
-        while (currentToken.kind == Token.LT ||
-               currentToken.kind == Token.LTEQ ||
-               currentToken.kind == Token.GT ||
-               currentToken.kind == Token.GTEQ) {
+        int precedence = operatorPrecedences[--operatorTop];
+        Operator oAST = operators[operatorTop];
+        SourcePosition pos = operatorPositions[operatorTop];
+        operators[operatorTop] = null;
+        operatorPositions[operatorTop] = null;
 
-            Operator oAST = acceptOperator();
-            Expr eAST = parseAdditiveExpr();
+        Expr e2AST = popOperand();
 
-            SourcePosition pos = new SourcePosition();
-            copyStart(startPos, pos);
+        if (precedence == UNARY) {
             finish(pos);
-
-            exprAST = new BinaryExpr(exprAST, oAST, eAST, pos);
-            
+            pushOperand(new UnaryExpr(oAST, e2AST, pos), pos);
+            return;
         }
 
-        return exprAST;
-    }
-
-    // additive-expr -> multiplicative-expr ("+" multiplicative-expr | 
-    //                                       "-" multiplicative-expr)*
-
-    Expr parseAdditiveExpr() throws SyntaxError {
+        SourcePosition e1Start = operandStarts[operandTop - 1];
+        Expr e1AST = popOperand();
 
-        SourcePosition addStartPos = new SourcePosition();
-        start(addStartPos);
-
-        Expr exprAST = parseMultiplicativeExpr();
-
-        while (currentToken.kind == Token.PLUS || 
-               currentToken.kind == Token.MINUS) {
+        pos = new SourcePosition();
+        copyStart(e1Start, pos);
+        finish(pos);
 
-            Operator opAST = acceptOperator();
-            Expr e2AST = parseMultiplicativeExpr();
+        if (precedence == ASSIGN_PRECEDENCE)
+            pushOperand(new AssignExpr(e1AST, e2AST, pos), pos);
+        else
+            pushOperand(new BinaryExpr(e1AST, oAST, e2AST, pos), pos);
+    }
 
-            SourcePosition addPos = new SourcePosition();
-            copyStart(addStartPos, addPos);
-            finish(addPos);
+    private void pushOperand(Expr eAST, SourcePosition start) {
 
-            exprAST = new BinaryExpr(exprAST, opAST, e2AST, addPos);
+        if (operandTop == operands.length) {
+            operands = java.util.Arrays.copyOf(operands, 2 * operandTop);
+            operandStarts = java.util.Arrays.copyOf(operandStarts, 2 * operandTop);
         }
-
-        return exprAST;
+        operands[operandTop] = eAST;
+        operandStarts[operandTop] = start;
+        operandTop++;
     }
 
-    // multiplicative-expr -> unary-expr ("*" unary-expr | 
-    //                                    "/" unary-expr)*
-
-    Expr parseMultiplicativeExpr() throws SyntaxError {
-
-        SourcePosition multStartPos = new SourcePosition();
-        start(multStartPos);
-
-        Expr eAST = parseUnaryExpr();
-
-        while (currentToken.kind == Token.MULT ||
-               currentToken.kind == Token.DIV) {
-
-            Operator opAST = acceptOperator();
-            Expr e2AST = parseUnaryExpr();
-
-            SourcePosition multPos = new SourcePosition();
-            copyStart(multStartPos, multPos);
-            finish(multPos);
-            
-            eAST = new BinaryExpr(eAST, opAST, e2AST, multPos);
-        }
+    private Expr popOperand() {
 
+        Expr eAST = operands[--operandTop];
+        operands[operandTop] = null;
+        operandStarts[operandTop] = null;
         return eAST;
     }
 
-    // unary-expr -> "+" unary-expr | 
-    //            |  "-" unary-expr
-    //            |  "!" unary-expr
-    //            |  primary-expr 
-    
-    Expr parseUnaryExpr() throws SyntaxError {
-
-        SourcePosition unaryPos = new SourcePosition();
-        start(unaryPos);
+    private void pushOperator(Operator oAST, int precedence, SourcePosition pos) {
 
-        switch (currentToken.kind) {
-            
-            case Token.MINUS:
-            case Token.PLUS:
-            case Token.NOT:
-            
-                Operator oAST = acceptOperator();
-                Expr eAST = parseUnaryExpr(); // recursive...
-
-                finish(unaryPos);
-                return new UnaryExpr(oAST, eAST, unaryPos);
-
-            default:
-                return parsePrimaryExpr();
+        if (operatorTop == operators.length) {
+            operators = java.util.Arrays.copyOf(operators, 2 * operatorTop);
+            operatorPrecedences = java.util.Arrays.copyOf(operatorPrecedences, 2 * operatorTop);
+            operatorPositions = java.util.Arrays.copyOf(operatorPositions, 2 * operatorTop);
         }
+        operators[operatorTop] = oAST;
+        operatorPrecedences[operatorTop] = precedence;
+        operatorPositions[operatorTop] = pos;
+        operatorTop++;
     }
 
     // primary-expr -> identifier (arg-list | "[" expr "]")?
-    //             |  "(" expr ")"
+    //             |  "(" expr ")"      (see parseExpr)
     //             |  INTLITERAL
     //             |  FLOATLITERAL   
     //             |  BOOLLITERAL
@@ -945,12 +959,12 @@ public class Parser {
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        switch (currentToken.kind) {
+        switch (tokens.kind(currentToken)) {
 
             case Token.ID:
                 Ident idAST = parseIdent();
 
-                if (currentToken.kind == Token.LPAREN) {
+                if (tokens.kind(currentToken) == Token.LPAREN) {
 
                     List aplAST = parseArgList();
 
@@ -958,7 +972,7 @@ public class Parser {
                     exprAST = new CallExpr(idAST, aplAST, pos);
                     break;
 
-                } else if (currentToken.kind == Token.LBRACKET) {
+                } else if (tokens.kind(currentToken) == Token.LBRACKET) {
                                     
                     accept();
                     Expr indexAST = parseExpr();
@@ -977,13 +991,6 @@ public class Parser {
                     break;
                 }
 
-            case Token.LPAREN:
-                accept();
-                exprAST = parseExpr();
-                match(Token.RPAREN);
-                finish(pos);
-                break;
-
             case Token.INTLITERAL:
                 IntLiteral ilAST = parseIntLiteral();
                 finish(pos);
@@ -1009,7 +1016,7 @@ public class Parser {
                 break;
                 
             default:
-                syntacticError("illegal primary expression", currentToken.spelling);
+                syntacticError("illegal primary expression", tokens.spelling(currentToken));
 
         }
 
@@ -1038,7 +1045,7 @@ public class Parser {
 
         match(Token.LPAREN);
         
-        if (currentToken.kind != Token.RPAREN) {
+        if (tokens.kind(currentToken) != Token.RPAREN) {
             
             ParaDecl pAST = parseParaDecl();
             List plList = parseMoreParaDecl();
@@ -1066,7 +1073,7 @@ public class Parser {
         Type tAST = parseType();
         Ident idAST = parseIdent();
         
-        if (currentToken.kind == Token.LBRACKET) {
+        if (tokens.kind(currentToken) == Token.LBRACKET) {
 
             accept();
             Expr dAST = parseArraySize();
@@ -1091,7 +1098,7 @@ public class Parser {
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        if (currentToken.kind == Token.INTLITERAL) {
+        if (tokens.kind(currentToken) == Token.INTLITERAL) {
 
             IntLiteral ilAST = parseIntLiteral();
             finish(pos);
@@ -1109,24 +1116,31 @@ public class Parser {
 
     List parseMoreParaDecl() throws SyntaxError {
 
+        ArrayList<ParaDecl> paras = new ArrayList<ParaDecl>();
+        ArrayList<SourcePosition> positions = new ArrayList<SourcePosition>();
+
         SourcePosition listPos = new SourcePosition();
         start(listPos);
 
-        if (currentToken.kind == Token.COMMA) {
+        while (tokens.kind(currentToken) == Token.COMMA) {
 
             accept();
-            ParaDecl pAST = parseParaDecl();
-            List plList = parseMoreParaDecl();
+            paras.add(parseParaDecl());
+            positions.add(listPos);
 
-            finish(listPos);
-            return new ParaList(pAST, plList, listPos);
+            listPos = new SourcePosition();
+            start(listPos);
+        }
 
-        } else {
+        finish(listPos);
+        List l = new EmptyParaList(listPos);
 
+        for (int k = paras.size() - 1; k >= 0; k--) {
+            listPos = positions.get(k);
             finish(listPos);
-            return new EmptyParaList(listPos);
+            l = new ParaList(paras.get(k), l, listPos);
         }
-
+        return l;
     }
 
     // arg-list -> "(" ( arg more-arg-list ) ? ")"
@@ -1138,7 +1152,7 @@ public class Parser {
 
         match(Token.LPAREN);
         
-        if (currentToken.kind != Token.RPAREN) {
+        if (tokens.kind(currentToken) != Token.RPAREN) {
 
             Arg aAST = parseArg();
             List alAST = parseMoreArgList();
@@ -1173,23 +1187,31 @@ public class Parser {
 
     List parseMoreArgList() throws SyntaxError {
 
+        ArrayList<Arg> args = new ArrayList<Arg>();
+        ArrayList<SourcePosition> positions = new ArrayList<SourcePosition>();
+
         SourcePosition pos = new SourcePosition();
         start(pos);
 
-        if (currentToken.kind == Token.COMMA) {
+        while (tokens.kind(currentToken) == Token.COMMA) {
 
             accept();
-            Arg aAST = parseArg();
-            List alList = parseMoreArgList();
+            args.add(parseArg());
+            positions.add(pos);
 
-            finish(pos);
-            return new ArgList(aAST, alList, pos);
+            pos = new SourcePosition();
+            start(pos);
+        }
 
-        } else {
+        finish(pos);
+        List l = new EmptyArgList(pos);
 
+        for (int k = args.size() - 1; k >= 0; k--) {
+            pos = positions.get(k);
             finish(pos);
-            return new EmptyArgList(pos);
+            l = new ArgList(args.get(k), l, pos);
         }
+        return l;
     }
 
     // ========================== ID, OPERATOR and LITERALS ========================
@@ -1198,11 +1220,10 @@ public class Parser {
 
         Ident I = null; 
 
-        if (currentToken.kind == Token.ID) {
-            previousTokenPosition = currentToken.position;
-            String spelling = currentToken.spelling;
-            I = new Ident(spelling, previousTokenPosition);
-            currentToken = scanner.getToken();
+        if (tokens.kind(currentToken) == Token.ID) {
+            String spelling = tokens.spelling(currentToken);
+            I = new Ident(spelling, tokens.nameId(currentToken), tokens.position(currentToken));
+            accept();
         } else 
             syntacticError("identifier expected here", "");
         return I;
@@ -1213,10 +1234,9 @@ public class Parser {
     Operator acceptOperator() throws SyntaxError {
         Operator O = null;
 
-        previousTokenPosition = currentToken.position;
-        String spelling = currentToken.spelling;
-        O = new Operator(spelling, previousTokenPosition);
-        currentToken = scanner.getToken();
+        String spelling = tokens.spelling(currentToken);
+        O = new Operator(spelling, tokens.position(currentToken));
+        accept();
         return O;
     }
 
@@ -1224,10 +1244,10 @@ public class Parser {
     IntLiteral parseIntLiteral() throws SyntaxError {
         IntLiteral IL = null;
 
-        if (currentToken.kind == Token.INTLITERAL) {
-            String spelling = currentToken.spelling;
+        if (tokens.kind(currentToken) == Token.INTLITERAL) {
+            String spelling = tokens.spelling(currentToken);
             accept();
-            IL = new IntLiteral(spelling, previousTokenPosition);
+            IL = new IntLiteral(spelling, tokens.position(previousToken));
         } else 
             syntacticError("integer literal expected here", "");
         return IL;
@@ -1236,10 +1256,10 @@ public class Parser {
     FloatLiteral parseFloatLiteral() throws SyntaxError {
         FloatLiteral FL = null;
 
-        if (currentToken.kind == Token.FLOATLITERAL) {
-            String spelling = currentToken.spelling;
+        if (tokens.kind(currentToken) == Token.FLOATLITERAL) {
+            String spelling = tokens.spelling(currentToken);
             accept();
-            FL = new FloatLiteral(spelling, previousTokenPosition);
+            FL = new FloatLiteral(spelling, tokens.position(previousToken));
         } else 
             syntacticError("float literal expected here", "");
         return FL;
@@ -1248,10 +1268,10 @@ public class Parser {
     BooleanLiteral parseBooleanLiteral() throws SyntaxError {
         BooleanLiteral BL = null;
 
-        if (currentToken.kind == Token.BOOLEANLITERAL) {
-            String spelling = currentToken.spelling;
+        if (tokens.kind(currentToken) == Token.BOOLEANLITERAL) {
+            String spelling = tokens.spelling(currentToken);
             accept();
-            BL = new BooleanLiteral(spelling, previousTokenPosition);
+            BL = new BooleanLiteral(spelling, tokens.position(previousToken));
         } else 
             syntacticError("boolean literal expected here", "");
         return BL;
@@ -1260,10 +1280,10 @@ public class Parser {
     StringLiteral parseStringLiteral() throws SyntaxError {
         StringLiteral SL = null;
 
-        if (currentToken.kind == Token.STRINGLITERAL) {
-            String spelling = currentToken.spelling;
+        if (tokens.kind(currentToken) == Token.STRINGLITERAL) {
+            String spelling = tokens.spelling(currentToken);
             accept();
-            SL = new StringLiteral(spelling, previousTokenPosition);
+            SL = new StringLiteral(spelling, tokens.position(previousToken));
         } else 
             syntacticError("string literal expected here", "");
         return SL;
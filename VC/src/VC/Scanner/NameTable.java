@@ -0,0 +1,139 @@
+/*
+ * NameTable.java
+ *
+ * The identifiers of a compilation, each interned once and numbered
+ * 0, 1, 2, ... in the order first seen. The Parser stores the number
+ * (the name ID) of an identifier in its Ident, so that the Checker and
+ * the code generator can compare identifiers as ints.
+ *
+ * The names of main and of the built-in functions are entered first,
+ * in the order given below, so they have the same IDs in every table.
+ */
+
+package VC.Scanner;
+
+public final class NameTable {
+
+    public static final int NONE = -1;
+
+    public static final int
+        MAIN        = 0,
+        GETINT      = 1,
+        PUTINT      = 2,
+        PUTINTLN    = 3,
+        GETFLOAT    = 4,
+        PUTFLOAT    = 5,
+        PUTFLOATLN  = 6,
+        PUTBOOL     = 7,
+        PUTBOOLLN   = 8,
+        PUTSTRING   = 9,
+        PUTSTRINGLN = 10,
+        PUTLN       = 11;
+
+    private static final String[] predefined = {
+        "main",
+        "getInt",
+        "putInt",
+        "putIntLn",
+        "getFloat",
+        "putFloat",
+        "putFloatLn",
+        "putBool",
+        "putBoolLn",
+        "putString",
+        "putStringLn",
+        "putLn"
+    };
+
+    // An open-addressing hash table: slots[h] is 1 + the ID of the name
+    // stored there, or 0 if slot h is empty. The number of slots is a
+    // power of 2 and at least twice the number of names.
+
+    private int[] slots;
+    private String[] names;     // names[id] is the name with that ID
+    private int[] hashes;       // hashes[id] is hash(names[id])
+    private int count;
+
+    public NameTable() {
+        slots = new int[64];
+        names = new String[32];
+        hashes = new int[32];
+        count = 0;
+        for (int i = 0; i < predefined.length; i++)
+            intern(predefined[i]);
+    }
+
+    // Returns the name with the given predefined ID
+
+    public static String predefinedName(int id) {
+        return predefined[id];
+    }
+
+    // Returns the ID of name, entering name in the table if it is not
+    // there already. A String is only made for names seen for the first
+    // time.
+
+    public int intern(CharSequence name) {
+        int length = name.length();
+        int hash = hash(name, length);
+        int mask = slots.length - 1;
+
+        for (int h = hash & mask; slots[h] != 0; h = (h + 1) & mask) {
+            int id = slots[h] - 1;
+            if (hashes[id] == hash && sameName(names[id], name, length))
+                return id;
+        }
+
+        if (count == names.length) {
+            names = java.util.Arrays.copyOf(names, 2 * count);
+            hashes = java.util.Arrays.copyOf(hashes, 2 * count);
+        }
+        int id = count++;
+        names[id] = name.toString();
+        hashes[id] = hash;
+        if (2 * count > slots.length)
+            rehash(2 * slots.length);
+        else
+            insertSlot(id);
+        return id;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private static int hash(CharSequence name, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++)
+            h = 31 * h + name.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameName(String s, CharSequence name, int length) {
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (s.charAt(i) != name.charAt(i))
+                return false;
+        return true;
+    }
+
+    private void insertSlot(int id) {
+        int mask = slots.length - 1;
+        int h = hashes[id] & mask;
+        while (slots[h] != 0)
+            h = (h + 1) & mask;
+        slots[h] = id + 1;
+    }
+
+    private void rehash(int size) {
+        slots = new int[size];
+        for (int id = 0; id < count; id++)
+            insertSlot(id);
+    }
+
+}
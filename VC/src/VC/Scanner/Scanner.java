@@ -7,12 +7,14 @@
 
 package VC.Scanner;
 
+import VC.CompilationContext;
 import VC.ErrorReporter;
 
 public final class Scanner { 
 
     private SourceFile sourceFile;
     private boolean debug;
+    private boolean tableDriven;
 
     private ErrorReporter errorReporter;
     private StringBuffer currentSpelling;
@@ -26,6 +28,17 @@ public final class Scanner {
     private int currentCol;
     private int currentKind;
     private final int TAB_WIDTH = 8;
+
+    // The position of the token read by the last call to scanToken, and
+    // its extent [tokenStartOffset, tokenEndOffset) in the source buffer.
+    // A token never spans more than one line, so tokenLine is both the
+    // start and the finish line.
+
+    int tokenLine;
+    int tokenCharStart;
+    int tokenCharFinish;
+    int tokenStartOffset;
+    int tokenEndOffset;
     
     // =========================================================
 
@@ -33,7 +46,9 @@ public final class Scanner {
         sourceFile = source;
         errorReporter = reporter;
         currentChar = sourceFile.getNextChar();
+        currentSpelling = new StringBuffer();
         debug = false;
+        tableDriven = false;
 
         // you may initialise your counters for line and column numbers here
         currentLine = 1;
@@ -41,10 +56,26 @@ public final class Scanner {
         currentKind = Token.ERROR;
     }
 
+    // Takes the reporter and the options of the scanner from context
+
+    public Scanner(SourceFile source, CompilationContext context) {
+        this(source, context.reporter);
+        if (context.tableDrivenScanner)
+            enableTableDriven();
+    }
+
     public void enableDebugging() {
         debug = true;
     }
 
+    // Selects the table-driven engine (see TransitionTable.java) in place
+    // of the hand-written didRead* methods. Both engines produce the same
+    // tokens, so their output can be diffed on the same test files.
+
+    public void enableTableDriven() {
+        tableDriven = true;
+    }
+
     // accept gets the next character from the source program.
     //
     // accept causes the following side effects
@@ -146,9 +177,13 @@ public final class Scanner {
 
         if (currentChar == SourceFile.eof) {
             //            System.out.println("readToken detected eof");
-            currentSpelling = new StringBuffer("$");
+            currentSpelling.append('$');
             currentKind = Token.EOF;
 
+        } else if (tableDriven) {
+
+            readTokenFromTable();
+
         } else { 
 
             boolean recognisedToken = 
@@ -165,6 +200,53 @@ public final class Scanner {
         }
     }
 
+    // readTokenFromTable has the same side effects as readToken. It runs
+    // the DFA in TransitionTable over currentChar and the characters after
+    // it (using inspectChar, so that nothing is consumed yet), remembering
+    // the longest prefix that ends in an accepting state. That prefix is
+    // then accepted as the token.
+
+    private void readTokenFromTable() {
+
+        int state = TransitionTable.START;
+        int length = 0;
+        int acceptedLength = 0;
+        int acceptedKind = Token.ERROR;
+        char c = currentChar;
+
+        while ((state = TransitionTable.next(state, c)) != TransitionTable.NONE) {
+            length++;
+            if (TransitionTable.acceptKind(state) != TransitionTable.NONE) {
+                acceptedLength = length;
+                acceptedKind = TransitionTable.acceptKind(state);
+            }
+            c = inspectChar(length);
+        }
+
+        if (acceptedKind == Token.STRINGLITERAL) {
+            didReadStringLiteral();
+            return;
+        }
+
+        if (acceptedLength == 0) {
+            // no token starts with currentChar
+            currentSpelling.append(currentChar);
+            accept();
+            currentKind = Token.ERROR;
+            return;
+        }
+
+        for (int i = 0; i < acceptedLength; i++) {
+            currentSpelling.append(currentChar);
+            accept();
+        }
+
+        if (acceptedKind == Token.ID) 
+            currentKind = TransitionTable.keywordKind(currentSpelling);
+        else
+            currentKind = acceptedKind;
+    }
+
     private boolean isLetter(char c) {
 
         boolean isLower = c >= 'a' && c <= 'z';
@@ -203,51 +285,8 @@ public final class Scanner {
         if (isLetter(currentChar)) {
             getPossibleIdentifier();
 
-            String s = currentSpelling.toString();
-
-            if (s.equals("boolean")) {
-                currentKind = Token.BOOLEAN;
-
-            } else if (s.equals("break")) {
-                currentKind = Token.BREAK;
-
-            } else if (s.equals("continue")) {
-                currentKind = Token.CONTINUE;
-
-            } else if (s.equals("else")) {
-                currentKind = Token.ELSE;
-
-            } else if (s.equals("float")) {
-                currentKind = Token.FLOAT;
-
-            } else if (s.equals("for")) {
-                currentKind = Token.FOR;
-
-            } else if (s.equals("if")) {
-                currentKind = Token.IF;
-
-            } else if (s.equals("int")) {
-                currentKind = Token.INT;
-
-            } else if (s.equals("return")) {
-                currentKind = Token.RETURN;
-
-            } else if (s.equals("void")) {
-                currentKind = Token.VOID;
-
-            } else if (s.equals("while")) {
-                currentKind = Token.WHILE;
-
-            } else if (s.equals("true")) {
-                currentKind = Token.BOOLEANLITERAL; // HACK, FIXME
-
-            } else if (s.equals("false")) {
-                currentKind = Token.BOOLEANLITERAL; // HACK, FIXME
-
-            } else {
-                // If we get here it means we have read an identifier
-                currentKind = Token.ID;
-            }
+            // reserved words and boolean literals, or Token.ID
+            currentKind = TransitionTable.keywordKind(currentSpelling);
 
             return true; // We read an identifier or keyword
         } else { 
@@ -654,11 +693,9 @@ public final class Scanner {
                 }
             }
             if (currentChar == '\n' || currentChar == '\r' || currentChar == sourceFile.eof) { 
-                sourcePos.charFinish = startCol + (currentSpelling.length() - 1) + 1; // the +1 is to include the opening double quote "
-                sourcePos.lineFinish = startLine;
+                tokenCharFinish = startCol + (currentSpelling.length() - 1) + 1; // the +1 is to include the opening double quote "
             } else {
-                sourcePos.charFinish = currentCol;
-                sourcePos.lineFinish = currentLine;
+                tokenCharFinish = currentCol;
             }
             accept(); // Let's accept the character that terminates the string (it should be ", but if the string is unterminated, could be \n, \r or eof) 
             return true; // yes, we read a string from the source file
@@ -871,28 +908,54 @@ public final class Scanner {
 
     // --------------------------------------------------------------------
 
-    public Token getToken() {
-        Token tok;
-        int kind;
+    // scanToken reads the next token without creating a Token for it.
+    // The kind of the token is returned. Its spelling is left in
+    // currentSpelling and its position in the token* fields above.
+
+    int scanToken() {
 
         // skip white space and comments
 
         skipSpaceAndComments();
 
-        currentSpelling = new StringBuffer("");
-
-        // You must record the position of the current token somehow
+        currentSpelling.setLength(0);
 
-        sourcePos = new SourcePosition();
-        sourcePos.lineStart = currentLine;
-        sourcePos.charStart = currentCol;
+        tokenLine = currentLine;
+        tokenCharStart = currentCol;
+        tokenStartOffset = sourceFile.isBuffered() ? sourceFile.offset() : -1;
 
-        kind = nextToken();
+        int kind = nextToken();
 
-        sourcePos.lineFinish = sourcePos.lineStart; 
-        if (currentKind != Token.STRINGLITERAL) {
-            sourcePos.charFinish = sourcePos.charStart + lengthOfToken(currentKind, currentSpelling) - 1; 
+        if (kind != Token.STRINGLITERAL) {
+            tokenCharFinish = tokenCharStart + lengthOfToken(kind, currentSpelling) - 1; 
         }
+        tokenEndOffset = sourceFile.isBuffered() ? sourceFile.offset() : -1;
+
+        return kind;
+    }
+
+    SourceFile getSourceFile() {
+        return sourceFile;
+    }
+
+    String getSpelling() {
+        return currentSpelling.toString();
+    }
+
+    CharSequence getSpellingChars() {
+        return currentSpelling;
+    }
+
+    // getToken returns the next token as a Token object. The Parser reads
+    // tokens through a TokenStream instead, which does not allocate them.
+
+    public Token getToken() {
+        Token tok;
+        int kind;
+
+        kind = scanToken();
+
+        sourcePos = new SourcePosition(tokenLine, tokenCharStart, tokenCharFinish);
 
         tok = new Token(kind, currentSpelling.toString(), sourcePos);
 
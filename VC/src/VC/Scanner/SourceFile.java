@@ -1,5 +1,13 @@
 /*
- * SourceFile.java                   
+ * SourceFile.java
+ *
+ * By default the whole source file is read into a character buffer
+ * when the SourceFile is created, so that getNextChar and inspectChar
+ * are simple array reads. The original line-at-a-time reader can still
+ * be selected with SourceFile(filename, false).
+ *
+ * A file that cannot be read is reported to the PrintStream given (or
+ * System.out), and stops the compilation with a FatalError.
  */
 
 package VC.Scanner;
@@ -7,25 +15,116 @@ package VC.Scanner;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.LineNumberReader;
+import java.io.PrintStream;
+
+import VC.FatalError;
 
 public class SourceFile {
 
   static final char eof = '\u0000';
   private LineNumberReader reader;
 
+  // buffered mode: buffer[0 .. length-1] holds the source program and
+  // pos is the index of the next character to be returned by getNextChar
+  private char[] buffer;
+  private int length;
+  private int pos;
+
   public SourceFile(String filename) {
+    this(filename, true, System.out);
+  }
+
+  public SourceFile(String filename, PrintStream out) {
+    this(filename, true, out);
+  }
+
+  public SourceFile(String filename, boolean buffered) {
+    this(filename, buffered, System.out);
+  }
+
+  public SourceFile(String filename, boolean buffered, PrintStream out) {
     try {
-      reader = new LineNumberReader(new BufferedReader(new FileReader(filename)));
+      if (buffered)
+        readWholeFile(filename);
+      else
+        reader = new LineNumberReader(new BufferedReader(new FileReader(filename)));
     } catch (java.io.FileNotFoundException e) {
-      System.out.println("[# vc #]: can't read: " + filename);
-      System.exit(1);
+      out.println("[# vc #]: can't read: " + filename);
+      throw new FatalError("can't read " + filename);
     } catch (java.io.IOException e) {
-      System.out.println("Caught IOException: " + e.getMessage());
-      System.exit(1);
+      out.println("Caught IOException: " + e.getMessage());
+      throw new FatalError("can't read " + filename);
+    }
+  }
+
+  // Returns a SourceFile for the program text itself, read in buffered
+  // mode as if it had been read from a file
+
+  public static SourceFile fromText(CharSequence text) {
+    SourceFile source = new SourceFile();
+    source.length = text.length();
+    source.buffer = new char[source.length + 1];
+    text.toString().getChars(0, source.length, source.buffer, 0);
+    source.compressLineTerminators();
+    source.pos = 0;
+    return source;
+  }
+
+  private SourceFile() {
+  }
+
+  private void readWholeFile(String filename) throws java.io.IOException {
+    java.io.File file = new java.io.File(filename);
+    FileReader in = new FileReader(file);
+
+    try {
+      // The file length in bytes is an upper bound on the number of
+      // characters for the single-byte encodings used for VC programs;
+      // the buffer grows if a multi-byte encoding proves it wrong.
+      buffer = new char[(int) Math.min(file.length(), Integer.MAX_VALUE - 8) + 1];
+      length = 0;
+      int n;
+      while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+        length += n;
+        if (length == buffer.length) {
+          char[] newBuffer = new char[2 * buffer.length];
+          System.arraycopy(buffer, 0, newBuffer, 0, length);
+          buffer = newBuffer;
+        }
+      }
+    } finally {
+      in.close();
     }
+    compressLineTerminators();
+    pos = 0;
+  }
+
+  // LineNumberReader.read() returns "\r\n" and a lone '\r' as a single
+  // '\n'. The buffer is rewritten in place the same way so that the
+  // Scanner sees exactly the same characters in both modes.
+
+  private void compressLineTerminators() {
+    int to = 0;
+    for (int from = 0; from < length; from++) {
+      char c = buffer[from];
+      if (c == '\r') {
+        c = '\n';
+        if (from + 1 < length && buffer[from + 1] == '\n')
+          from++;
+      }
+      buffer[to++] = c;
+    }
+    length = to;
   }
 
   char getNextChar() {
+    if (buffer != null) {
+      if (pos < length)
+        return buffer[pos++];
+      pos = length + 1;
+      return eof;
+    }
+
     try {
       int  c = reader.read();
       if (c == -1) c = eof;
@@ -36,8 +135,35 @@ public class SourceFile {
     }
   }
 
+  boolean isBuffered() {
+    return buffer != null;
+  }
+
+  // offset returns the index in the buffer of the character last
+  // returned by getNextChar, or the length of the source program once
+  // eof has been returned. Only valid in buffered mode.
+
+  int offset() {
+    return pos - 1;
+  }
+
+  // substring returns the characters of the source program from
+  // offset start up to but not including offset end. Only valid in
+  // buffered mode.
+
+  String substring(int start, int end) {
+    return new String(buffer, start, end - start);
+  }
+
   char inspectChar(int nthChar) {
   // nthChar must be >= 1.
+    if (buffer != null) {
+      int i = pos + nthChar - 1;
+      if (i < length)
+        return buffer[i];
+      return eof;
+    }
+
     int c;
 
     try {
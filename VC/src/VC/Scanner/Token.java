@@ -15,22 +15,13 @@ public final class Token extends Object {
   public Token(int kind, String spelling, SourcePosition position) {
 
     if (kind == Token.ID) {
-      
-      int currentKind = firstReservedWord;
-      boolean searching = true;
-
-      while (searching) {
-        int comparison = keywords[currentKind].compareTo(spelling);
-        if (comparison == 0) {
-          this.kind = currentKind;
-          searching = false;
-        } else if (comparison > 0 || currentKind == lastReservedWord) {
-          this.kind = Token.ID;
-          searching = false;
-        } else {
-          currentKind++;
-        }
-      }
+
+      // the boolean literals are not reserved words
+      int keywordKind = TransitionTable.keywordKind(spelling);
+      if (keywordKind >= firstReservedWord && keywordKind <= lastReservedWord)
+        this.kind = keywordKind;
+      else
+        this.kind = Token.ID;
     } else
       this.kind = kind;
 
@@ -0,0 +1,169 @@
+/*
+ * TokenStream.java
+ *
+ * The tokens of a source program, stored as parallel int arrays rather
+ * than as Token objects. Token i has kind kind(i) and is at
+ * line(i)(charStart(i))..line(i)(charFinish(i)).
+ *
+ * Tokens are read from the Scanner on demand, when the token after the
+ * last one read is asked for by next, so lexical errors are still
+ * reported in step with the syntax errors found by the Parser.
+ *
+ * Identifiers are interned in a NameTable as they are read, and
+ * nameId(i) is the name ID of identifier i. Its spelling is the String
+ * kept in the NameTable, so each identifier is made into a String once.
+ *
+ * Other spellings are only made into Strings when asked for. Int, float
+ * and boolean literals are sliced out of the source buffer; reserved
+ * words, operators and separators share the spellings in Token. String
+ * literals (whose spelling has its escapes processed) and errors keep
+ * the spelling built by the Scanner, as do literals when the source
+ * file is not buffered.
+ */
+
+package VC.Scanner;
+
+public final class TokenStream {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private Scanner scanner;
+    private SourceFile sourceFile;
+    private NameTable names;
+
+    private int count;          // number of tokens read so far
+    private int[] kinds;
+    private int[] lines;
+    private int[] charStarts;
+    private int[] charFinishes;
+    private int[] startOffsets;
+    private int[] endOffsets;
+    private int[] nameIds;
+    private String[] spellings;
+
+    public TokenStream(Scanner scanner) {
+        this(scanner, new NameTable());
+    }
+
+    public TokenStream(Scanner scanner, NameTable names) {
+        this.scanner = scanner;
+        this.names = names;
+        sourceFile = scanner.getSourceFile();
+
+        kinds = new int[INITIAL_CAPACITY];
+        lines = new int[INITIAL_CAPACITY];
+        charStarts = new int[INITIAL_CAPACITY];
+        charFinishes = new int[INITIAL_CAPACITY];
+        startOffsets = new int[INITIAL_CAPACITY];
+        endOffsets = new int[INITIAL_CAPACITY];
+        nameIds = new int[INITIAL_CAPACITY];
+        spellings = new String[INITIAL_CAPACITY];
+
+        read();
+    }
+
+    // first returns the index of the first token of the program
+
+    public int first() {
+        return 0;
+    }
+
+    // next returns the index of the token after token i, reading it from
+    // the Scanner if need be. The EOF token is its own successor.
+
+    public int next(int i) {
+        if (kinds[i] == Token.EOF)
+            return i;
+        if (i + 1 == count)
+            read();
+        return i + 1;
+    }
+
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int charStart(int i) {
+        return charStarts[i];
+    }
+
+    public int charFinish(int i) {
+        return charFinishes[i];
+    }
+
+    // nameId returns the name ID of token i if it is an identifier, and
+    // NameTable.NONE otherwise
+
+    public int nameId(int i) {
+        return nameIds[i];
+    }
+
+    public NameTable names() {
+        return names;
+    }
+
+    public String spelling(int i) {
+        if (kinds[i] == Token.ID)
+            return names.name(nameIds[i]);
+
+        String s = spellings[i];
+        if (s == null) {
+            if (hasSourceSpelling(kinds[i])) {
+                s = sourceFile.substring(startOffsets[i], endOffsets[i]);
+                spellings[i] = s;
+            } else
+                s = Token.spell(kinds[i]);
+        }
+        return s;
+    }
+
+    // position returns a new SourcePosition for token i
+
+    public SourcePosition position(int i) {
+        return new SourcePosition(lines[i], charStarts[i], charFinishes[i]);
+    }
+
+    private static boolean hasSourceSpelling(int kind) {
+        return kind == Token.INTLITERAL
+            || kind == Token.FLOATLITERAL || kind == Token.BOOLEANLITERAL;
+    }
+
+    private void read() {
+        if (count == kinds.length)
+            grow();
+
+        int kind = scanner.scanToken();
+
+        kinds[count] = kind;
+        lines[count] = scanner.tokenLine;
+        charStarts[count] = scanner.tokenCharStart;
+        charFinishes[count] = scanner.tokenCharFinish;
+        startOffsets[count] = scanner.tokenStartOffset;
+        endOffsets[count] = scanner.tokenEndOffset;
+        if (kind == Token.ID)
+            nameIds[count] = names.intern(scanner.getSpellingChars());
+        else
+            nameIds[count] = NameTable.NONE;
+        if (kind == Token.STRINGLITERAL || kind == Token.ERROR
+                || (hasSourceSpelling(kind) && !sourceFile.isBuffered()))
+            spellings[count] = scanner.getSpelling();
+        count++;
+    }
+
+    private void grow() {
+        int capacity = 2 * kinds.length;
+        kinds = java.util.Arrays.copyOf(kinds, capacity);
+        lines = java.util.Arrays.copyOf(lines, capacity);
+        charStarts = java.util.Arrays.copyOf(charStarts, capacity);
+        charFinishes = java.util.Arrays.copyOf(charFinishes, capacity);
+        startOffsets = java.util.Arrays.copyOf(startOffsets, capacity);
+        endOffsets = java.util.Arrays.copyOf(endOffsets, capacity);
+        nameIds = java.util.Arrays.copyOf(nameIds, capacity);
+        spellings = java.util.Arrays.copyOf(spellings, capacity);
+    }
+
+}
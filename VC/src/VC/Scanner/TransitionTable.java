@@ -0,0 +1,269 @@
+/*
+ * TransitionTable.java
+ *
+ * The state-transition table used by the table-driven engine of the
+ * Scanner (see Scanner.enableTableDriven), and a perfect-hash lookup
+ * for the reserved words and boolean literals.
+ *
+ * The table is generated when the class is loaded from the edges
+ * listed in buildTable(). A state is accepting iff acceptKind[state]
+ * is not NONE; the Scanner follows transitions for as long as it can
+ * and then backs up to the last accepting state (longest match).
+ *
+ * The transitions recognise identifiers, operators, separators and
+ * int and float literals. A double quote leads to the accepting state
+ * STRING, which has no transitions out of it: the Scanner reads the
+ * rest of a string literal itself, since string literals need escape
+ * processing and error reporting rather than just a DFA.
+ */
+
+package VC.Scanner;
+
+final class TransitionTable {
+
+    static final int NONE = -1;
+
+    // States
+
+    static final int
+        START     = 0,
+        ID        = 1,
+        INT       = 2,   // digit+
+        INT_DOT   = 3,   // digit+ .
+        DOT       = 4,   // .
+        FRACTION  = 5,   // digit* . digit+
+        E         = 6,   // ... (E|e)
+        E_SIGN    = 7,   // ... (E|e) (+|-)
+        EXPONENT  = 8,   // ... (E|e) (+|-)? digit+
+        LT        = 9,
+        LTEQ      = 10,
+        GT        = 11,
+        GTEQ      = 12,
+        EQ        = 13,
+        EQEQ      = 14,
+        NOT       = 15,
+        NOTEQ     = 16,
+        AMP       = 17,
+        ANDAND    = 18,
+        BAR       = 19,
+        OROR      = 20,
+        PLUS      = 21,
+        MINUS     = 22,
+        MULT      = 23,
+        DIV       = 24,
+        LCURLY    = 25,
+        RCURLY    = 26,
+        LPAREN    = 27,
+        RPAREN    = 28,
+        LBRACKET  = 29,
+        RBRACKET  = 30,
+        SEMICOLON = 31,
+        COMMA     = 32,
+        STRING    = 33,
+        NUM_STATES = 34;
+
+    // Only ASCII characters take part in tokens other than string literals
+
+    private static final int NUM_CHARS = 128;
+
+    // delta[state * NUM_CHARS + c] is the state reached from state on c
+    private static final byte[] delta = new byte[NUM_STATES * NUM_CHARS];
+
+    // acceptKind[state] is the Token kind recognised in state
+    private static final int[] acceptKind = new int[NUM_STATES];
+
+    private static final String LETTERS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz_";
+    private static final String DIGITS = "0123456789";
+
+    static int next(int state, char c) {
+        if (c >= NUM_CHARS)
+            return NONE;
+        return delta[state * NUM_CHARS + c];
+    }
+
+    static int acceptKind(int state) {
+        return acceptKind[state];
+    }
+
+    private static void buildTable() {
+        java.util.Arrays.fill(delta, (byte) NONE);
+        java.util.Arrays.fill(acceptKind, NONE);
+
+        // identifiers and reserved words
+
+        edges(START, LETTERS, ID);
+        edges(ID, LETTERS + DIGITS, ID);
+        accept(ID, Token.ID);
+
+        // int and float literals
+
+        edges(START, DIGITS, INT);
+        edges(INT, DIGITS, INT);
+        accept(INT, Token.INTLITERAL);
+
+        edges(INT, ".", INT_DOT);
+        accept(INT_DOT, Token.FLOATLITERAL);
+        edges(INT_DOT, DIGITS, FRACTION);
+
+        edges(START, ".", DOT);
+        edges(DOT, DIGITS, FRACTION);
+        edges(FRACTION, DIGITS, FRACTION);
+        accept(FRACTION, Token.FLOATLITERAL);
+
+        edges(INT, "Ee", E);
+        edges(INT_DOT, "Ee", E);
+        edges(FRACTION, "Ee", E);
+        edges(E, "+-", E_SIGN);
+        edges(E, DIGITS, EXPONENT);
+        edges(E_SIGN, DIGITS, EXPONENT);
+        edges(EXPONENT, DIGITS, EXPONENT);
+        accept(EXPONENT, Token.FLOATLITERAL);
+
+        // operators
+
+        edges(START, "<", LT);
+        accept(LT, Token.LT);
+        edges(LT, "=", LTEQ);
+        accept(LTEQ, Token.LTEQ);
+        edges(START, ">", GT);
+        accept(GT, Token.GT);
+        edges(GT, "=", GTEQ);
+        accept(GTEQ, Token.GTEQ);
+        edges(START, "=", EQ);
+        accept(EQ, Token.EQ);
+        edges(EQ, "=", EQEQ);
+        accept(EQEQ, Token.EQEQ);
+        edges(START, "!", NOT);
+        accept(NOT, Token.NOT);
+        edges(NOT, "=", NOTEQ);
+        accept(NOTEQ, Token.NOTEQ);
+        edges(START, "&", AMP);
+        edges(AMP, "&", ANDAND);
+        accept(ANDAND, Token.ANDAND);
+        edges(START, "|", BAR);
+        edges(BAR, "|", OROR);
+        accept(OROR, Token.OROR);
+
+        single('+', PLUS, Token.PLUS);
+        single('-', MINUS, Token.MINUS);
+        single('*', MULT, Token.MULT);
+        single('/', DIV, Token.DIV);
+
+        // separators
+
+        single('{', LCURLY, Token.LCURLY);
+        single('}', RCURLY, Token.RCURLY);
+        single('(', LPAREN, Token.LPAREN);
+        single(')', RPAREN, Token.RPAREN);
+        single('[', LBRACKET, Token.LBRACKET);
+        single(']', RBRACKET, Token.RBRACKET);
+        single(';', SEMICOLON, Token.SEMICOLON);
+        single(',', COMMA, Token.COMMA);
+
+        // string literals are completed by the Scanner
+
+        single('"', STRING, Token.STRINGLITERAL);
+    }
+
+    private static void edges(int from, String chars, int to) {
+        for (int i = 0; i < chars.length(); i++)
+            delta[from * NUM_CHARS + chars.charAt(i)] = (byte) to;
+    }
+
+    private static void accept(int state, int kind) {
+        acceptKind[state] = kind;
+    }
+
+    private static void single(char c, int state, int kind) {
+        edges(START, String.valueOf(c), state);
+        accept(state, kind);
+    }
+
+    // ------------------------------------------------------------------
+    // Keywords
+    // ------------------------------------------------------------------
+
+    // The reserved words followed by the two boolean literals
+
+    private static final String[] keywords = {
+        "boolean", "break", "continue", "else", "float", "for",
+        "if", "int", "return", "void", "while", "true", "false"
+    };
+
+    private static final int[] keywordKinds = {
+        Token.BOOLEAN, Token.BREAK, Token.CONTINUE, Token.ELSE,
+        Token.FLOAT, Token.FOR, Token.IF, Token.INT, Token.RETURN,
+        Token.VOID, Token.WHILE, Token.BOOLEANLITERAL, Token.BOOLEANLITERAL
+    };
+
+    // hash(s) = (length + firstFactor * first char + lastFactor * last char)
+    //           mod hashSize
+    // The factors and the size are the smallest ones found by
+    // buildKeywordTable that make hash a perfect hash for the keywords.
+
+    private static int hashSize, firstFactor, lastFactor;
+    private static char[][] hashedSpellings;
+    private static int[] hashedKinds;
+
+    // The tables are built when the class is loaded, after the keyword
+    // arrays above have been initialised
+
+    static {
+        buildTable();
+        buildKeywordTable();
+    }
+
+    private static int hash(CharSequence s, int length) {
+        return (length + firstFactor * s.charAt(0) + lastFactor * s.charAt(length - 1)) % hashSize;
+    }
+
+    private static void buildKeywordTable() {
+        for (hashSize = keywords.length; ; hashSize++) {
+            for (firstFactor = 0; firstFactor < 16; firstFactor++) {
+                for (lastFactor = 0; lastFactor < 16; lastFactor++) {
+                    if (isPerfect()) {
+                        hashedSpellings = new char[hashSize][];
+                        hashedKinds = new int[hashSize];
+                        for (int i = 0; i < keywords.length; i++) {
+                            int h = hash(keywords[i], keywords[i].length());
+                            hashedSpellings[h] = keywords[i].toCharArray();
+                            hashedKinds[h] = keywordKinds[i];
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isPerfect() {
+        boolean[] used = new boolean[hashSize];
+        for (int i = 0; i < keywords.length; i++) {
+            int h = hash(keywords[i], keywords[i].length());
+            if (used[h])
+                return false;
+            used[h] = true;
+        }
+        return true;
+    }
+
+    // Returns the kind of the reserved word or boolean literal spelt by
+    // spelling, or Token.ID if spelling is neither.
+
+    static int keywordKind(CharSequence spelling) {
+        int length = spelling.length();
+        if (length == 0)
+            return Token.ID;
+
+        int h = hash(spelling, length);
+        char[] candidate = hashedSpellings[h];
+        if (candidate == null || candidate.length != length)
+            return Token.ID;
+        for (int i = 0; i < length; i++)
+            if (candidate[i] != spelling.charAt(i))
+                return Token.ID;
+        return hashedKinds[h];
+    }
+
+}
@@ -23,7 +23,13 @@ public class vcscanner {
 
         System.out.println("======= The VC compiler =======");
 
-        SourceFile source = new SourceFile(inputFilename);
+        SourceFile source;
+        try {
+            source = new SourceFile(inputFilename);
+        } catch (FatalError e) {
+            System.exit(1);
+            return;
+        }
 
         reporter = new ErrorReporter();
         scanner  = new Scanner(source, reporter);
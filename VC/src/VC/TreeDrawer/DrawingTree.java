@@ -8,6 +8,7 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.awt.Point;
+import java.util.Stack;
 
 public class DrawingTree {
 
@@ -43,7 +44,32 @@ public class DrawingTree {
   private final int FIXED_FONT_ASCENT = 3;
   private final Color nodeColor = new Color(255, 255, 255);
 
+  // The tree is painted and positioned with a stack of its nodes rather
+  // than by recursion, since a long list is a deep tree
+
   public void paint (Graphics graphics) {
+    Stack<DrawingTree> nodes = new Stack<DrawingTree>();
+    Stack<Integer> next = new Stack<Integer>();
+    nodes.push(this);
+    next.push(0);
+    paintNode(graphics);
+    while (!nodes.isEmpty()) {
+      DrawingTree node = nodes.peek();
+      int i = next.pop();
+      if (node.children != null && i < node.children.length) {
+        next.push(i + 1);
+        DrawingTree child = node.children[i];
+        child.paintNode(graphics);
+        nodes.push(child);
+        next.push(0);
+      } else {
+        nodes.pop();
+        node.paintLine(graphics);
+      }
+    }
+  }
+
+  private void paintNode (Graphics graphics) {
     graphics.setFont(font);
     graphics.setColor(nodeColor);
     graphics.fillRect(pos.x, pos.y, width, height);
@@ -51,13 +77,9 @@ public class DrawingTree {
     graphics.drawRect(pos.x, pos.y, width - 1, height - 1);
     graphics.drawString(caption, pos.x + 2,
                         pos.y + (height + FIXED_FONT_HEIGHT) / 2);
+  }
 
-    if (children != null) {
-      for (int i = 0; i < children.length; i++) {
-        children[i].paint(graphics);
-      }
-    }
-
+  private void paintLine (Graphics graphics) {
     if (parent != null) {
       graphics.drawLine(pos.x + width / 2, pos.y,
                         parent.pos.x + parent.width / 2,
@@ -70,13 +92,21 @@ public class DrawingTree {
     this.pos.x = pos.x + this.offset.x;
     this.pos.y = pos.y + this.offset.y;
 
-    Point temp = new Point(this.pos.x, this.pos.y);
+    Stack<DrawingTree> nodes = new Stack<DrawingTree>();
+    nodes.push(this);
+    while (!nodes.isEmpty()) {
+      DrawingTree node = nodes.pop();
+      Point temp = new Point(node.pos.x, node.pos.y);
 
-    if (children != null) {
-      for (int i = 0; i < children.length; i++) {
-        children[i].position(temp);
-        temp.x += children[i].offset.x;
-        temp.y = this.pos.y + children[0].offset.y;
+      if (node.children != null) {
+        for (int i = 0; i < node.children.length; i++) {
+          DrawingTree child = node.children[i];
+          child.pos.x = temp.x + child.offset.x;
+          child.pos.y = temp.y + child.offset.y;
+          nodes.push(child);
+          temp.x += child.offset.x;
+          temp.y = node.pos.y + node.children[0].offset.y;
+        }
       }
     }
   }
@@ -6,10 +6,12 @@ package VC.TreeDrawer;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
 import javax.swing.*;
 
 import VC.ASTs.Visitor;
 import VC.ASTs.*;
+import VC.ASTs.List;
 
 import VC.Scanner.SourcePosition;
 
@@ -64,8 +66,19 @@ public class LayoutVisitor implements Visitor {
 
 
   // Declarations
+
+  // The lists are laid out from their last cell back to their first
+  // rather than by recursion, so long lists do not overflow the stack
+
   public Object visitDeclList(DeclList ast, Object obj) {
-    return layoutBinary("DecList", ast.D, ast.DL);
+    ArrayList<AST> heads = new ArrayList<AST>();
+    List list = ast;
+    while (list instanceof DeclList) {
+      DeclList cell = (DeclList) list;
+      heads.add(cell.D);
+      list = cell.DL;
+    }
+    return layoutList("DecList", heads, list);
   }
 
   public Object visitFuncDecl(FuncDecl ast, Object obj) {
@@ -83,7 +96,14 @@ public class LayoutVisitor implements Visitor {
   // Stmts
 
   public Object visitStmtList(StmtList ast, Object obj) {
-    return layoutBinary("StmtList", ast.S, ast.SL);
+    ArrayList<AST> heads = new ArrayList<AST>();
+    List list = ast;
+    while (list instanceof StmtList) {
+      StmtList cell = (StmtList) list;
+      heads.add(cell.S);
+      list = cell.SL;
+    }
+    return layoutList("StmtList", heads, list);
   }
 
   public Object visitIfStmt(IfStmt ast, Object obj) {
@@ -173,7 +193,14 @@ public class LayoutVisitor implements Visitor {
   }
 
   public Object visitExprList(ExprList ast, Object obj) {
-    return layoutBinary("ExprList", ast.E, ast.EL);
+    ArrayList<AST> heads = new ArrayList<AST>();
+    List list = ast;
+    while (list instanceof ExprList) {
+      ExprList cell = (ExprList) list;
+      heads.add(cell.E);
+      list = cell.EL;
+    }
+    return layoutList("ExprList", heads, list);
   }
 
   public Object visitEmptyExpr(EmptyExpr ast, Object obj) {
@@ -183,7 +210,14 @@ public class LayoutVisitor implements Visitor {
   // Formal Parameters
 
   public Object visitParaList (ParaList ast, Object obj) {
-    return layoutBinary("ParaLst", ast.P, ast.PL);
+    ArrayList<AST> heads = new ArrayList<AST>();
+    List list = ast;
+    while (list instanceof ParaList) {
+      ParaList cell = (ParaList) list;
+      heads.add(cell.P);
+      list = cell.PL;
+    }
+    return layoutList("ParaLst", heads, list);
   }
 
   public Object visitParaDecl(ParaDecl ast, Object obj) {
@@ -193,7 +227,14 @@ public class LayoutVisitor implements Visitor {
   // Arguments
 
   public Object visitArgList(ArgList ast, Object obj) {
-    return layoutBinary("ArgList", ast.A, ast.AL);
+    ArrayList<AST> heads = new ArrayList<AST>();
+    List list = ast;
+    while (list instanceof ArgList) {
+      ArgList cell = (ArgList) list;
+      heads.add(cell.A);
+      list = cell.AL;
+    }
+    return layoutList("ArgList", heads, list);
   }
 
   public Object visitArg(Arg ast, Object obj) {
@@ -315,6 +356,30 @@ public class LayoutVisitor implements Visitor {
     return dt;
   }
 
+  // Lays out the cells of a list, whose heads are in heads and whose
+  // empty list is tail, as layoutBinary would one cell at a time
+
+  private DrawingTree layoutList (String name, ArrayList<AST> heads, List tail) {
+    DrawingTree d2 = (DrawingTree) tail.visit(this, null);
+    for (int i = heads.size() - 1; i >= 0; i--) {
+      AST child1 = heads.get(i);
+      String caption = name;
+      if (debug) {
+        SourcePosition pos = child1.parent.position;
+        caption += " " + pos.lineStart 
+                   + "(" + pos.charStart + ").." 
+                   + pos.lineFinish+ "(" 
+                   + pos.charFinish + ")";
+      }
+      DrawingTree dt = layoutCaption(caption);
+      DrawingTree d1 = (DrawingTree) child1.visit(this, null);
+      dt.setChildren(new DrawingTree[] {d1, d2});
+      attachParent(dt, join(dt));
+      d2 = dt;
+    }
+    return d2;
+  }
+
   private DrawingTree layoutTernary (String name, AST child1, AST child2,
                                      AST child3) {
     if (debug) {
@@ -11,7 +11,9 @@ package VC.TreePrinter;
 
 
 import VC.ASTs.*;
+import VC.FatalError;
 import java.io.FileWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 
 public class Printer implements Visitor {
@@ -21,13 +23,20 @@ public class Printer implements Visitor {
   private PrintWriter textOut;
 
   public Printer(String filename) {
+    this(filename, System.out);
+  }
+
+  // An error opening filename is reported to out, and stops the
+  // compilation with a FatalError
+
+  public Printer(String filename, PrintStream out) {
     indent = 0;
 
     try {
       textOut = new PrintWriter(new FileWriter(filename));
     } catch (java.io.IOException e) {
-      System.out.println("Caught IOException: " + e.getMessage());
-      System.exit(1);
+      out.println("Caught IOException: " + e.getMessage());
+      throw new FatalError("can't write " + filename);
     }
   }
 
@@ -92,12 +101,23 @@ public class Printer implements Visitor {
 
 
   // Declarations
+
+  // Each list is printed as nested cells, as if it were visited
+  // recursively, but is walked in a loop so long lists do not overflow
+  // the stack
+
   public Object visitDeclList(DeclList ast, Object o) {
-    print(indentString() + "DeclList");
-    ++indent;
-    ast.D.visit(this, o);
-    ast.DL.visit(this, o);
-    --indent;
+    int depth = indent;
+    List list = ast;
+    while (list instanceof DeclList) {
+      DeclList cell = (DeclList) list;
+      print(indentString() + "DeclList");
+      ++indent;
+      cell.D.visit(this, o);
+      list = cell.DL;
+    }
+    list.visit(this, o);
+    indent = depth;
     return null;
   }
 
@@ -141,11 +161,17 @@ public class Printer implements Visitor {
   // Stmts
 
   public Object visitStmtList(StmtList ast, Object o) {
-    print(indentString() + "StmtList");
-    ++indent;
-    ast.S.visit(this, o);
-    ast.SL.visit(this, o);
-    --indent;
+    int depth = indent;
+    List list = ast;
+    while (list instanceof StmtList) {
+      StmtList cell = (StmtList) list;
+      print(indentString() + "StmtList");
+      ++indent;
+      cell.S.visit(this, o);
+      list = cell.SL;
+    }
+    list.visit(this, o);
+    indent = depth;
     return null;
   }
 
@@ -323,11 +349,17 @@ public class Printer implements Visitor {
   }
 
   public Object visitExprList(ExprList ast, Object o) {
-    print(indentString() + "ExprList");
-    ++indent;
-    ast.E.visit(this, o);
-    ast.EL.visit(this, o);
-    --indent;
+    int depth = indent;
+    List list = ast;
+    while (list instanceof ExprList) {
+      ExprList cell = (ExprList) list;
+      print(indentString() + "ExprList");
+      ++indent;
+      cell.E.visit(this, o);
+      list = cell.EL;
+    }
+    list.visit(this, o);
+    indent = depth;
     return null;
   }
 
@@ -340,11 +372,17 @@ public class Printer implements Visitor {
   // Parameters
 
   public Object visitParaList (ParaList ast, Object o) {
-    print(indentString() + "ParaList");
-    ++indent;
-    ast.P.visit(this, o);
-    ast.PL.visit(this, o);
-    --indent;
+    int depth = indent;
+    List list = ast;
+    while (list instanceof ParaList) {
+      ParaList cell = (ParaList) list;
+      print(indentString() + "ParaList");
+      ++indent;
+      cell.P.visit(this, o);
+      list = cell.PL;
+    }
+    list.visit(this, o);
+    indent = depth;
     return null;
   }
 
@@ -361,11 +399,17 @@ public class Printer implements Visitor {
   // Arguments
 
   public Object visitArgList(ArgList ast, Object o) {
-    print(indentString() + "ArgList");
-    ++indent;
-    ast.A.visit(this, o);
-    ast.AL.visit(this, o);
-    --indent;
+    int depth = indent;
+    List list = ast;
+    while (list instanceof ArgList) {
+      ArgList cell = (ArgList) list;
+      print(indentString() + "ArgList");
+      ++indent;
+      cell.A.visit(this, o);
+      list = cell.AL;
+    }
+    list.visit(this, o);
+    indent = depth;
     return null;
   }
 
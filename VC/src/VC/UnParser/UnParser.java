@@ -19,7 +19,9 @@ package VC.UnParser;
 
 
 import VC.ASTs.*;
+import VC.FatalError;
 import java.io.FileWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 
 public class UnParser implements Visitor {
@@ -33,6 +35,13 @@ public class UnParser implements Visitor {
 "\\\"", "\\\\" };      
 
   public UnParser(String filename) {
+    this(filename, System.out);
+  }
+
+  // An error opening filename is reported to out, and stops the
+  // compilation with a FatalError
+
+  public UnParser(String filename, PrintStream out) {
     // By definition, all function declarations are in scope level 1
     level = 1;
     firstFunction = true; 
@@ -40,8 +49,8 @@ public class UnParser implements Visitor {
     try {
       textOut = new PrintWriter(new FileWriter(filename));
     } catch (java.io.IOException e) {
-      System.out.println("Caught IOException: " + e.getMessage());
-      System.exit(1);
+      out.println("Caught IOException: " + e.getMessage());
+      throw new FatalError("can't write " + filename);
     }
   }
 
@@ -113,9 +122,18 @@ public class UnParser implements Visitor {
 
 
   // Declarations
+
+  // The lists are walked in a loop rather than by recursion, so long
+  // lists do not overflow the stack
+
   public Object visitDeclList(DeclList ast, Object o) {
-    ast.D.visit(this, o);
-    ast.DL.visit(this, o);
+    List list = ast;
+    while (list instanceof DeclList) {
+      DeclList cell = (DeclList) list;
+      cell.D.visit(this, o);
+      list = cell.DL;
+    }
+    list.visit(this, o);
     return null;
   }
 
@@ -188,8 +206,13 @@ public class UnParser implements Visitor {
   // Stmts
 
   public Object visitStmtList(StmtList ast, Object o) {
-    ast.S.visit(this, o);
-    ast.SL.visit(this, o);
+    List list = ast;
+    while (list instanceof StmtList) {
+      StmtList cell = (StmtList) list;
+      cell.S.visit(this, o);
+      list = cell.SL;
+    }
+    list.visit(this, o);
     return null;
   }
 
@@ -378,10 +401,15 @@ public class UnParser implements Visitor {
   }
 
   public Object visitExprList(ExprList ast, Object o) {
-    ast.E.visit(this, o);
-    if (! (ast.EL instanceof EmptyExprList))
-      print(",");
-    ast.EL.visit(this, o);
+    List list = ast;
+    while (list instanceof ExprList) {
+      ExprList cell = (ExprList) list;
+      cell.E.visit(this, o);
+      if (! (cell.EL instanceof EmptyExprList))
+        print(",");
+      list = cell.EL;
+    }
+    list.visit(this, o);
     return null;
   }
 
@@ -393,10 +421,15 @@ public class UnParser implements Visitor {
   // Parameters
 
   public Object visitParaList (ParaList ast, Object o) {
-    ast.P.visit(this, o);
-    if (! (ast.PL instanceof EmptyParaList))
-      print(", ");
-    ast.PL.visit(this, o);
+    List list = ast;
+    while (list instanceof ParaList) {
+      ParaList cell = (ParaList) list;
+      cell.P.visit(this, o);
+      if (! (cell.PL instanceof EmptyParaList))
+        print(", ");
+      list = cell.PL;
+    }
+    list.visit(this, o);
     return null;
   }
 
@@ -417,10 +450,15 @@ public class UnParser implements Visitor {
   // Arguments
 
   public Object visitArgList(ArgList ast, Object o) {
-    ast.A.visit(this, o);
-    if (! (ast.AL instanceof EmptyArgList))
-      print(", ");
-    ast.AL.visit(this, o);
+    List list = ast;
+    while (list instanceof ArgList) {
+      ArgList cell = (ArgList) list;
+      cell.A.visit(this, o);
+      if (! (cell.AL instanceof EmptyArgList))
+        print(", ");
+      list = cell.AL;
+    }
+    list.visit(this, o);
     return null;
   }
 
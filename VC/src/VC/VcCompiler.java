@@ -0,0 +1,152 @@
+/*
+ * VcCompiler.java
+ *
+ * The compiler as a library: compiles a VC program given as text into
+ * a class file in memory, without touching any file. The errors are
+ * returned as Diagnostics rather than printed, and the class file is
+ * returned rather than written.
+ *
+ *     VcCompiler.Result result =
+ *         VcCompiler.compile("gcd.vc", text, new VcCompiler.Options());
+ *     if (result.successful())
+ *         ... result.classname, result.classFile ...
+ *     else
+ *         for (Diagnostic d : result.diagnostics) ...
+ *
+ * Every call has a CompilationContext of its own, so calls may be made
+ * from many threads at the same time.
+ *
+ * parse and generate are the passes of a compilation, shared with vc,
+ * which runs them on a source file and writes the class file instead.
+ */
+
+package VC;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import VC.ASTs.AST;
+import VC.Checker.Checker;
+import VC.CodeGen.Emitter;
+import VC.Optimiser.ConstantFolder;
+import VC.Optimiser.DeadCodeEliminator;
+import VC.Parser.Parser;
+import VC.Scanner.Scanner;
+import VC.Scanner.SourceFile;
+
+public final class VcCompiler {
+
+    public static final class Options {
+        public boolean tableDrivenScanner = false;
+        public boolean keepingJasmin = false; // return the Jasmin text too
+        public boolean staticMethods = false; // see CompilationContext
+        public boolean optimising = false;    // see CompilationContext
+        public boolean usingIR = false;       // see CompilationContext
+        public boolean optimisingLoops = true; // see CompilationContext
+        public int inlineSize = 20;           // see CompilationContext
+        public int inlineBudget = 1000;       // see CompilationContext
+    }
+
+    public static final class Result {
+
+        // the name of the class, or null if the program has errors
+        public final String classname;
+        // the class file, or null if the program has errors
+        public final byte[] classFile;
+        // the Jasmin text of the class, if Options.keepingJasmin is set
+        // and the class was generated (even if it then failed to assemble)
+        public final String jasmin;
+        public final List<Diagnostic> diagnostics;
+
+        Result(String classname, byte[] classFile, String jasmin,
+               List<Diagnostic> diagnostics) {
+            this.classname = classname;
+            this.classFile = classFile;
+            this.jasmin = jasmin;
+            this.diagnostics = diagnostics;
+        }
+
+        public boolean successful() {
+            return classFile != null;
+        }
+    }
+
+    private VcCompiler() {
+    }
+
+    // Compiles source, a VC program named name, e.g. "gcd.vc". The class
+    // is named after name the way vc names it after the source file.
+
+    public static Result compile(String name, CharSequence source, Options options) {
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+        });
+        CompilationContext context = new CompilationContext(name, discard);
+        context.tableDrivenScanner = options.tableDrivenScanner;
+        context.staticMethods = options.staticMethods;
+        context.optimising = options.optimising;
+        context.usingIR = options.usingIR;
+        context.optimisingLoops = options.optimisingLoops;
+        context.inlineSize = options.inlineSize;
+        context.inlineBudget = options.inlineBudget;
+        context.writingClassFile = false;
+        ErrorReporter reporter = context.reporter;
+
+        String classname = null;
+        byte[] classFile = null;
+        String jasmin = null;
+        try {
+            AST theAST = parse(SourceFile.fromText(source), context);
+            Emitter emitter = reporter.numErrors == 0 ? generate(theAST, context) : null;
+            if (emitter != null && reporter.numErrors == 0) {
+                if (options.keepingJasmin)
+                    jasmin = context.code.text();
+                classFile = context.code.assemble(emitter.getJasminFilename());
+                classname = emitter.getClassname();
+            }
+        } catch (FatalError e) {
+            internalError(reporter, e.getMessage());
+        } catch (RuntimeException e) {
+            internalError(reporter, e.toString());
+        } catch (StackOverflowError e) {
+            internalError(reporter, e.toString());
+        }
+        return new Result(classname, classFile, jasmin, reporter.diagnostics);
+    }
+
+    // Returns the AST of the program in source
+
+    static AST parse(SourceFile source, CompilationContext context) {
+        context.out.println("Pass 1: Lexical and syntactic Analysis");
+        Scanner scanner = new Scanner(source, context);
+        return new Parser(scanner, context).parseProgram();
+    }
+
+    // Checks theAST and, if it has no errors, optimises it (with -O) and
+    // generates its class into context.code, and returns the Emitter.
+    // Returns null if the Checker finds errors.
+
+    static Emitter generate(AST theAST, CompilationContext context) {
+        context.out.println("Pass 2: Semantic Analysis");
+        new Checker(context).check(theAST);
+        if (context.reporter.numErrors != 0)
+            return null;
+        if (context.optimising) {
+            new ConstantFolder(context).fold(theAST);
+            new DeadCodeEliminator().eliminate(theAST);
+        }
+        context.out.println("Pass 3: Code Generation");
+        context.out.println();
+        Emitter emitter = new Emitter(context);
+        emitter.gen(theAST);
+        return emitter;
+    }
+
+    private static void internalError(ErrorReporter reporter, String message) {
+        reporter.diagnostics.add(new Diagnostic(Diagnostic.ERROR,
+            "internal error: " + message, null));
+    }
+
+}
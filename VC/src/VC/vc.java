@@ -6,74 +6,118 @@
 
 package VC;
 
-import VC.Scanner.Scanner;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 import VC.Scanner.SourceFile;
-import VC.Parser.Parser;
 import VC.ASTs.AST;
 import VC.TreeDrawer.Drawer;
 import VC.TreePrinter.Printer;
 import VC.UnParser.UnParser;
-import VC.Checker.Checker;
-import VC.CodeGen.Emitter;
 
 public class vc {
 
-    private static Scanner scanner;
-    private static ErrorReporter reporter;
-    private static Parser parser;
-    private static Drawer drawer; 
-    private static Printer printer;
-    private static UnParser unparser;
-    private static Checker checker; 
-    private static Emitter emitter; 
-
-    private static int drawingAST = 0;
-    private static boolean printingAST = false;
-    private static boolean unparsingAST = false;
-    private static String inputFilename; 
-    private static String astFilename = ""; 
-    private static String unparsingFilename = ""; 
-
-    private static AST theAST;
-
-    private static void cmdLineOptions() {
-        System.out.println("\nUsage: java VC.vc [-options] filename");
-        System.out.println();
-        System.out.println("where options include:");
-        System.out.println("	-d [1234]           display the AST (without SourcePosition)");
-        System.out.println("	                    1:  the AST from the parser (without SourcePosition)");
-        System.out.println("	                    2:  the AST from the parser (with SourcePosition)");
-        System.out.println("	                    3:  the AST from the checker (without SourcePosition)");
-        System.out.println("	                    4:  the AST from the checker (with SourcePosition)");
-        System.out.println("	-t [file]           print the (non-annotated) AST into <file>"); 
-        System.out.println("	                    (or filename + \"t\" if <file> is unspecified)"); 
-        System.out.println("	-u [file]  	    unparse the (non-annotated) AST into <file>");
-        System.out.println("	                    (or filename + \"u\" if <file> is unspecified)"); 
-        System.exit(1);
+    private static void cmdLineOptions(PrintStream out) {
+        out.println("\nUsage: java VC.vc [-options] filename ...");
+        out.println();
+        out.println("where options include:");
+        out.println("	-d [1234]           display the AST (without SourcePosition)");
+        out.println("	                    1:  the AST from the parser (without SourcePosition)");
+        out.println("	                    2:  the AST from the parser (with SourcePosition)");
+        out.println("	                    3:  the AST from the checker (without SourcePosition)");
+        out.println("	                    4:  the AST from the checker (with SourcePosition)");
+        out.println("	-t [file]           print the (non-annotated) AST into <file>"); 
+        out.println("	                    (or filename + \"t\" if <file> is unspecified)"); 
+        out.println("	-u [file]  	    unparse the (non-annotated) AST into <file>");
+        out.println("	                    (or filename + \"u\" if <file> is unspecified)"); 
+        out.println("	-dfa                use the table-driven scanner");
+        out.println("	-j n                compile with n threads (the default is one per core)");
+        out.println("	-o dir              write the .class files into <dir>");
+        out.println("	-S                  also write the Jasmin assembly code into a .j file");
+        out.println("	-static             compile functions into static methods");
+        out.println("	-O                  optimise the generated code");
+        out.println("	-ir                 compile the functions through the SSA form of VC.IR");
+        out.println("	-inline n           with -ir -O, inline functions of up to n IR instructions");
+        out.println("	                    (20 by default; 0 inlines nothing)");
+        out.println("	-inline-budget n    but grow no function beyond n IR instructions (1000)");
+        out.println();
+        out.println("Each filename may also be a directory, standing for the .vc files in it,");
+        out.println("or @file, standing for the filenames listed in <file>. When more than");
+        out.println("one file is compiled, the files given to -t and -u are ignored, and the");
+        out.println("exit status is 1 if any file fails to compile.");
+        throw new FatalError("usage");
     }
 
     public static void main(String[] args) {
+        int status = run(args, null, System.out, true);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    // Runs vc with the given command-line arguments, resolving relative
+    // filenames against directory (or the current directory if it is
+    // null) and printing all messages to out. A single file is compiled
+    // with the Emitter's trace (see CompilationContext.tracing) if
+    // tracing is true; a batch never is. Returns the exit status.
+
+    public static int run(String[] args, File directory, PrintStream out, boolean tracing) {
+        try {
+            return runOrFail(args, directory, out, tracing);
+        } catch (FatalError e) {
+            return 1;
+        }
+    }
+
+    private static int runOrFail(String[] args, File directory, PrintStream out,
+                                 boolean tracing) {
         int i = 0;
         String arg;
 
-        System.out.println("======= The VC compiler =======\n");
+        int drawingAST = 0;
+        boolean printingAST = false;
+        boolean unparsingAST = false;
+        boolean tableDrivenScanner = false;
+        String inputFilename = null; 
+        String astFilename = ""; 
+        String unparsingFilename = ""; 
+        String outputDirectory = null;
+        boolean writingJasminFile = false;
+        boolean staticMethods = false;
+        boolean optimising = false;
+        boolean usingIR = false;
+        int inlineSize = 20;
+        int inlineBudget = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        out.println("======= The VC compiler =======\n");
 
         while (i < args.length && args[i].startsWith("-")) {
             arg = args[i++];
 
-            if (arg.startsWith("-d") && !arg.equals("-d")) {
+            if (arg.equals("-dfa")) {
+                tableDrivenScanner = true;
+            } else if (arg.startsWith("-d") && !arg.equals("-d")) {
                 int n = 0;
                 try {
                     n = Integer.parseInt(arg.substring(2));
                 } catch (NumberFormatException e) {
-                    System.out.println("[# vc #]: invalid option " + arg); 
-                    cmdLineOptions();
+                    out.println("[# vc #]: invalid option " + arg); 
+                    cmdLineOptions(out);
                 }
                 if (1 <= n && n <= 4) 
                     drawingAST = n;
                 else {
-                    System.out.println("[# vc #]: invalid option " + arg); 
-                    cmdLineOptions();
+                    out.println("[# vc #]: invalid option " + arg); 
+                    cmdLineOptions(out);
                 }
             } else if (arg.equals("-d")) {
                 if (i < args.length) { 
@@ -90,8 +134,8 @@ public class vc {
                         drawingAST = 4;
                         i++;
                     } else {
-                        System.out.println("[# vc #]: invalid option -d " + args[i]); 
-                        cmdLineOptions();
+                        out.println("[# vc #]: invalid option -d " + args[i]); 
+                        cmdLineOptions(out);
                     }
                 }
             } else if (arg.startsWith("-t")) {
@@ -101,6 +145,42 @@ public class vc {
                 else if (i < args.length && !args[i].startsWith("-"))
                     astFilename = args[i++];
                 // the default is inputFilename + "p"
+            } else if (arg.startsWith("-j")) {
+                String n = arg.equals("-j") && i < args.length ? args[i++] : arg.substring(2);
+                try {
+                    threads = Integer.parseInt(n);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    out.println("[# vc #]: invalid option " + arg + " " + n); 
+                    cmdLineOptions(out);
+                }
+            } else if (arg.equals("-S")) {
+                writingJasminFile = true;
+            } else if (arg.equals("-static")) {
+                staticMethods = true;
+            } else if (arg.equals("-O")) {
+                optimising = true;
+            } else if (arg.equals("-ir")) {
+                usingIR = true;
+            } else if (arg.equals("-inline") || arg.equals("-inline-budget")) {
+                String n = i < args.length ? args[i++] : "";
+                int value = -1;
+                try {
+                    value = Integer.parseInt(n);
+                } catch (NumberFormatException e) {
+                }
+                if (value < 0) {
+                    out.println("[# vc #]: invalid option " + arg + " " + n); 
+                    cmdLineOptions(out);
+                }
+                if (arg.equals("-inline"))
+                    inlineSize = value;
+                else
+                    inlineBudget = value;
+            } else if (arg.equals("-o") && i < args.length) {
+                outputDirectory = args[i++];
             } else if (arg.startsWith("-u")) {
                 unparsingAST = true;
                 if (! arg.equals("-u")) 
@@ -109,25 +189,168 @@ public class vc {
                     unparsingFilename = args[i++];
                 // the default is inputFilename + "u"
             } else {
-                System.out.println("[# vc #]: invalid option " + arg); 
-                cmdLineOptions();
+                out.println("[# vc #]: invalid option " + arg); 
+                cmdLineOptions(out);
             }
         }
         if (i == args.length) {
-            System.out.println("[# vc #]: no input file"); 
-            cmdLineOptions();
+            out.println("[# vc #]: no input file"); 
+            cmdLineOptions(out);
         } else
             inputFilename = args[i];
 
-        SourceFile source = new SourceFile(inputFilename);
+        ArrayList<String> inputs = new ArrayList<String>();
+        boolean batch = false;
+        for (; i < args.length; i++)
+            batch |= addInputs(args[i], directory, inputs, out);
+        batch |= inputs.size() > 1;
+
+        CompilationContext context = new CompilationContext(inputFilename, out);
+        context.directory = directory;
+        context.outputDirectory = outputDirectory;
+        context.writingJasminFile = writingJasminFile;
+        context.staticMethods = staticMethods;
+        context.optimising = optimising;
+        context.usingIR = usingIR;
+        context.inlineSize = inlineSize;
+        context.inlineBudget = inlineBudget;
+        context.drawingAST = drawingAST;
+        context.printingAST = printingAST;
+        context.unparsingAST = unparsingAST;
+        context.tableDrivenScanner = tableDrivenScanner;
+        context.astFilename = astFilename;
+        context.unparsingFilename = unparsingFilename;
+        context.tracing = tracing && !batch;
+
+        if (batch)
+            return compileAll(context, inputs, threads) == 0 ? 0 : 1;
 
-        reporter = new ErrorReporter();
+        if (!context.file(inputFilename).canRead()) {
+            out.println("[# vc #]: can't read: " + inputFilename);
+            return 1;
+        }
+        compile(context);
+        return 0;
+    }
 
-        System.out.println("Pass 1: Lexical and syntactic Analysis");
-        scanner  = new Scanner(source, reporter);
-        parser   = new Parser(scanner, reporter);
+    // Adds the files named by arg to inputs, and returns true if arg is
+    // a directory or an @file rather than a single file
 
-        theAST = parser.parseProgram();
+    private static boolean addInputs(String arg, File directory,
+                                     ArrayList<String> inputs, PrintStream out) {
+        if (arg.startsWith("@")) {
+            try {
+                File argfile = CompilationContext.resolve(directory, arg.substring(1));
+                BufferedReader in = new BufferedReader(new FileReader(argfile));
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    for (String name : line.trim().split("\\s+"))
+                        if (name.length() > 0)
+                            addInputs(name, directory, inputs, out);
+                }
+                in.close();
+            } catch (IOException e) {
+                out.println("[# vc #]: can't read: " + arg.substring(1));
+                throw new FatalError("can't read " + arg.substring(1));
+            }
+            return true;
+        }
+
+        File file = CompilationContext.resolve(directory, arg);
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            Arrays.sort(names);
+            for (String name : names) {
+                String entry = new File(arg, name).getPath();
+                if (new File(file, name).isDirectory() || name.endsWith(".vc"))
+                    addInputs(entry, directory, inputs, out);
+            }
+            return true;
+        }
+
+        inputs.add(arg);
+        return false;
+    }
+
+    // Compiles each of inputs, with the options in context, as a task of
+    // a work-stealing pool of the given number of threads. The messages
+    // of each file are collected while it is compiled and printed in one
+    // piece, in the order of inputs, followed by a summary. Returns the
+    // number of files that failed to compile.
+
+    private static int compileAll(final CompilationContext options,
+                                  ArrayList<String> inputs, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<ForkJoinTask<Boolean>>();
+        ArrayList<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+
+        for (final String input : inputs) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            tasks.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    PrintStream out = new PrintStream(output, true);
+                    return compileFile(options.forFile(input, out));
+                }
+            }));
+        }
+
+        PrintStream out = options.out;
+        ArrayList<String> failures = new ArrayList<String>();
+        for (int k = 0; k < inputs.size(); k++) {
+            boolean successful = tasks.get(k).join();
+            out.println("[# vc #]: " + inputs.get(k));
+            out.print(outputs.get(k).toString());
+            out.println();
+            if (!successful)
+                failures.add(inputs.get(k));
+        }
+        pool.shutdown();
+
+        for (String input : inputs)
+            out.println("[# vc #]: " + (failures.contains(input) ? "FAILED " : "ok     ") + input);
+        out.println("[# vc #]: " + inputs.size() + " files compiled, "
+                           + failures.size() + " failed");
+        return failures.size();
+    }
+
+    // Compiles one file of a batch, counting any error that would stop
+    // the compiler as a failure of this file only
+
+    private static boolean compileFile(CompilationContext context) {
+        if (!context.file(context.inputFilename).canRead()) {
+            context.out.println("[# vc #]: can't read: " + context.inputFilename);
+            return false;
+        }
+        try {
+            return compile(context);
+        } catch (FatalError e) {
+            return false;
+        } catch (RuntimeException e) {
+            context.out.println("[# vc #]: internal error: " + e);
+            return false;
+        } catch (StackOverflowError e) {
+            context.out.println("[# vc #]: internal error: " + e);
+            return false;
+        }
+    }
+
+    // Compiles context.inputFilename with the options in context, and
+    // returns true if it compiled without errors. Keeps no state outside
+    // context, so compilations with different contexts can run at the
+    // same time.
+
+    public static boolean compile(CompilationContext context) {
+        PrintStream out = context.out;
+        ErrorReporter reporter = context.reporter;
+        String inputFilename = context.inputFilename;
+        String astFilename = context.astFilename;
+        String unparsingFilename = context.unparsingFilename;
+        int drawingAST = context.drawingAST;
+        Drawer drawer;
+
+        SourceFile source = new SourceFile(context.file(inputFilename).getPath(), out);
+
+        AST theAST = VcCompiler.parse(source, context);
 
         if (reporter.numErrors == 0) {
             // We unparse and print the AST created by the parser. Both 
@@ -135,19 +358,19 @@ public class vc {
             // (Assignment 3).
             // We can also unparse and print the annotated AST from the 
             // checker but this is not as useful.
-            if (unparsingAST) {
+            if (context.unparsingAST) {
                 if (unparsingFilename.equals(""))
                     unparsingFilename = inputFilename + "u";
-                unparser = new UnParser(unparsingFilename);
+                UnParser unparser = new UnParser(context.file(unparsingFilename).getPath(), out);
                 unparser.unparse(theAST); 
-                System.out.println("[# vc #]: The unparsed VC program printed to " + unparsingFilename);
+                out.println("[# vc #]: The unparsed VC program printed to " + unparsingFilename);
             }
-            if (printingAST) {
+            if (context.printingAST) {
                 if (astFilename.equals(""))
                     astFilename = inputFilename + "p";
-                printer = new Printer(astFilename);
+                Printer printer = new Printer(context.file(astFilename).getPath(), out);
                 printer.print(theAST); 
-                System.out.println("[# vc #]: The linearised AST printed to " + astFilename);
+                out.println("[# vc #]: The linearised AST printed to " + astFilename);
             }
             if (1 <= drawingAST && drawingAST <= 2) {
                 drawer   = new Drawer();
@@ -156,21 +379,13 @@ public class vc {
                 drawer.draw(theAST); // draw the AST
             }
 
-            System.out.println("Pass 2: Semantic Analysis");
-            checker  = new Checker(reporter);
-            checker.check(theAST);
-
-            if (reporter.numErrors == 0) {
-                System.out.println("Pass 3: Code Generation");
-                System.out.println();
-                emitter = new Emitter(inputFilename, reporter);
-                emitter.gen(theAST);
+            if (VcCompiler.generate(theAST, context) != null) {
                 if (reporter.numErrors == 0) 
-                    System.out.println ("Compilation was successful.");
+                    out.println ("Compilation was successful.");
                 else
-                    System.out.println ("Compilation was unsuccessful.");
+                    out.println ("Compilation was unsuccessful.");
             } else
-                System.out.println ("Compilation was unsuccessful.");
+                out.println ("Compilation was unsuccessful.");
 
             if (drawingAST >= 3) {
                 drawer   = new Drawer();
@@ -180,7 +395,9 @@ public class vc {
             }
         }
         else 
-            System.out.println ("Compilation was unsuccessful.");
+            out.println ("Compilation was unsuccessful.");
+
+        return reporter.numErrors == 0;
     }
 
 }
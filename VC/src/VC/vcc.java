@@ -0,0 +1,76 @@
+/*
+ * vcc.java
+ *
+ * A thin client for the compile server vcd. It takes the same command
+ * line as vc, has vcd run it, and prints what vc printed and exits with
+ * its status. If no server is listening, or its token cannot be read
+ * (see vcd), it runs vc itself, so vcc can stand in for vc whether or
+ * not a server has been started.
+ *
+ * Usage: java VC.vcc [-p port] [-options] filename ...
+ */
+
+package VC;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+public class vcc {
+
+    public static void main(String[] args) {
+        int port = vcd.DEFAULT_PORT;
+        if (args.length >= 2 && args[0].equals("-p")) {
+            port = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        String token = vcd.readToken(port);
+        int status;
+        try {
+            if (token == null)
+                status = vc.run(args, null, System.out, false);
+            else
+                status = request(port, token, System.getProperty("user.dir"), args, System.out);
+        } catch (ConnectException e) {
+            status = vc.run(args, null, System.out, false);
+        } catch (IOException e) {
+            System.out.println("[# vcc #]: request failed: " + e.getMessage());
+            status = 1;
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    // Has the server on port, whose token is token, run vc with args in
+    // directory, copies what it printed to out and returns its exit status
+
+    public static int request(int port, String token, String directory, String[] args,
+                              OutputStream out) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeUTF(token);
+            request.writeUTF(directory);
+            request.writeInt(args.length);
+            for (String arg : args)
+                request.writeUTF(arg);
+            request.flush();
+
+            DataInputStream reply = new DataInputStream(socket.getInputStream());
+            int status = reply.readInt();
+            byte[] output = new byte[reply.readInt()];
+            reply.readFully(output);
+            out.write(output);
+            return status;
+        } finally {
+            socket.close();
+        }
+    }
+
+}
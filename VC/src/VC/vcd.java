@@ -0,0 +1,215 @@
+/*
+ * vcd.java
+ *
+ * The VC compile server. It runs vc on behalf of vcc clients in one
+ * long-lived JVM, so that the compiler is loaded, and compiled by the
+ * JIT, once rather than once per run.
+ *
+ * Usage: java VC.vcd [-p port]
+ *
+ * The server listens on the loopback interface only, on port 3131 by
+ * default, and serves each connection on a thread of its own. A
+ * connection carries one request, written with a DataOutputStream:
+ *
+ *     token       (UTF)   the token of the server (see below)
+ *     directory   (UTF)   the working directory of the client
+ *     n           (int)   the number of arguments
+ *     arguments   (UTF)   n of them: the vc command line
+ *
+ * and the server replies with
+ *
+ *     status      (int)   the exit status of vc
+ *     length      (int)   the number of bytes that follow
+ *     output      (bytes) everything vc printed
+ *
+ * Relative filenames in the request are taken relative to the
+ * directory of the client, and the .j files are written where vc would
+ * write them (or into the directory given to -o).
+ *
+ * The server reads and writes files with the rights of the user who
+ * started it, and any local user can connect to a loopback port, so it
+ * serves only the requests that carry its token: a random string it
+ * writes on startup to the file ~/.vcd-<port>, which only its user can
+ * read (see tokenFile), and deletes when it exits. The token is read and
+ * checked before anything else, and a connection with the wrong one is
+ * closed without a reply. The token guards the server only as well as
+ * the permissions of the home directory guard the file.
+ *
+ * A request with more than MAX_ARGUMENTS arguments is refused with
+ * status 1, and a connection that sends nothing for TIMEOUT ms before
+ * its request is complete is closed.
+ */
+
+package VC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class vcd {
+
+    public static final int DEFAULT_PORT = 3131;
+
+    public static final int MAX_ARGUMENTS = 4096;
+    public static final int TIMEOUT = 10000; // ms
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        if (args.length == 2 && args[0].equals("-p"))
+            port = Integer.parseInt(args[1]);
+        else if (args.length != 0) {
+            System.out.println("Usage: java VC.vcd [-p port]");
+            System.exit(1);
+        }
+
+        ServerSocket server = listen(port);
+        String token = newToken();
+        File file = tokenFile(server.getLocalPort());
+        writeToken(file, token);
+        file.deleteOnExit();
+        System.out.println("[# vcd #]: listening on port " + server.getLocalPort());
+        serve(server, token);
+    }
+
+    // Returns a server socket on the loopback interface. If port is 0,
+    // a free port is chosen.
+
+    public static ServerSocket listen(int port) throws IOException {
+        return new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    // The token of the server on port is kept in this file
+
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".vcd-" + port);
+    }
+
+    public static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes)
+            token.append(String.format("%02x", b & 0xff));
+        return token.toString();
+    }
+
+    // Writes token to file, readable and writable by its owner only. The
+    // permissions are set while the file is still empty.
+
+    private static void writeToken(File file, String token) throws IOException {
+        file.delete();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            if (!(file.setReadable(false, false) && file.setReadable(true, true)
+                    && file.setWritable(false, false) && file.setWritable(true, true)))
+                throw new IOException("can't make " + file + " private");
+            out.write(token.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    // Returns the token of the server on port, or null if its file cannot
+    // be read, e.g. because no server of this user is running
+
+    public static String readToken(int port) {
+        File file = tokenFile(port);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Serves the requests made to server that carry token until it is
+    // closed
+
+    public static void serve(ServerSocket server, final String token) {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        try {
+            while (true) {
+                final Socket client = server.accept();
+                workers.execute(new Runnable() {
+                    public void run() {
+                        handle(client, token);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // the server socket has been closed
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static void handle(Socket client, String token) {
+        try {
+            client.setSoTimeout(TIMEOUT);
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            String given = in.readUTF();
+            if (!MessageDigest.isEqual(given.getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+                System.out.println("[# vcd #]: request refused: wrong token");
+                return;
+            }
+            File directory = new File(in.readUTF());
+            int n = in.readInt();
+            String[] args = null;
+            if (n >= 0 && n <= MAX_ARGUMENTS) {
+                args = new String[n];
+                for (int i = 0; i < n; i++)
+                    args[i] = in.readUTF();
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(output, true);
+            int status;
+            try {
+                if (args == null) {
+                    out.println("[# vcd #]: request refused: bad argument count " + n);
+                    status = 1;
+                } else
+                    status = vc.run(args, directory, out, false);
+            } catch (RuntimeException e) {
+                out.println("[# vcd #]: internal error: " + e);
+                status = 1;
+            } catch (StackOverflowError e) {
+                out.println("[# vcd #]: internal error: " + e);
+                status = 1;
+            }
+            out.flush();
+
+            DataOutputStream reply = new DataOutputStream(client.getOutputStream());
+            reply.writeInt(status);
+            reply.writeInt(output.size());
+            output.writeTo(reply);
+            reply.flush();
+        } catch (IOException e) {
+            System.out.println("[# vcd #]: request failed: " + e.getMessage());
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+}
@@ -18,16 +18,29 @@ public class vcscanner {
     private static String inputFilename; 
 
  
+    // Usage: java VC.vcscanner [-dfa] filename
+    //
+    // -dfa selects the table-driven scanner engine
+
     public static void main(String[] args) {
-        inputFilename = args[0];
+        boolean tableDriven = args.length > 1 && args[0].equals("-dfa");
+        inputFilename = args[tableDriven ? 1 : 0];
 
         System.out.println("======= The VC compiler =======");
 
-        SourceFile source = new SourceFile(inputFilename);
+        SourceFile source;
+        try {
+            source = new SourceFile(inputFilename);
+        } catch (FatalError e) {
+            System.exit(1);
+            return;
+        }
 
         reporter = new ErrorReporter();
         scanner  = new Scanner(source, reporter);
         scanner.enableDebugging();
+        if (tableDriven)
+            scanner.enableTableDriven();
 
         do 
 	  currentToken = scanner.getToken();